@@ -0,0 +1,410 @@
+package benchmarks;
+
+import com.github.luben.zstd.Zstd;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for each stage of the GameByte codec, run over Dataset images of different sizes.
+ * Every benchmark adds the image's megapixels to an auxiliary counter, so the "megapixels" row of the
+ * results is throughput in MP/s; main always adds the GC profiler for allocation rate.
+ *
+ * Build and run: mvn -P jmh package, then java -jar target/benchmarks.jar [JMH options], e.g.
+ * java -jar target/benchmarks.jar "CodecBenchmark.(encode|decode)" -p image=3.png
+ * The colour stages run on the Vector API; add -jvmArgsAppend -Dgamebyte.simd=false for the scalar loops.
+ *
+ * JMH cannot generate code for classes in the default package, so the benchmarks live in their own
+ * package and reach the codec through method handles held in static finals, which the JIT treats as
+ * constants and inlines like direct calls.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Dgamebyte.simd=true"})
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final String DATASET = "/assets/textures/Dataset/";
+
+    private static final MethodHandle FROM_IMAGE;
+    private static final MethodHandle TO_IMAGE;
+    private static final MethodHandle FOR_IMAGE;
+    private static final MethodHandle READ_ROW;
+    private static final MethodHandle CONVERT_ROW;
+    private static final MethodHandle SUBSAMPLE_ROW;
+    private static final MethodHandle PLANE_Y;
+    private static final MethodHandle PLANE_CB;
+    private static final MethodHandle PLANE_CR;
+    private static final MethodHandle PLANE_WIDTH;
+    private static final MethodHandle PLANE_HEIGHT;
+    private static final MethodHandle LOAD_BLOCK;
+    private static final MethodHandle NEW_DCT;
+    private static final MethodHandle FORWARD_DCT;
+    private static final MethodHandle INVERSE_DCT;
+    private static final MethodHandle QUANTIZE_CHANNEL;
+    private static final MethodHandle PACK_INDICES;
+    private static final MethodHandle UNPACK_INDICES;
+    private static final MethodHandle INVERSE_BLOCK;
+    private static final MethodHandle STORE_BLOCK;
+    private static final MethodHandle COMPRESS_IMAGE;
+    private static final MethodHandle COMPRESS_PLANES;
+    private static final MethodHandle DECOMPRESS;
+    private static final Object LUMINANCE_DIVISORS;
+    private static final Object CHROMINANCE_DIVISORS;
+    private static final Object QUALITY_LEVELS;
+    private static final Object LUMINANCE_MULTIPLIERS;
+    private static final boolean FLOAT_PLANES;
+
+    static {
+        try {
+            Class<?> planarImage = Class.forName("PlanarImage");
+            Class<?> plane = Class.forName("PlanarImage$Plane");
+            Class<?> rowReader = Class.forName("PlanarImage$RowReader");
+            Class<?> blockDct = Class.forName("BlockDct");
+            Class<?> compressor = Class.forName("GameByteCompressor");
+            Class<?> decompressor = Class.forName("GameByteDecompressor");
+
+            FROM_IMAGE = method(planarImage, "fromImage", BufferedImage.class, boolean.class);
+            TO_IMAGE = method(planarImage, "toImage");
+            FOR_IMAGE = method(rowReader, "forImage", BufferedImage.class);
+            READ_ROW = method(rowReader, "read", int.class, int[].class);
+            CONVERT_ROW = method(planarImage, "convertRow", int[].class, double[].class, double[].class, double[].class);
+            SUBSAMPLE_ROW = method(planarImage, "subsampleRow", double[].class, double[].class, int.class, double[].class);
+            PLANE_Y = getter(planarImage, "y");
+            PLANE_CB = getter(planarImage, "cb");
+            PLANE_CR = getter(planarImage, "cr");
+            PLANE_WIDTH = getter(plane, "width");
+            PLANE_HEIGHT = getter(plane, "height");
+            LOAD_BLOCK = method(plane, "loadBlock", int.class, int.class, double[].class);
+            var dctConstructor = blockDct.getDeclaredConstructor();
+            dctConstructor.setAccessible(true);
+            NEW_DCT = MethodHandles.lookup().unreflectConstructor(dctConstructor);
+            FORWARD_DCT = method(blockDct, "forward", double[].class);
+            INVERSE_DCT = method(blockDct, "inverse", double[].class);
+            QUANTIZE_CHANNEL = method(compressor, "quantizeChannel", plane, double[].class);
+            PACK_INDICES = method(compressor, "packIndices", int[].class, float[].class, boolean.class, DataOutputStream.class);
+            UNPACK_INDICES = method(decompressor, "unpackIndices", DataInputStream.class, float[].class, double[].class,
+                    boolean.class, blockDct, double[].class);
+            INVERSE_BLOCK = method(decompressor, "inverse", int.class, plane, int.class, int.class, blockDct, double[].class);
+            STORE_BLOCK = method(plane, "storeBlock", int.class, int.class, double[].class);
+            COMPRESS_IMAGE = method(compressor, "compress", BufferedImage.class, OutputStream.class, int.class);
+            COMPRESS_PLANES = method(compressor, "compress", planarImage, OutputStream.class, int.class);
+            DECOMPRESS = method(decompressor, "decompress", InputStream.class);
+            LUMINANCE_DIVISORS = getter(compressor, "LUMINANCE_DIVISORS").invoke();
+            CHROMINANCE_DIVISORS = getter(compressor, "CHROMINANCE_DIVISORS").invoke();
+            QUALITY_LEVELS = getter(compressor, "QUALITY_LEVELS").invoke();
+            LUMINANCE_MULTIPLIERS = getter(decompressor, "LUMINANCE_MULTIPLIERS").invoke();
+            FLOAT_PLANES = (boolean) getter(compressor, "FLOAT_PLANES").invoke();
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Dataset images: 256x256, 512x512, 640x480, 640x640 and 2000x2000
+    @Param({"1.png", "2.png", "10.png", "4.png", "3.png"})
+    public String image;
+
+    private BufferedImage source;
+    private double megapixels;
+    private Object reader;
+    private Object planes;
+    private Object lumaPlane;
+    private int lumaWidth;
+    private int lumaHeight;
+    private Object dct;
+    private int[] rgbRow;
+    private double[] yRow;
+    private double[] cbRow;
+    private double[] crRow;
+    private double[][] fullCb;
+    private double[][] fullCr;
+    private double[] subsampled;
+    private double[] block;
+    private double[] transformed;
+    private int[][] quantized;
+    private int[] zigZag;
+    private ByteArrayOutputStream packedOut;
+    private byte[] packed;
+    private byte[] packedZstd;
+    private byte[] packedLuma;
+    private ByteArrayOutputStream encodedOut;
+    private byte[] encoded;
+
+    /** Counts processed megapixels; JMH reports it as a rate next to each benchmark's ops/s. */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Pixels {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megapixels = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        try (InputStream in = CodecBenchmark.class.getResourceAsStream(DATASET + image)) {
+            if (in == null) {
+                throw new FileNotFoundException(DATASET + image);
+            }
+            source = ImageIO.read(in);
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        megapixels = width * (double) height / 1_000_000.0;
+        reader = FOR_IMAGE.invoke(source);
+        planes = FROM_IMAGE.invoke(source, FLOAT_PLANES);
+        lumaPlane = PLANE_Y.invoke(planes);
+        lumaWidth = (int) PLANE_WIDTH.invoke(lumaPlane);
+        lumaHeight = (int) PLANE_HEIGHT.invoke(lumaPlane);
+        dct = NEW_DCT.invoke();
+
+        // Row buffers for colour conversion, and full-resolution chroma for subsampling
+        rgbRow = new int[width];
+        yRow = new double[width];
+        cbRow = new double[width];
+        crRow = new double[width];
+        fullCb = new double[height][width];
+        fullCr = new double[height][width];
+        for (int y = 0; y < height; y++) {
+            READ_ROW.invoke(reader, y, rgbRow);
+            CONVERT_ROW.invoke(rgbRow, yRow, fullCb[y], fullCr[y]);
+        }
+        subsampled = new double[(width + 1) / 2];
+
+        // Forward-transformed luma blocks for the inverse DCT
+        block = new double[BLOCK_SIZE * BLOCK_SIZE];
+        transformed = new double[lumaWidth * lumaHeight];
+        int offset = 0;
+        for (int y = 0; y < lumaHeight; y += BLOCK_SIZE) {
+            for (int x = 0; x < lumaWidth; x += BLOCK_SIZE) {
+                LOAD_BLOCK.invoke(lumaPlane, x, y, block);
+                FORWARD_DCT.invoke(dct, block);
+                System.arraycopy(block, 0, transformed, offset, block.length);
+                offset += block.length;
+            }
+        }
+
+        quantized = quantizeAll();
+        zigZag = new int[BLOCK_SIZE * BLOCK_SIZE];
+        packedOut = new ByteArrayOutputStream();
+        packChannels(quantized[0]);
+        packedLuma = packedOut.toByteArray();
+        packAll();
+        packed = packedOut.toByteArray();
+        packedZstd = Zstd.compress(packed, Zstd.defaultCompressionLevel());
+        encodedOut = new ByteArrayOutputStream();
+        COMPRESS_IMAGE.invoke(source, encodedOut, 1);
+        encoded = encodedOut.toByteArray();
+    }
+
+    /** RGB to Y/Cb/Cr, row by row, without subsampling. */
+    @Benchmark
+    public double[] colorConvert(Pixels pixels) throws Throwable {
+        for (int y = 0; y < source.getHeight(); y++) {
+            READ_ROW.invoke(reader, y, rgbRow);
+            CONVERT_ROW.invoke(rgbRow, yRow, cbRow, crRow);
+        }
+        pixels.megapixels += megapixels;
+        return crRow;
+    }
+
+    /** 4:2:0 chroma subsampling of both full-resolution chroma channels. */
+    @Benchmark
+    public double[] subsample(Pixels pixels) throws Throwable {
+        int width = source.getWidth();
+        for (int y = 0; y < fullCb.length; y += 2) {
+            boolean secondRow = y + 1 < fullCb.length;
+            SUBSAMPLE_ROW.invoke(fullCb[y], secondRow ? fullCb[y + 1] : null, width, subsampled);
+            SUBSAMPLE_ROW.invoke(fullCr[y], secondRow ? fullCr[y + 1] : null, width, subsampled);
+        }
+        pixels.megapixels += megapixels;
+        return subsampled;
+    }
+
+    /** The fused conversion the encoder actually runs: image to padded, subsampled planes. */
+    @Benchmark
+    public Object toPlanes(Pixels pixels) throws Throwable {
+        pixels.megapixels += megapixels;
+        return FROM_IMAGE.invoke(source, FLOAT_PLANES);
+    }
+
+    /** Planes back to an RGB image, upsampling chroma. */
+    @Benchmark
+    public Object toRgb(Pixels pixels) throws Throwable {
+        pixels.megapixels += megapixels;
+        return TO_IMAGE.invoke(planes);
+    }
+
+    /** Forward 8x8 DCT of every luma block, including the block load from the plane. */
+    @Benchmark
+    public double[] forwardDct(Pixels pixels) throws Throwable {
+        for (int y = 0; y < lumaHeight; y += BLOCK_SIZE) {
+            for (int x = 0; x < lumaWidth; x += BLOCK_SIZE) {
+                LOAD_BLOCK.invoke(lumaPlane, x, y, block);
+                FORWARD_DCT.invoke(dct, block);
+            }
+        }
+        pixels.megapixels += megapixels;
+        return block;
+    }
+
+    /** Inverse 8x8 DCT of every luma block, including copying the coefficients in. */
+    @Benchmark
+    public double[] inverseDct(Pixels pixels) throws Throwable {
+        for (int offset = 0; offset < transformed.length; offset += block.length) {
+            System.arraycopy(transformed, offset, block, 0, block.length);
+            INVERSE_DCT.invoke(dct, block);
+        }
+        pixels.megapixels += megapixels;
+        return block;
+    }
+
+    /**
+     * What the decoder does per luma block after Zstd: unpack and dequantize, then the inverse DCT the
+     * block's coefficient count allows and the store into the plane.
+     */
+    @Benchmark
+    public Object decodeBlocks(Pixels pixels) throws Throwable {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(packedLuma));
+        for (int y = 0; y < lumaHeight; y += BLOCK_SIZE) {
+            for (int x = 0; x < lumaWidth; x += BLOCK_SIZE) {
+                int length = (int) UNPACK_INDICES.invoke(dis, QUALITY_LEVELS, LUMINANCE_MULTIPLIERS, false, dct, block);
+                INVERSE_BLOCK.invoke(length, lumaPlane, x, y, dct, block);
+            }
+        }
+        pixels.megapixels += megapixels;
+        return lumaPlane;
+    }
+
+    /** decodeBlocks with the full inverse DCT for every block, for comparison. */
+    @Benchmark
+    public Object decodeBlocksFull(Pixels pixels) throws Throwable {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(packedLuma));
+        for (int y = 0; y < lumaHeight; y += BLOCK_SIZE) {
+            for (int x = 0; x < lumaWidth; x += BLOCK_SIZE) {
+                Arrays.fill(block, 0);
+                UNPACK_INDICES.invoke(dis, QUALITY_LEVELS, LUMINANCE_MULTIPLIERS, false, dct, block);
+                INVERSE_DCT.invoke(dct, block);
+                STORE_BLOCK.invoke(lumaPlane, x, y, block);
+            }
+        }
+        pixels.megapixels += megapixels;
+        return lumaPlane;
+    }
+
+    /** DCT and quantization of all three planes into zigzag coefficients. */
+    @Benchmark
+    public int[][] quantize(Pixels pixels) throws Throwable {
+        pixels.megapixels += megapixels;
+        return quantizeAll();
+    }
+
+    /** Byte/escape packing of the quantized coefficients, as written before Zstd. */
+    @Benchmark
+    public int pack(Pixels pixels) throws Throwable {
+        packAll();
+        pixels.megapixels += megapixels;
+        return packedOut.size();
+    }
+
+    /** Zstd at the default level over the packed coefficients. */
+    @Benchmark
+    public byte[] zstdCompress(Pixels pixels) {
+        pixels.megapixels += megapixels;
+        return Zstd.compress(packed, Zstd.defaultCompressionLevel());
+    }
+
+    @Benchmark
+    public byte[] zstdDecompress(Pixels pixels) {
+        pixels.megapixels += megapixels;
+        return Zstd.decompress(packedZstd, packed.length);
+    }
+
+    /** Full single-threaded encode from the decoded source image to .byt bytes. */
+    @Benchmark
+    public int encode(Pixels pixels) throws Throwable {
+        encodedOut.reset();
+        COMPRESS_IMAGE.invoke(source, encodedOut, 1);
+        pixels.megapixels += megapixels;
+        return encodedOut.size();
+    }
+
+    /** Encode from ready-made planes, i.e. everything after colour conversion. */
+    @Benchmark
+    public int encodePlanes(Pixels pixels) throws Throwable {
+        encodedOut.reset();
+        COMPRESS_PLANES.invoke(planes, encodedOut, 1);
+        pixels.megapixels += megapixels;
+        return encodedOut.size();
+    }
+
+    /** Full decode from .byt bytes to an RGB image. */
+    @Benchmark
+    public Object decode(Pixels pixels) throws Throwable {
+        pixels.megapixels += megapixels;
+        return DECOMPRESS.invoke(new ByteArrayInputStream(encoded));
+    }
+
+    private int[][] quantizeAll() throws Throwable {
+        return new int[][]{
+                (int[]) QUANTIZE_CHANNEL.invoke(lumaPlane, LUMINANCE_DIVISORS),
+                (int[]) QUANTIZE_CHANNEL.invoke(PLANE_CB.invoke(planes), CHROMINANCE_DIVISORS),
+                (int[]) QUANTIZE_CHANNEL.invoke(PLANE_CR.invoke(planes), CHROMINANCE_DIVISORS)
+        };
+    }
+
+    private void packAll() throws Throwable {
+        packChannels(quantized);
+    }
+
+    // Packs the channels' blocks into packedOut, replacing what it held
+    private void packChannels(int[]... channels) throws Throwable {
+        packedOut.reset();
+        DataOutputStream dos = new DataOutputStream(packedOut);
+        for (int[] channel : channels) {
+            for (int offset = 0; offset < channel.length; offset += zigZag.length) {
+                System.arraycopy(channel, offset, zigZag, 0, zigZag.length);
+                PACK_INDICES.invoke(zigZag, QUALITY_LEVELS, false, dos);
+            }
+        }
+        dos.flush();
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... parameterTypes)
+            throws ReflectiveOperationException {
+        Method method = owner.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+
+    private static MethodHandle getter(Class<?> owner, String name) throws ReflectiveOperationException {
+        Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+        return MethodHandles.lookup().unreflectGetter(field);
+    }
+
+    /** Runs the benchmarks selected by the usual JMH command line, always with the GC profiler. */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,384 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.jtransforms.dct.DoubleDCT_2D;
+
+/**
+ * 8x8 forward and inverse DCT on flat row-major double[64] blocks, working in place and allocating nothing.
+ * The fast path is the AAN (Arai-Agui-Nakajima) factorisation, as in libjpeg's float DCT: 5 multiplies
+ * per 8-point pass instead of a general-size transform. AAN leaves every output scaled by a per-coefficient
+ * factor, which is folded into the quantization tables:
+ * - quantDivisors gives what to divide forward output by to get quantized values
+ * - dequantMultipliers gives what to multiply quantized values by before the inverse pass.
+ * Run with -Dgamebyte.dct=reference to use JTransforms' orthonormal DoubleDCT_2D instead; the tables then
+ * hold the plain quantizer steps and output matches the original encoder exactly.
+ *
+ * Most decoded blocks only carry a few low-frequency coefficients, so inverse(block, length) takes the
+ * zig-zag length from the stream and runs only the passes that can see a non-zero input: for the first 3
+ * coefficients everything sits in the top-left 2x2, for the first 10 in the top-left 4x4. The reduced
+ * passes are the full ones with the zero inputs dropped, so the samples are bit-identical.
+ */
+final class BlockDct {
+
+    private static final int BLOCK_SIZE = 8;
+    // Zig-zag lengths whose coefficients all lie in the top-left 2x2 and 4x4
+    private static final int SPARSE_2X2 = 3;
+    private static final int SPARSE_4X4 = 10;
+    static final boolean REFERENCE = "reference".equals(System.getProperty("gamebyte.dct"));
+    // cos(k * pi / 16) * sqrt(2) for k > 0, 1 for k = 0
+    private static final double[] AAN_SCALE = new double[BLOCK_SIZE];
+    // Largest PSNR loss against the reference transform the evaluation in main accepts
+    private static final double PSNR_TOLERANCE_DB = 0.1;
+
+    static {
+        AAN_SCALE[0] = 1.0;
+        for (int k = 1; k < BLOCK_SIZE; k++) {
+            AAN_SCALE[k] = Math.cos(k * Math.PI / 16) * Math.sqrt(2);
+        }
+    }
+
+    private final DoubleDCT_2D reference;
+
+    BlockDct() {
+        this(REFERENCE);
+    }
+
+    BlockDct(boolean referenceMode) {
+        reference = referenceMode ? new DoubleDCT_2D(BLOCK_SIZE, BLOCK_SIZE) : null;
+    }
+
+    /** Per-position (row-major) divisors taking this transform's forward output to quantized values. */
+    static double[] quantDivisors(int[][] quantMatrix, double quality, boolean referenceMode) {
+        double[] divisors = new double[BLOCK_SIZE * BLOCK_SIZE];
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            for (int col = 0; col < BLOCK_SIZE; col++) {
+                double q = quantMatrix[row][col] * quality;
+                // AAN output is 8x the orthonormal coefficient times the row and column scale factors
+                divisors[row * BLOCK_SIZE + col] = referenceMode ? q : q * AAN_SCALE[row] * AAN_SCALE[col] * BLOCK_SIZE;
+            }
+        }
+        return divisors;
+    }
+
+    /** Per-position (row-major) multipliers taking quantized values to this transform's inverse input. */
+    static double[] dequantMultipliers(int[][] quantMatrix, double quality, boolean referenceMode) {
+        double[] multipliers = new double[BLOCK_SIZE * BLOCK_SIZE];
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            for (int col = 0; col < BLOCK_SIZE; col++) {
+                double q = quantMatrix[row][col] * quality;
+                multipliers[row * BLOCK_SIZE + col] = referenceMode ? q : q * AAN_SCALE[row] * AAN_SCALE[col] / BLOCK_SIZE;
+            }
+        }
+        return multipliers;
+    }
+
+    /** The forward DC output, as forward would produce it, for a level-shifted block whose samples sum to sum. */
+    static double forwardDc(double sum, boolean referenceMode) {
+        // Orthonormal DC is sum / 8; AAN output is 8x that with a scale factor of 1 at k = 0
+        return referenceMode ? sum / BLOCK_SIZE : sum;
+    }
+
+    /** The sample every position of a block takes when inverse is given only a DC input of dc. */
+    static double inverseDc(double dc, boolean referenceMode) {
+        return referenceMode ? dc / BLOCK_SIZE : dc;
+    }
+
+    /** Forward DCT of a level-shifted block; the result is scaled to match quantDivisors. */
+    void forward(double[] block) {
+        if (reference != null) {
+            reference.forward(block, true);
+            return;
+        }
+        for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; i += BLOCK_SIZE) {
+            forwardPass(block, i, 1);
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            forwardPass(block, i, BLOCK_SIZE);
+        }
+    }
+
+    /** Inverse DCT of a block dequantized with dequantMultipliers, leaving level-shifted samples. */
+    void inverse(double[] block) {
+        if (reference != null) {
+            reference.inverse(block, true);
+            return;
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            inversePass(block, i, BLOCK_SIZE);
+        }
+        for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; i += BLOCK_SIZE) {
+            inversePass(block, i, 1);
+        }
+    }
+
+    /**
+     * Zeroes what inverse(block, length) reads of a block whose first length coefficients are about to be
+     * written: the DC alone, the top-left 2x2 or 4x4, or the whole block.
+     */
+    void clear(double[] block, int length) {
+        if (reference != null || length > SPARSE_4X4) {
+            Arrays.fill(block, 0);
+            return;
+        }
+        int extent = length <= 1 ? 1 : length <= SPARSE_2X2 ? 2 : 4;
+        for (int i = 0; i < extent * BLOCK_SIZE; i += BLOCK_SIZE) {
+            Arrays.fill(block, i, i + extent, 0);
+        }
+    }
+
+    /**
+     * True if inverse(block, length) would leave every sample equal to the block's DC input, so a decoder
+     * can fill the block with it instead.
+     */
+    boolean flatAfterInverse(int length) {
+        return reference == null && length <= 1;
+    }
+
+    /**
+     * As inverse(block), for a block whose non-zero inputs are among its first length coefficients in
+     * zig-zag order, as GameByteDecompressor.unpackIndices leaves it. A DC-only block comes out flat at
+     * inverseDc of its DC; the reference transform always runs in full.
+     */
+    void inverse(double[] block, int length) {
+        if (reference != null || length > SPARSE_4X4) {
+            inverse(block);
+            return;
+        }
+        if (length <= 1) {
+            Arrays.fill(block, block[0]);
+            return;
+        }
+        // Columns past the square are all zero and stay so; every row then has inputs in the square only
+        if (length <= SPARSE_2X2) {
+            inversePass2(block, 0, BLOCK_SIZE);
+            inversePass2(block, 1, BLOCK_SIZE);
+            for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; i += BLOCK_SIZE) {
+                inversePass2(block, i, 1);
+            }
+        } else {
+            for (int i = 0; i < 4; i++) {
+                inversePass4(block, i, BLOCK_SIZE);
+            }
+            for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; i += BLOCK_SIZE) {
+                inversePass4(block, i, 1);
+            }
+        }
+    }
+
+    // One 8-point AAN forward DCT over d[o], d[o + s], ..., d[o + 7s]
+    private static void forwardPass(double[] d, int o, int s) {
+        double tmp0 = d[o] + d[o + 7 * s];
+        double tmp7 = d[o] - d[o + 7 * s];
+        double tmp1 = d[o + s] + d[o + 6 * s];
+        double tmp6 = d[o + s] - d[o + 6 * s];
+        double tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        double tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        double tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        double tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        // Even part
+        double tmp10 = tmp0 + tmp3;
+        double tmp13 = tmp0 - tmp3;
+        double tmp11 = tmp1 + tmp2;
+        double tmp12 = tmp1 - tmp2;
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+        double z1 = (tmp12 + tmp13) * 0.707106781186548;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        // Odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        double z5 = (tmp10 - tmp12) * 0.382683432365090;
+        double z2 = 0.541196100146197 * tmp10 + z5;
+        double z4 = 1.306562964876377 * tmp12 + z5;
+        double z3 = tmp11 * 0.707106781186548;
+        double z11 = tmp7 + z3;
+        double z13 = tmp7 - z3;
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+
+    // One 8-point AAN inverse DCT over d[o], d[o + s], ..., d[o + 7s]
+    private static void inversePass(double[] d, int o, int s) {
+        // Even part
+        double tmp0 = d[o];
+        double tmp1 = d[o + 2 * s];
+        double tmp2 = d[o + 4 * s];
+        double tmp3 = d[o + 6 * s];
+        double tmp10 = tmp0 + tmp2;
+        double tmp11 = tmp0 - tmp2;
+        double tmp13 = tmp1 + tmp3;
+        double tmp12 = (tmp1 - tmp3) * 1.414213562373095 - tmp13;
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+
+        // Odd part
+        double tmp4 = d[o + s];
+        double tmp5 = d[o + 3 * s];
+        double tmp6 = d[o + 5 * s];
+        double tmp7 = d[o + 7 * s];
+        double z13 = tmp6 + tmp5;
+        double z10 = tmp6 - tmp5;
+        double z11 = tmp4 + tmp7;
+        double z12 = tmp4 - tmp7;
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * 1.414213562373095;
+        double z5 = (z10 + z12) * 1.847759065022574;
+        tmp10 = z5 - z12 * 1.082392200292394;
+        tmp12 = z5 - z10 * 2.613125929752753;
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 - tmp5;
+
+        d[o] = tmp0 + tmp7;
+        d[o + 7 * s] = tmp0 - tmp7;
+        d[o + s] = tmp1 + tmp6;
+        d[o + 6 * s] = tmp1 - tmp6;
+        d[o + 2 * s] = tmp2 + tmp5;
+        d[o + 5 * s] = tmp2 - tmp5;
+        d[o + 3 * s] = tmp3 + tmp4;
+        d[o + 4 * s] = tmp3 - tmp4;
+    }
+
+    // inversePass when only d[o] and d[o + s] can be non-zero
+    private static void inversePass2(double[] d, int o, int s) {
+        double tmp0 = d[o];
+        double tmp4 = d[o + s];
+        double tmp7 = tmp4;
+        double tmp11 = tmp4 * 1.414213562373095;
+        double z5 = tmp4 * 1.847759065022574;
+        double tmp10 = z5 - tmp4 * 1.082392200292394;
+        double tmp6 = z5 - tmp7;
+        double tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 - tmp5;
+
+        d[o] = tmp0 + tmp7;
+        d[o + 7 * s] = tmp0 - tmp7;
+        d[o + s] = tmp0 + tmp6;
+        d[o + 6 * s] = tmp0 - tmp6;
+        d[o + 2 * s] = tmp0 + tmp5;
+        d[o + 5 * s] = tmp0 - tmp5;
+        d[o + 3 * s] = tmp0 + tmp4;
+        d[o + 4 * s] = tmp0 - tmp4;
+    }
+
+    // inversePass when only d[o] to d[o + 3s] can be non-zero
+    private static void inversePass4(double[] d, int o, int s) {
+        // Even part
+        double tmp10 = d[o];
+        double tmp13 = d[o + 2 * s];
+        double tmp12 = tmp13 * 1.414213562373095 - tmp13;
+        double tmp0 = tmp10 + tmp13;
+        double tmp3 = tmp10 - tmp13;
+        double tmp1 = tmp10 + tmp12;
+        double tmp2 = tmp10 - tmp12;
+
+        // Odd part
+        double z12 = d[o + s];
+        double z13 = d[o + 3 * s];
+        double tmp7 = z12 + z13;
+        double tmp11 = (z12 - z13) * 1.414213562373095;
+        double z5 = (z12 - z13) * 1.847759065022574;
+        tmp10 = z5 - z12 * 1.082392200292394;
+        tmp12 = z5 + z13 * 2.613125929752753;
+        double tmp6 = tmp12 - tmp7;
+        double tmp5 = tmp11 - tmp6;
+        double tmp4 = tmp10 - tmp5;
+
+        d[o] = tmp0 + tmp7;
+        d[o + 7 * s] = tmp0 - tmp7;
+        d[o + s] = tmp1 + tmp6;
+        d[o + 6 * s] = tmp1 - tmp6;
+        d[o + 2 * s] = tmp2 + tmp5;
+        d[o + 5 * s] = tmp2 - tmp5;
+        d[o + 3 * s] = tmp3 + tmp4;
+        d[o + 4 * s] = tmp3 - tmp4;
+    }
+
+    /**
+     * Evaluation: quantizes and reconstructs every luma block of an image through both transforms and
+     * reports PSNR against the source and between the two, plus the transform time per block.
+     */
+    public static void main(String[] args) throws IOException {
+        String inputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset\\10.jpg";
+        if (args.length >= 1) {
+            inputFile = args[0];
+        }
+        BufferedImage image = ImageIO.read(new File(inputFile));
+        if (image == null) {
+            System.err.println("Failed to read image: " + inputFile);
+            return;
+        }
+        PlanarImage.Plane source = PlanarImage.fromImage(image, false).y;
+        PlanarImage.DoublePlane fast = new PlanarImage.DoublePlane(source.width, source.height);
+        PlanarImage.DoublePlane exact = new PlanarImage.DoublePlane(source.width, source.height);
+        // Warm up both paths before timing
+        for (int round = 0; round < 5; round++) {
+            roundTrip(source, fast, false);
+            roundTrip(source, exact, true);
+        }
+        long fastNanos = roundTrip(source, fast, false);
+        long exactNanos = roundTrip(source, exact, true);
+
+        PlanarImage.DoublePlane original = new PlanarImage.DoublePlane(source.width, source.height);
+        double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+        for (int y = 0; y < source.height; y += BLOCK_SIZE) {
+            for (int x = 0; x < source.width; x += BLOCK_SIZE) {
+                source.loadBlock(x, y, block);
+                original.storeBlock(x, y, block);
+            }
+        }
+        int blocks = (source.width / BLOCK_SIZE) * (source.height / BLOCK_SIZE);
+        double fastPsnr = psnr(original, fast);
+        double exactPsnr = psnr(original, exact);
+        System.out.printf("AAN:         %.2f dB vs source, %.1f ns/block%n", fastPsnr, fastNanos / (double) blocks);
+        System.out.printf("JTransforms: %.2f dB vs source, %.1f ns/block%n", exactPsnr, exactNanos / (double) blocks);
+        // The transforms agree to ~1e-13, but coefficients landing exactly on a rounding tie (common in
+        // flat areas) can quantize either way, so the two are compared on quality rather than bit-exactness
+        System.out.printf("AAN vs JTransforms: %.2f dB%n", psnr(exact, fast));
+        if (fastPsnr < exactPsnr - PSNR_TOLERANCE_DB) {
+            System.err.printf("AAN is more than %.1f dB below the reference transform%n", PSNR_TOLERANCE_DB);
+            System.exit(1);
+        }
+    }
+
+    // Forward, quantize, dequantize, inverse for every block of source into target; returns elapsed nanos
+    private static long roundTrip(PlanarImage.Plane source, PlanarImage.DoublePlane target, boolean referenceMode) {
+        BlockDct dct = new BlockDct(referenceMode);
+        double[] divisors = quantDivisors(GameByteCompressor.LUMINANCE_QUANT_MATRIX, 1.0, referenceMode);
+        double[] multipliers = dequantMultipliers(GameByteCompressor.LUMINANCE_QUANT_MATRIX, 1.0, referenceMode);
+        double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+        long start = System.nanoTime();
+        for (int y = 0; y < source.height; y += BLOCK_SIZE) {
+            for (int x = 0; x < source.width; x += BLOCK_SIZE) {
+                source.loadBlock(x, y, block);
+                dct.forward(block);
+                for (int i = 0; i < block.length; i++) {
+                    block[i] = Math.round(block[i] / divisors[i]) * multipliers[i];
+                }
+                dct.inverse(block);
+                target.storeBlock(x, y, block);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double psnr(PlanarImage.DoublePlane a, PlanarImage.DoublePlane b) {
+        double squaredError = 0;
+        for (int i = 0; i < a.data.length; i++) {
+            double diff = Math.min(255, Math.max(0, a.data[i])) - Math.min(255, Math.max(0, b.data[i]));
+            squaredError += diff * diff;
+        }
+        double mse = squaredError / a.data.length;
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+}
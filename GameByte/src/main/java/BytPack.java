@@ -0,0 +1,434 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A texture pack: many .byt files concatenated into one file behind a sorted name index, read through a
+ * read-only memory mapping. Looking a texture up is a binary search over the mapped index and a slice of
+ * the mapping, with no open, stat or read per texture; a direct slice is inflated straight out of the page
+ * cache (see ByteBufferInputStream.inflateZstd).
+ *
+ * Layout, big-endian:
+ *   "GBPK" magic, version, entry count
+ *   per entry, sorted by the unsigned UTF-8 bytes of its name:
+ *     name offset, name length, data offset, data length (ints, offsets from the start of the file)
+ *   the names, UTF-8
+ *   the .byt payloads, byte for byte as they were on disk
+ *
+ * Lookups only use absolute gets and slices of the shared mapping and never move its position, so any
+ * number of threads can read one pack at once without locking. Every slice handed out is that caller's own.
+ */
+public class BytPack implements AutoCloseable {
+
+    private static final int PACK_MAGIC = 0x4742504B; // "GBPK"
+    private static final int PACK_VERSION = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int ENTRY_BYTES = 4 * Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final int count;
+
+    private BytPack(Path path, FileChannel channel, MappedByteBuffer mapping, int count) {
+        this.path = path;
+        this.channel = channel;
+        this.mapping = mapping;
+        this.count = count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String mode = "bench";
+        String directory = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed";
+        String packFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\textures.gbpk";
+        // build <dir> <pack> packs every .byt under dir, list <pack> prints the index,
+        // bench <dir> <pack> builds the pack and compares loading every texture loose and from the pack
+        if (args.length >= 1) {
+            mode = args[0];
+        }
+        if (mode.equals("list")) {
+            if (args.length >= 2) {
+                packFile = args[1];
+            }
+            try (BytPack pack = open(Paths.get(packFile))) {
+                for (int i = 0; i < pack.count; i++) {
+                    System.out.printf("%10d  %s%n", pack.dataLength(i), pack.name(i));
+                }
+                System.out.println(pack.count + " textures in " + packFile);
+            }
+            return;
+        }
+        if (args.length >= 3) {
+            directory = args[1];
+            packFile = args[2];
+        }
+
+        long startTime = System.nanoTime();
+        int entries = build(Paths.get(directory), Paths.get(packFile));
+        double buildMs = (System.nanoTime() - startTime) / 1_000_000.0;
+        System.out.printf("Packed %d textures into %s (%d bytes) in %.2f Ms%n", entries, packFile,
+                Files.size(Paths.get(packFile)), buildMs);
+        if (mode.equals("bench")) {
+            bench(Paths.get(directory), Paths.get(packFile));
+        }
+    }
+
+    /**
+     * Packs every .byt under directory, named by its path relative to directory with '/' separators
+     * (e.g. "ui/button.byt"). Returns the number of textures packed.
+     */
+    public static int build(Path directory, Path packFile) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().endsWith(".byt"))
+                    .toList();
+        }
+        String[] names = new String[files.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = entryName(directory, files.get(i));
+        }
+        write(names, files.toArray(new Path[0]), packFile);
+        return names.length;
+    }
+
+    /** Writes a pack of files[i] under names[i]; the payloads are copied file to file without passing through the heap. */
+    static void write(String[] names, Path[] files, Path packFile) throws IOException {
+        int count = names.length;
+        byte[][] encoded = new byte[count][];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(encoded[a], encoded[b]));
+
+        long nameBytes = 0;
+        for (byte[] name : encoded) {
+            nameBytes += name.length;
+        }
+        long[] sizes = new long[count];
+        long offset = HEADER_BYTES + (long) count * ENTRY_BYTES + nameBytes;
+        long dataStart = offset;
+        for (int i = 0; i < count; i++) {
+            int entry = order[i];
+            if (i > 0 && Arrays.equals(encoded[entry], encoded[order[i - 1]])) {
+                throw new IllegalArgumentException("Duplicate pack entry " + names[entry]);
+            }
+            sizes[entry] = Files.size(files[entry]);
+            offset += sizes[entry];
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Pack would be " + offset + " bytes; packs are limited to 2 GB, split the textures up");
+        }
+
+        try (FileChannel out = FileChannel.open(packFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+            index.writeInt(PACK_MAGIC);
+            index.writeInt(PACK_VERSION);
+            index.writeInt(count);
+            int nameOffset = HEADER_BYTES + count * ENTRY_BYTES;
+            long dataOffset = dataStart;
+            for (int i = 0; i < count; i++) {
+                int entry = order[i];
+                index.writeInt(nameOffset);
+                index.writeInt(encoded[entry].length);
+                index.writeInt((int) dataOffset);
+                index.writeInt((int) sizes[entry]);
+                nameOffset += encoded[entry].length;
+                dataOffset += sizes[entry];
+            }
+            for (int i = 0; i < count; i++) {
+                index.write(encoded[order[i]]);
+            }
+            index.flush();
+
+            for (int i = 0; i < count; i++) {
+                int entry = order[i];
+                try (FileChannel in = FileChannel.open(files[entry], StandardOpenOption.READ)) {
+                    long copied = 0;
+                    while (copied < sizes[entry]) {
+                        long n = in.transferTo(copied, sizes[entry] - copied, out);
+                        if (n <= 0) {
+                            throw new IOException(files[entry] + " shrank while it was being packed");
+                        }
+                        copied += n;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps packFile and checks its index: every name and payload must lie inside the file and the names
+     * must be in order, so later lookups can trust the index without checking it again.
+     */
+    public static BytPack open(Path packFile) throws IOException {
+        FileChannel channel = FileChannel.open(packFile, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(packFile + " is over 2 GB, which a single mapping cannot hold");
+            }
+            if (size < HEADER_BYTES) {
+                throw new EOFException(packFile + " is too short to be a texture pack");
+            }
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapping.getInt(0) != PACK_MAGIC) {
+                throw new IOException(packFile + " is not a texture pack");
+            }
+            if (mapping.getInt(Integer.BYTES) != PACK_VERSION) {
+                throw new IOException("Unsupported texture pack version " + mapping.getInt(Integer.BYTES) + " in " + packFile);
+            }
+            int count = mapping.getInt(2 * Integer.BYTES);
+            if (count < 0 || HEADER_BYTES + (long) count * ENTRY_BYTES > size) {
+                throw new IOException("Corrupt texture pack index in " + packFile);
+            }
+            BytPack pack = new BytPack(packFile, channel, mapping, count);
+            pack.validate(size);
+            return pack;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void validate(long size) throws IOException {
+        for (int i = 0; i < count; i++) {
+            long nameEnd = (long) nameOffset(i) + nameLength(i);
+            long dataEnd = (long) dataOffset(i) + dataLength(i);
+            if (nameOffset(i) < 0 || nameLength(i) < 0 || nameEnd > size
+                    || dataOffset(i) < 0 || dataLength(i) < 0 || dataEnd > size) {
+                throw new IOException("Corrupt texture pack entry " + i + " in " + path);
+            }
+            if (i > 0 && compareNames(i - 1, i) >= 0) {
+                throw new IOException("Texture pack index out of order at entry " + i + " in " + path);
+            }
+        }
+    }
+
+    /** Number of textures in the pack. */
+    public int size() {
+        return count;
+    }
+
+    /** Name of the i-th texture, in index order. */
+    public String name(int i) {
+        byte[] name = new byte[nameLength(i)];
+        mapping.get(nameOffset(i), name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The named .byt's bytes as a read-only slice of the mapping (position 0, limit its length), or null if
+     * the pack has no such texture. Nothing is copied; the slice stays valid while the pack is reachable.
+     */
+    public ByteBuffer find(String name) {
+        int entry = indexOf(name.getBytes(StandardCharsets.UTF_8));
+        return entry < 0 ? null : mapping.slice(dataOffset(entry), dataLength(entry));
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    /** A stream over the named .byt for any of GameByteDecompressor's entry points; fails if it is not in the pack. */
+    public InputStream open(String name) throws IOException {
+        ByteBuffer entry = find(name);
+        if (entry == null) {
+            throw new FileNotFoundException("No texture " + name + " in " + path);
+        }
+        return new ByteBufferInputStream(entry);
+    }
+
+    /** Decodes the named texture straight out of the mapping. */
+    public BufferedImage decode(String name) throws IOException {
+        try (InputStream in = open(name)) {
+            return GameByteDecompressor.decompress(in);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself is only unmapped once the GC collects it and every slice taken from it
+        channel.close();
+    }
+
+    // Binary search over the sorted index; the entry, or -1
+    private int indexOf(byte[] name) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(mid, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Unsigned byte order, matching the sort in write
+    private int compareName(int entry, byte[] name) {
+        int offset = nameOffset(entry);
+        int length = nameLength(entry);
+        int common = Math.min(length, name.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(mapping.get(offset + i) & 0xFF, name[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, name.length);
+    }
+
+    private int compareNames(int a, int b) {
+        byte[] name = new byte[nameLength(b)];
+        mapping.get(nameOffset(b), name);
+        return compareName(a, name);
+    }
+
+    private int nameOffset(int entry) {
+        return mapping.getInt(HEADER_BYTES + entry * ENTRY_BYTES);
+    }
+
+    private int nameLength(int entry) {
+        return mapping.getInt(HEADER_BYTES + entry * ENTRY_BYTES + Integer.BYTES);
+    }
+
+    private int dataOffset(int entry) {
+        return mapping.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 2 * Integer.BYTES);
+    }
+
+    private int dataLength(int entry) {
+        return mapping.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 3 * Integer.BYTES);
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private static String entryName(Path directory, Path file) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : directory.relativize(file)) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    // Loads every texture loose (open, read, decode per file) and from the pack (lookup, decode), single-threaded
+    // and then from all cores at once, and checks both give the same pixels
+    private static void bench(Path directory, Path packFile) throws IOException {
+        try (BytPack pack = open(packFile)) {
+            String[] names = new String[pack.count];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = pack.name(i);
+            }
+
+            long start = System.nanoTime();
+            long looseBytes = 0;
+            for (String name : names) {
+                looseBytes += Files.readAllBytes(directory.resolve(name)).length;
+            }
+            double looseReadMs = (System.nanoTime() - start) / 1_000_000.0;
+            start = System.nanoTime();
+            long packBytes = 0;
+            for (String name : names) {
+                packBytes += pack.find(name).remaining();
+            }
+            double lookupMs = (System.nanoTime() - start) / 1_000_000.0;
+            System.out.printf("Fetch %d textures (%d bytes): loose files %.2f Ms, pack lookups %.3f Ms (%d bytes)%n",
+                    names.length, looseBytes, looseReadMs, lookupMs, packBytes);
+
+            start = System.nanoTime();
+            for (String name : names) {
+                try (InputStream in = Files.newInputStream(directory.resolve(name))) {
+                    BufferedImage loose = GameByteDecompressor.decompress(in);
+                    BufferedImage packed = pack.decode(name);
+                    if (!Arrays.equals(pixels(loose), pixels(packed))) {
+                        throw new IOException(name + " decodes differently from the pack");
+                    }
+                }
+            }
+            System.out.printf("Checked %d textures decode identically loose and packed in %.2f Ms%n",
+                    names.length, (System.nanoTime() - start) / 1_000_000.0);
+
+            start = System.nanoTime();
+            for (String name : names) {
+                try (InputStream in = Files.newInputStream(directory.resolve(name))) {
+                    GameByteDecompressor.decompress(in);
+                }
+            }
+            double looseMs = (System.nanoTime() - start) / 1_000_000.0;
+            start = System.nanoTime();
+            for (String name : names) {
+                pack.decode(name);
+            }
+            double packMs = (System.nanoTime() - start) / 1_000_000.0;
+            System.out.printf("Load + decode, 1 thread: loose %.2f Ms, pack %.2f Ms%n", looseMs, packMs);
+
+            int threads = Runtime.getRuntime().availableProcessors();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                AtomicLong pixels = new AtomicLong();
+                start = System.nanoTime();
+                List<Future<?>> loads = new ArrayList<>();
+                for (String name : names) {
+                    loads.add(pool.submit(() -> {
+                        try {
+                            BufferedImage image = pack.decode(name);
+                            pixels.addAndGet((long) image.getWidth() * image.getHeight());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                for (Future<?> load : loads) {
+                    load.get();
+                }
+                System.out.printf("Pack decode, %d threads sharing one mapping: %.2f Ms, %d pixels%n", threads,
+                        (System.nanoTime() - start) / 1_000_000.0, pixels.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decoding the pack");
+            } catch (ExecutionException e) {
+                throw new IOException("Pack decode failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
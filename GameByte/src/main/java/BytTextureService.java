@@ -0,0 +1,194 @@
+import com.almasb.fxgl.core.EngineService;
+import com.almasb.fxgl.texture.Texture;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * FXGL engine service that loads .byt textures as JavaFX Images and FXGL Textures.
+ * Register it with gameSettings.addEngineService(BytTextureService.class), then use
+ * FXGL.getService(BytTextureService.class).loadTexture("10.byt").
+ *
+ * Names resolve in the mounted BytPacks first (mountPack), in mount order, then like FXGL's own
+ * textures against /assets/textures/ on the classpath, falling back to a file path. Decoded images
+ * are kept in a ByteBudgetCache (-Dgamebyte.textureCacheMB, default 256), so going back to a scene
+ * reuses its textures instead of inflating and inverse transforming them again.
+ * A scene can prefetch the textures it will need on background threads; a load of a texture that is
+ * already being prefetched waits for that decode rather than starting a second one.
+ */
+public class BytTextureService extends EngineService {
+
+    private static final String TEXTURE_ROOT = "/assets/textures/";
+    private static final long CACHE_BUDGET_BYTES = Long.getLong("gamebyte.textureCacheMB", 256) * 1024 * 1024;
+    private static final int PREFETCH_THREADS = Integer.getInteger("gamebyte.prefetchThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // JavaFX keeps images as 32-bit BGRA, whatever they were decoded from
+    private static final int IMAGE_BYTES_PER_PIXEL = 4;
+
+    private final ByteBudgetCache<String, Image> cache = new ByteBudgetCache<>(CACHE_BUDGET_BYTES,
+            image -> (long) image.getWidth() * (long) image.getHeight() * IMAGE_BYTES_PER_PIXEL);
+    private final Map<String, CompletableFuture<Image>> inFlight = new ConcurrentHashMap<>();
+    private final List<BytPack> packs = new CopyOnWriteArrayList<>();
+    // Decode scratch: the RGB8 pixels only live until they are copied into the Image
+    private final DirectBufferPool buffers = new DirectBufferPool(64L * 1024 * 1024);
+    private final ExecutorService prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "gamebyte-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** A new Texture node for the named .byt; the Image behind it is shared through the cache. */
+    public Texture loadTexture(String name) {
+        return new Texture(loadImage(name));
+    }
+
+    /** The decoded image for name, from the cache if possible. Throws UncheckedIOException if it cannot be read. */
+    public Image loadImage(String name) {
+        Image cached = cache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<Image> pending = new CompletableFuture<>();
+        CompletableFuture<Image> existing = inFlight.putIfAbsent(name, pending);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof UncheckedIOException cause ? cause : e;
+            }
+        }
+        try {
+            // Another thread may have finished this texture between the cache miss and claiming it
+            Image image = cache.peek(name);
+            if (image == null) {
+                Image decoded = decode(name);
+                // Only cached while still the load of record: after evict(name) it may be stale
+                inFlight.computeIfPresent(name, (key, current) -> {
+                    if (current == pending) {
+                        cache.put(name, decoded);
+                    }
+                    return current;
+                });
+                image = decoded;
+            }
+            pending.complete(image);
+            return image;
+        } catch (IOException e) {
+            UncheckedIOException failure = new UncheckedIOException("Failed to load texture " + name, e);
+            pending.completeExceptionally(failure);
+            throw failure;
+        } catch (Throwable t) {
+            // Errors too (e.g. OutOfMemoryError on a huge texture): threads joined on pending must not hang
+            pending.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(name, pending);
+        }
+    }
+
+    /**
+     * Starts decoding the named textures in the background. The future completes once every one is cached
+     * (or has failed, which is reported on stderr and does not fail the others). Once the service has
+     * shut down nothing more is started.
+     */
+    public CompletableFuture<Void> prefetch(Collection<String> names) {
+        List<CompletableFuture<?>> loads = new ArrayList<>();
+        for (String name : names) {
+            if (cache.contains(name)) {
+                continue;
+            }
+            try {
+                loads.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        loadImage(name);
+                    } catch (RuntimeException e) {
+                        System.err.println("Prefetch failed for " + name + ": " + e.getMessage());
+                    }
+                }, prefetcher));
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /** Maps a texture pack built with BytPack; its textures are then found by their names in the pack. */
+    public void mountPack(Path packFile) throws IOException {
+        packs.add(BytPack.open(packFile));
+    }
+
+    /**
+     * Drops one texture, e.g. after the file changed on disk. A load of it already in flight still returns
+     * to its callers but is not cached, and the next load decodes the texture again.
+     */
+    public void evict(String name) {
+        inFlight.remove(name);
+        cache.invalidate(name);
+    }
+
+    public ByteBudgetCache.Stats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void onExit() {
+        prefetcher.shutdownNow();
+        cache.clear();
+        for (BytPack pack : packs) {
+            try {
+                pack.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close texture pack: " + e.getMessage());
+            }
+        }
+        packs.clear();
+    }
+
+    private Image decode(String name) throws IOException {
+        try (InputStream in = open(name);
+             GameByteDecompressor.DecodedPixels pixels = GameByteDecompressor.decompress(in,
+                     GameByteDecompressor.PixelFormat.RGB8, buffers)) {
+            WritableImage image = new WritableImage(pixels.width, pixels.height);
+            image.getPixelWriter().setPixels(0, 0, pixels.width, pixels.height, PixelFormat.getByteRgbInstance(),
+                    pixels.pixels, pixels.width * 3);
+            return image;
+        }
+    }
+
+    private InputStream open(String name) throws IOException {
+        for (BytPack pack : packs) {
+            ByteBuffer entry = pack.find(name);
+            if (entry != null) {
+                return new ByteBufferInputStream(entry);
+            }
+        }
+        InputStream resource = BytTextureService.class.getResourceAsStream(TEXTURE_ROOT + name);
+        if (resource != null) {
+            return resource;
+        }
+        if (Files.isRegularFile(Path.of(name))) {
+            return new FileInputStream(name);
+        }
+        throw new FileNotFoundException("No texture " + TEXTURE_ROOT + name + " on the classpath or at " + name);
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * LRU cache bounded by the total size of its values rather than their count, so one 4K texture and
+ * a hundred icons are weighed fairly. Least recently used entries are evicted until the total fits the
+ * budget again; a value larger than the whole budget is returned to the caller but never cached.
+ * All methods are synchronized; the cache only guards the map, loading happens outside it.
+ */
+public class ByteBudgetCache<K, V> {
+
+    private final long budgetBytes;
+    private final ToLongFunction<V> weigher;
+    // Access order: iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedBytes;
+    private long rejected;
+
+    public ByteBudgetCache(long budgetBytes, ToLongFunction<V> weigher) {
+        this.budgetBytes = budgetBytes;
+        this.weigher = weigher;
+    }
+
+    /** The cached value, marked as most recently used, or null; counts a hit or a miss. */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /** As get, but without counting a hit or a miss. */
+    public synchronized V peek(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /** Whether key is cached, without touching the statistics or the LRU order. */
+    public synchronized boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /** Caches value under key, replacing any previous value, then evicts down to the budget. */
+    public synchronized void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        Entry<V> previous = entries.remove(key);
+        if (previous != null) {
+            usedBytes -= previous.weight;
+        }
+        if (weight > budgetBytes) {
+            rejected++;
+            return;
+        }
+        entries.put(key, new Entry<>(value, weight));
+        usedBytes += weight;
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            Entry<V> evicted = eldest.next().getValue();
+            eldest.remove();
+            usedBytes -= evicted.weight;
+            evictions++;
+            evictedBytes += evicted.weight;
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            usedBytes -= entry.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(entries.size(), usedBytes, budgetBytes, hits, misses, evictions, evictedBytes, rejected);
+    }
+
+    /** A snapshot of the cache's counters; sizes in bytes as given by the weigher. */
+    public record Stats(int entries, long usedBytes, long budgetBytes, long hits, long misses, long evictions,
+                        long evictedBytes, long rejected) {
+
+        public double hitRate() {
+            return hits + misses == 0 ? 0.0 : hits / (double) (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d entries, %.1f/%.1f MB, %d hits, %d misses (%.1f%% hit rate), "
+                            + "%d evictions (%.1f MB), %d too large to cache", entries, usedBytes / 1048576.0,
+                    budgetBytes / 1048576.0, hits, misses, hitRate() * 100, evictions, evictedBytes / 1048576.0, rejected);
+        }
+    }
+
+    private record Entry<V>(V value, long weight) {
+    }
+}
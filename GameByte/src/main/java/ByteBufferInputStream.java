@@ -0,0 +1,142 @@
+import com.github.luben.zstd.ZstdDirectBufferDecompressingStreamNoFinalizer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream over the remaining bytes of a ByteBuffer, such as a BytPack entry sliced out of a mapped
+ * file. Reads advance the buffer's position and never copy more than the caller asks for. Like any stream
+ * it belongs to one reader at a time; BytPack hands every lookup its own slice.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    // Output windows for inflateZstd, shared by every stream so decoding a pack does not allocate them per texture
+    private static final DirectBufferPool WINDOWS = new DirectBufferPool(8L * 1024 * 1024);
+
+    private final ByteBuffer buffer;
+    private int mark;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.mark = buffer.position();
+    }
+
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        mark = buffer.position();
+    }
+
+    @Override
+    public void reset() {
+        buffer.position(mark);
+    }
+
+    /**
+     * Inflates the Zstd frame from the current position straight out of the (direct) buffer, so a mapped
+     * entry's compressed bytes are never copied onto the heap. Closing the result frees the native context
+     * and leaves this stream at the end of the frame.
+     */
+    InputStream inflateZstd() throws IOException {
+        if (!buffer.isDirect()) {
+            throw new IOException("Zstd can only be inflated in place from a direct buffer");
+        }
+        int windowSize = ZstdDirectBufferDecompressingStreamNoFinalizer.recommendedTargetBufferSize();
+        return new InputStream() {
+            private final ZstdDirectBufferDecompressingStreamNoFinalizer zstd =
+                    new ZstdDirectBufferDecompressingStreamNoFinalizer(buffer);
+            private ByteBuffer window = WINDOWS.acquire(windowSize).flip();
+
+            @Override
+            public int read() throws IOException {
+                return fill() ? window.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, window.remaining());
+                window.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return window == null ? 0 : window.remaining();
+            }
+
+            // Refills the window once it has been read out; false at the end of the frame
+            private boolean fill() throws IOException {
+                if (window == null) {
+                    throw new IOException("Stream closed");
+                }
+                while (!window.hasRemaining()) {
+                    if (!zstd.hasRemaining()) {
+                        return false;
+                    }
+                    window.clear();
+                    int produced = zstd.read(window);
+                    window.flip();
+                    if (produced == 0 && !buffer.hasRemaining() && zstd.hasRemaining()) {
+                        throw new EOFException("Truncated Zstd frame");
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void close() {
+                if (window != null) {
+                    zstd.close();
+                    WINDOWS.release(window);
+                    window = null;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Where the codec reports what it did: counters (running totals such as encode.bytesOut or
+ * encode.escapes) and histograms (one sample per image, such as encode.stage.dct.nanos). Install one with
+ * CodecMetrics.install, or run with -Dgamebyte.metrics=true for an InMemoryMetrics. Nothing is measured
+ * while none is installed and JFR is not recording the GameByte events, so the codec then runs as before.
+ *
+ * Names are operation.what: encode.* and decode.*, with per-stage times under operation.stage.name.nanos.
+ * Implementations are called from codec threads concurrently and must be thread-safe.
+ */
+public interface CodecMetrics {
+
+    /** Adds delta to the named counter. */
+    void count(String name, long delta);
+
+    /** Adds one sample to the named histogram. */
+    void record(String name, long value);
+
+    /** Sends every image's metrics to metrics from now on; null stops collecting. */
+    static void install(CodecMetrics metrics) {
+        CodecTrace.install(metrics);
+    }
+
+    /** The installed metrics, or null. */
+    static CodecMetrics installed() {
+        return CodecTrace.installed();
+    }
+}
@@ -0,0 +1,357 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one encode or decode did, collected while it runs and reported when it finishes: a gamebyte.Image
+ * JFR event for the image, a gamebyte.Stage event per stage with the time spent in it, and the same
+ * figures sent to the installed CodecMetrics. start returns null when there is nowhere to report to, and
+ * the codec only measures behind a null check, so with neither metrics installed nor the events enabled
+ * in a JFR recording nothing is timed or counted.
+ *
+ * Stage times are summed over all threads, so for a parallel encode they can add up to more than the
+ * wall time in the image event. Block rows report once per row, not once per block.
+ */
+final class CodecTrace {
+
+    /** Where the time goes; the decoder's pack and dct stages are unpacking and the inverse transform. */
+    enum Stage {
+        READ("read"), COLOR_CONVERT("colorConvert"), DCT("dct"), PACK("pack"), ZSTD("zstd");
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static volatile CodecMetrics metrics = Boolean.getBoolean("gamebyte.metrics") ? new InMemoryMetrics() : null;
+
+    private final String operation;
+    private final CodecMetrics sink;
+    private final ImageEvent event;
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder zeroBlocks = new LongAdder();
+    private final LongAdder escapes = new LongAdder();
+    private final long started = System.nanoTime();
+    private String layout;
+    private CountingOutputStream countedOut;
+    private CountingInputStream countedIn;
+    private ByteBufferInputStream mappedIn;
+    private long mappedStart;
+
+    private CodecTrace(String operation, String layout, CodecMetrics sink, ImageEvent event) {
+        this.operation = operation;
+        this.layout = layout;
+        this.sink = sink;
+        this.event = event;
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+        }
+    }
+
+    static void install(CodecMetrics installed) {
+        metrics = installed;
+    }
+
+    static CodecMetrics installed() {
+        return metrics;
+    }
+
+    /** A trace for one image, or null if neither metrics nor the gamebyte.Image event would see it. */
+    static CodecTrace start(String operation, String layout) {
+        CodecMetrics sink = metrics;
+        ImageEvent event = new ImageEvent();
+        if (sink == null && !event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return new CodecTrace(operation, layout, sink, event);
+    }
+
+    /** Reports a stage timed outside any one trace, such as ImageIO reading the source before an encode. */
+    static void stage(String operation, Stage stage, long nanos) {
+        CodecMetrics sink = metrics;
+        if (sink != null) {
+            sink.record(operation + ".stage." + stage.label + ".nanos", nanos);
+        }
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.stage = stage.label;
+            event.time = nanos;
+            event.commit();
+        }
+    }
+
+    /** Prints the installed metrics if they are the in-memory kind; for the mains' evaluation output. */
+    static void printReport() {
+        if (metrics instanceof InMemoryMetrics inMemory) {
+            System.out.print("\nCodec metrics:\n" + inMemory.report());
+        }
+    }
+
+    void layout(String name) {
+        layout = name;
+    }
+
+    void add(Stage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+    }
+
+    long nanos(Stage stage) {
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    /**
+     * Moves the time spent in from since the mark out of into: for serial paths where Zstd runs inside
+     * the pack stage whenever the buffer in front of it fills.
+     */
+    void exclude(Stage into, Stage from, long mark) {
+        add(into, mark - nanos(from));
+    }
+
+    /** One block row's blocks, all-zero blocks and escape-coded coefficients (counted by the encoder only). */
+    void blocks(int count, int zero, int escaped) {
+        blocks.add(count);
+        zeroBlocks.add(zero);
+        escapes.add(escaped);
+    }
+
+    /** out, counting what is written to it as the image's output bytes. */
+    OutputStream countOut(OutputStream out) {
+        countedOut = new CountingOutputStream(out);
+        return countedOut;
+    }
+
+    /**
+     * in, counting what is read from it as the image's input bytes. A ByteBufferInputStream is returned
+     * as it is, so a mapped pack entry still takes the direct path, and measured by how far it moved.
+     */
+    InputStream countIn(InputStream in) {
+        if (in instanceof ByteBufferInputStream mapped) {
+            mappedIn = mapped;
+            mappedStart = mapped.available();
+            return in;
+        }
+        countedIn = new CountingInputStream(in);
+        return countedIn;
+    }
+
+    /** A Zstd stream whose writes, flushes and close count towards the zstd stage. */
+    OutputStream timeZstd(OutputStream zstd) {
+        return new FilterOutputStream(zstd) {
+            @Override
+            public void write(int b) throws IOException {
+                long start = System.nanoTime();
+                out.write(b);
+                add(Stage.ZSTD, System.nanoTime() - start);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                out.write(b, off, len);
+                add(Stage.ZSTD, System.nanoTime() - start);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long start = System.nanoTime();
+                out.flush();
+                add(Stage.ZSTD, System.nanoTime() - start);
+            }
+
+            @Override
+            public void close() throws IOException {
+                long start = System.nanoTime();
+                out.close();
+                add(Stage.ZSTD, System.nanoTime() - start);
+            }
+        };
+    }
+
+    /** A Zstd stream whose reads count towards the zstd stage. */
+    InputStream timeZstd(InputStream zstd) {
+        return new FilterInputStream(zstd) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = in.read();
+                add(Stage.ZSTD, System.nanoTime() - start);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                int n = in.read(b, off, len);
+                add(Stage.ZSTD, System.nanoTime() - start);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Reports the finished image. The raw side of the byte counts is width * height * 3, RGB at 8 bits,
+     * and the coded side whatever went through countOut or countIn (0 if neither was used).
+     */
+    void finish(int width, int height) {
+        long elapsed = System.nanoTime() - started;
+        long raw = (long) width * height * 3;
+        long coded = countedOut != null ? countedOut.count
+                : countedIn != null ? countedIn.count
+                : mappedIn != null ? mappedStart - mappedIn.available() : 0;
+        boolean encode = operation.equals("encode");
+        long bytesIn = encode ? raw : coded;
+        long bytesOut = encode ? coded : raw;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.layout = layout;
+            event.width = width;
+            event.height = height;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.blocks = blocks.sum();
+            event.zeroBlocks = zeroBlocks.sum();
+            event.escapes = escapes.sum();
+            event.commit();
+            for (Stage stage : Stage.values()) {
+                long nanos = nanos(stage);
+                if (nanos > 0) {
+                    StageEvent stageEvent = new StageEvent();
+                    stageEvent.operation = operation;
+                    stageEvent.stage = stage.label;
+                    stageEvent.layout = layout;
+                    stageEvent.time = nanos;
+                    stageEvent.commit();
+                }
+            }
+        }
+        if (sink != null) {
+            sink.count(operation + ".images", 1);
+            sink.count(operation + ".bytesIn", bytesIn);
+            sink.count(operation + ".bytesOut", bytesOut);
+            sink.count(operation + ".blocks", blocks.sum());
+            sink.count(operation + ".zeroBlocks", zeroBlocks.sum());
+            sink.count(operation + ".escapes", escapes.sum());
+            sink.count(operation + ".layout." + layout, 1);
+            sink.record(operation + ".nanos", elapsed);
+            for (Stage stage : Stage.values()) {
+                long nanos = nanos(stage);
+                if (nanos > 0) {
+                    sink.record(operation + ".stage." + stage.label + ".nanos", nanos);
+                }
+            }
+        }
+    }
+
+    @Name("gamebyte.Image")
+    @Label("GameByte Image")
+    @Category("GameByte")
+    @Description("One image encoded or decoded")
+    @StackTrace(false)
+    static final class ImageEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Layout")
+        String layout;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+        @Label("Blocks")
+        long blocks;
+        @Label("Zero Blocks")
+        long zeroBlocks;
+        @Label("Escaped Coefficients")
+        long escapes;
+    }
+
+    @Name("gamebyte.Stage")
+    @Label("GameByte Stage")
+    @Category("GameByte")
+    @Description("Time one image spent in one codec stage, summed over threads")
+    @StackTrace(false)
+    static final class StageEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Layout")
+        String layout;
+        @Label("Stage")
+        String stage;
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.Locale;
+
+/**
+ * The per-pixel colour stages: RGB to YCbCr and 4:2:0 chroma averaging on the way in, and the fused
+ * chroma upsample + YCbCr to RGB + clamp + pack on the way out. INSTANCE is picked once at startup:
+ * VectorColorConverter when the JVM was started with --add-modules jdk.incubator.vector and the CPU has
+ * vectors of at least four doubles, otherwise the scalar loops below. -Dgamebyte.simd=false forces the
+ * scalar path, -Dgamebyte.simd=true skips the vector path's warm-up. Both produce exactly the same values,
+ * so the choice never changes a .byt or a decoded image.
+ *
+ * Chroma is upsampled by repeating each sample (nearest, the historical output) or, with
+ * -Dgamebyte.upsample=bilinear, by weighting the two nearest chroma samples 3:1 in each direction,
+ * which matches where the 2x2 average sat and removes the blockiness on colour edges.
+ */
+abstract class ColorConverter {
+
+    static final ColorConverter INSTANCE = select();
+    static final boolean BILINEAR = "bilinear".equalsIgnoreCase(System.getProperty("gamebyte.upsample"));
+
+    // Weights of the nearer and the farther chroma sample in the bilinear upsampler
+    static final double NEAR = 0.75;
+    static final double FAR = 0.25;
+
+    /** RGB to full-resolution Y, Cb and Cr for one row of packed 0xRRGGBB pixels. */
+    abstract void toYCbCr(int[] rgbRow, double[] yRow, double[] cbRow, double[] crRow);
+
+    /**
+     * Averages 2x2 neighbourhoods of row0 and row1 (null for an odd last row) into (width + 1) / 2 samples,
+     * in the same summation order as the 2x2 loop in the old subsample().
+     */
+    abstract void subsample(double[] row0, double[] row1, int width, double[] out);
+
+    /**
+     * One row of packed 0xRRGGBB pixels at pixels[offset], repeating each of cbRow and crRow's samples
+     * for two pixels.
+     */
+    abstract void toRgb(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels, int offset);
+
+    /** As toRgb, with cbRow and crRow already at full resolution. */
+    abstract void toRgbFull(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels, int offset);
+
+    /**
+     * Bilinear chroma for one pixel row of the given width: out[x] is NEAR:FAR between the chroma row the
+     * pixel row was averaged into (near) and the next nearest one (far), then NEAR:FAR between the pixel's
+     * own column and the neighbour on its side, clamped at the last real sample (width + 1) / 2 - 1.
+     */
+    abstract void upsampleBilinear(double[] near, double[] far, int width, double[] out);
+
+    abstract String name();
+
+    private static ColorConverter select() {
+        String simd = System.getProperty("gamebyte.simd", "auto").toLowerCase(Locale.ROOT);
+        if (!simd.equals("false") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name so this class still links on a JVM without the incubator module
+                return (ColorConverter) Class.forName("VectorColorConverter").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Vector colour conversion unavailable, using scalar: " + e);
+            }
+        }
+        return new Scalar();
+    }
+
+    /** Math.round and clamp to 0..255, the way the decoder has always done it. */
+    static int toByte(double value) {
+        return Math.max(0, Math.min(255, (int) Math.round(value)));
+    }
+
+    /** The reference loops; also finishes the edges and tails the vector kernels leave over. */
+    static class Scalar extends ColorConverter {
+
+        @Override
+        void toYCbCr(int[] rgbRow, double[] yRow, double[] cbRow, double[] crRow) {
+            toYCbCr(rgbRow, yRow, cbRow, crRow, 0, rgbRow.length);
+        }
+
+        static void toYCbCr(int[] rgbRow, double[] yRow, double[] cbRow, double[] crRow, int from, int to) {
+            for (int x = from; x < to; x++) {
+                int rgb = rgbRow[x];
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                yRow[x] = 0.299 * r + 0.587 * g + 0.114 * b;
+                cbRow[x] = -0.1687 * r - 0.3313 * g + 0.5 * b + 128;
+                crRow[x] = 0.5 * r - 0.4187 * g - 0.0813 * b + 128;
+            }
+        }
+
+        @Override
+        void subsample(double[] row0, double[] row1, int width, double[] out) {
+            subsample(row0, row1, width, out, 0);
+        }
+
+        static void subsample(double[] row0, double[] row1, int width, double[] out, int from) {
+            int subsampledWidth = (width + 1) / 2;
+            for (int sx = from; sx < subsampledWidth; sx++) {
+                int srcX = sx * 2;
+                boolean secondCol = srcX + 1 < width;
+                double sum = row0[srcX];
+                int count = 1;
+                if (secondCol) {
+                    sum += row0[srcX + 1];
+                    count++;
+                }
+                if (row1 != null) {
+                    sum += row1[srcX];
+                    count++;
+                    if (secondCol) {
+                        sum += row1[srcX + 1];
+                        count++;
+                    }
+                }
+                out[sx] = sum / count;
+            }
+        }
+
+        @Override
+        void toRgb(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels, int offset) {
+            toRgb(yRow, cbRow, crRow, 0, width, pixels, offset);
+        }
+
+        static void toRgb(double[] yRow, double[] cbRow, double[] crRow, int from, int to, int[] pixels, int offset) {
+            for (int x = from; x < to; x++) {
+                pixels[offset + x] = pack(yRow[x], cbRow[x / 2], crRow[x / 2]);
+            }
+        }
+
+        @Override
+        void toRgbFull(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels, int offset) {
+            toRgbFull(yRow, cbRow, crRow, 0, width, pixels, offset);
+        }
+
+        static void toRgbFull(double[] yRow, double[] cbRow, double[] crRow, int from, int to, int[] pixels, int offset) {
+            for (int x = from; x < to; x++) {
+                pixels[offset + x] = pack(yRow[x], cbRow[x], crRow[x]);
+            }
+        }
+
+        @Override
+        void upsampleBilinear(double[] near, double[] far, int width, double[] out) {
+            upsampleBilinear(near, far, width, 0, width, out);
+        }
+
+        static void upsampleBilinear(double[] near, double[] far, int width, int from, int to, double[] out) {
+            int lastSample = (width + 1) / 2 - 1;
+            for (int x = from; x < to; x++) {
+                int own = x / 2;
+                int side = Math.max(0, Math.min(lastSample, (x & 1) == 0 ? own - 1 : own + 1));
+                out[x] = (near[own] * NEAR + far[own] * FAR) * NEAR + (near[side] * NEAR + far[side] * FAR) * FAR;
+            }
+        }
+
+        static int pack(double yVal, double cbVal, double crVal) {
+            int r = toByte(yVal + 1.402 * (crVal - 128));
+            int g = toByte(yVal - 0.34414 * (cbVal - 128) - 0.71414 * (crVal - 128));
+            int b = toByte(yVal + 1.772 * (cbVal - 128));
+            return (r << 16) | (g << 8) | b;
+        }
+
+        @Override
+        String name() {
+            return "scalar";
+        }
+    }
+}
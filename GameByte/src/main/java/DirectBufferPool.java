@@ -0,0 +1,65 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses direct ByteBuffers for decoded pixels. Direct buffers are slow to allocate and are only freed
+ * when the GC gets round to them, so decoding texture after texture into fresh ones churns native memory.
+ * Buffers are kept in power-of-two size classes, up to maxRetainedBytes in total; anything released
+ * beyond that is left to the GC.
+ */
+public class DirectBufferPool {
+
+    private static final int SIZE_CLASSES = 31;
+
+    private final List<ConcurrentLinkedDeque<ByteBuffer>> free = new ArrayList<>(SIZE_CLASSES);
+    private final long maxRetainedBytes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    public DirectBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            free.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    /** A cleared direct buffer with at least bytes capacity and its limit set to bytes. */
+    public ByteBuffer acquire(int bytes) {
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer buffer = free.get(sizeClass).pollFirst();
+        if (buffer != null) {
+            retainedBytes.addAndGet(-buffer.capacity());
+        } else {
+            buffer = ByteBuffer.allocateDirect(1 << sizeClass);
+        }
+        buffer.clear().limit(bytes);
+        return buffer;
+    }
+
+    /** Hands a buffer from acquire back; the caller must not touch it afterwards. */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+        free.get(Integer.numberOfTrailingZeros(capacity)).offerFirst(buffer);
+    }
+
+    /** Bytes currently held in the pool, not counting buffers that are out on loan. */
+    public long retainedBytes() {
+        return retainedBytes.get();
+    }
+
+    private static int sizeClass(int bytes) {
+        if (bytes > 1 << (SIZE_CLASSES - 1)) {
+            throw new IllegalArgumentException("Buffer too large to pool: " + bytes + " bytes");
+        }
+        return bytes <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+}
@@ -0,0 +1,86 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Compares the two entropy stages on the Dataset images: the default layout (one byte per coefficient,
+ * escapes, then Zstd) against the Huffman-coded layout (format version 5). Both are single-threaded and
+ * start from the same planes, so the difference is the coefficient coding. Prints size and encode/decode
+ * throughput per image after a few warm-up rounds.
+ */
+public class EntropyBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int TIMED_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String datasetDir = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset";
+        if (args.length >= 1) {
+            datasetDir = args[0];
+        }
+        File[] files = new File(datasetDir).listFiles((dir, name) -> name.matches("(?i).*\\.(jpe?g|png|bmp)"));
+        if (files == null || files.length == 0) {
+            System.err.println("No images found in: " + datasetDir);
+            return;
+        }
+        Arrays.sort(files);
+
+        System.out.printf("%-12s %10s %10s %7s %10s %10s %10s %10s%n", "Image", "Zstd B", "Huffman B", "Ratio",
+                "Zstd enc", "Huff enc", "Zstd dec", "Huff dec");
+        long totalZstd = 0;
+        long totalHuffman = 0;
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                continue;
+            }
+            PlanarImage planes = PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES);
+            double megapixels = planes.width * (double) planes.height / 1_000_000.0;
+
+            Result zstd = run(planes, false);
+            Result huffman = run(planes, true);
+            totalZstd += zstd.size;
+            totalHuffman += huffman.size;
+            // Throughput in megapixels per second
+            System.out.printf("%-12s %10d %10d %6.3fx %7.1f MP/s %7.1f MP/s %7.1f MP/s %7.1f MP/s%n", file.getName(),
+                    zstd.size, huffman.size, huffman.size / (double) zstd.size,
+                    megapixels / zstd.encodeSeconds, megapixels / huffman.encodeSeconds,
+                    megapixels / zstd.decodeSeconds, megapixels / huffman.decodeSeconds);
+        }
+        System.out.printf("%nTotal: Zstd %d bytes, Huffman %d bytes (%.3fx)%n", totalZstd, totalHuffman,
+                totalHuffman / (double) totalZstd);
+    }
+
+    // Best-of-N encode and decode times, in seconds, and the encoded size
+    private static Result run(PlanarImage planes, boolean huffman) throws IOException {
+        Result result = new Result();
+        result.encodeSeconds = Double.MAX_VALUE;
+        result.decodeSeconds = Double.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            if (huffman) {
+                GameByteHuffman.compress(planes, out);
+            } else {
+                GameByteCompressor.compress(planes, out, 1);
+            }
+            long encoded = System.nanoTime();
+            byte[] bytes = out.toByteArray();
+            GameByteDecompressor.decompress(new ByteArrayInputStream(bytes));
+            long decoded = System.nanoTime();
+            if (round >= WARMUP_ROUNDS) {
+                result.encodeSeconds = Math.min(result.encodeSeconds, (encoded - start) / 1e9);
+                result.decodeSeconds = Math.min(result.decodeSeconds, (decoded - encoded) / 1e9);
+            }
+            result.size = bytes.length;
+        }
+        return result;
+    }
+
+    private static final class Result {
+        long size;
+        double encodeSeconds;
+        double decodeSeconds;
+    }
+}
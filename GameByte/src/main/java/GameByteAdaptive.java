@@ -0,0 +1,148 @@
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+
+/**
+ * Adaptive .byt layout (format version 10). Every 8x8 block is classified from its samples before it is
+ * transformed: a block whose samples span no more than FLAT_RANGE levels is flat and sent as its DC alone,
+ * taken from the sample sum without running the DCT; the rest are transformed and quantized with the base
+ * matrix, as in the base layout. Scaling the matrix per block by variance (finer for smooth blocks, coarser
+ * for busy ones) lost to the uniform matrix at every setting of a rate-distortion sweep over the dataset,
+ * so it is not done.
+ *
+ * Layout: magic, version, width and height uncompressed, then one Zstd frame holding the blocks of Y, Cb
+ * and Cr in raster order, each as in the version 6 layout: the coefficient count up to the last non-zero
+ * one, then that many coefficients, one signed byte each with -128 escaping an int. A flat block is just
+ * a block of length 1 (or 0 for a zero DC), so it needs no symbol of its own; the decoder fills every such
+ * block straight into the plane without an inverse transform. A separate flat symbol made the stream
+ * larger once compressed.
+ */
+public class GameByteAdaptive {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int COEFFICIENTS = BLOCK_SIZE * BLOCK_SIZE;
+    private static final int FLAT = 0;
+    private static final int TRANSFORMED = 1;
+    private static final int FLAT_RANGE = Integer.getInteger("gamebyte.flatRange", 2);
+
+    private static final double[] LUMA_MULTIPLIERS = BlockDct.dequantMultipliers(
+            GameByteCompressor.LUMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
+    private static final double[] CHROMA_MULTIPLIERS = BlockDct.dequantMultipliers(
+            GameByteCompressor.CHROMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
+
+    /** Encodes the planes; out is left open. Returns how many blocks were flat and how many transformed. */
+    public static int[] compress(PlanarImage planes, OutputStream out) throws IOException {
+        CodecTrace trace = CodecTrace.start("encode", "adaptive");
+        if (trace != null) {
+            out = trace.countOut(out);
+        }
+        DataOutputStream header = new DataOutputStream(new GameByteCompressor.NonClosingOutputStream(out));
+        header.writeInt(GameByteCompressor.FORMAT_MAGIC);
+        header.writeInt(GameByteCompressor.VERSION_ADAPTIVE);
+        header.writeInt(planes.width);
+        header.writeInt(planes.height);
+        header.flush();
+
+        int[] classes = new int[2];
+        ZstdOutputStream zos = GameByteCompressor.openZstd(out);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zos));
+        encodeChannel(planes.y, GameByteCompressor.LUMINANCE_DIVISORS, dos, classes);
+        encodeChannel(planes.cb, GameByteCompressor.CHROMINANCE_DIVISORS, dos, classes);
+        encodeChannel(planes.cr, GameByteCompressor.CHROMINANCE_DIVISORS, dos, classes);
+        dos.flush();
+        zos.close();
+        if (trace != null) {
+            trace.finish(planes.width, planes.height);
+        }
+        return classes;
+    }
+
+    public static BufferedImage decompress(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        if (dis.readInt() != GameByteCompressor.FORMAT_MAGIC || dis.readInt() != GameByteCompressor.VERSION_ADAPTIVE) {
+            throw new IOException("Not an adaptive .byt file");
+        }
+        return decode(dis);
+    }
+
+    /** Decodes an image; dis is positioned just after the magic and version. */
+    static BufferedImage decode(DataInputStream dis) throws IOException {
+        int width = dis.readInt();
+        int height = dis.readInt();
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Corrupt adaptive .byt header");
+        }
+        PlanarImage planes = new PlanarImage(width, height, GameByteCompressor.FLOAT_PLANES);
+        try (InputStream zis = GameByteDecompressor.openZstd(dis)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(zis));
+            double[] block = new double[COEFFICIENTS];
+            BlockDct dct = new BlockDct();
+            decodeChannel(data, planes.y, LUMA_MULTIPLIERS, dct, block);
+            decodeChannel(data, planes.cb, CHROMA_MULTIPLIERS, dct, block);
+            decodeChannel(data, planes.cr, CHROMA_MULTIPLIERS, dct, block);
+        }
+        return planes.toImage();
+    }
+
+    private static void encodeChannel(PlanarImage.Plane channel, double[] steps, DataOutputStream dos,
+                                      int[] classes) throws IOException {
+        int blocksWide = channel.width / BLOCK_SIZE;
+        int count = blocksWide * (channel.height / BLOCK_SIZE);
+        double[] block = new double[COEFFICIENTS];
+        int[] zigZag = new int[COEFFICIENTS];
+        BlockDct dct = new BlockDct();
+        for (int b = 0; b < count; b++) {
+            channel.loadBlock((b % blocksWide) * BLOCK_SIZE, (b / blocksWide) * BLOCK_SIZE, block);
+            double min = block[0];
+            double max = block[0];
+            double sum = 0;
+            for (double sample : block) {
+                min = Math.min(min, sample);
+                max = Math.max(max, sample);
+                sum += sample;
+            }
+            int length = 0;
+            if (max - min <= FLAT_RANGE) {
+                classes[FLAT]++;
+                zigZag[0] = (int) Math.round(BlockDct.forwardDc(sum, BlockDct.REFERENCE) / steps[0]);
+                length = zigZag[0] != 0 ? 1 : 0;
+            } else {
+                classes[TRANSFORMED]++;
+                dct.forward(block);
+                for (int i = 0; i < COEFFICIENTS; i++) {
+                    int pos = GameByteCompressor.ZIGZAG_ORDER[i];
+                    zigZag[i] = (int) Math.round(block[pos] / steps[pos]);
+                    if (zigZag[i] != 0) {
+                        length = i + 1;
+                    }
+                }
+            }
+            dos.writeByte(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(zigZag[i], dos);
+            }
+        }
+    }
+
+    private static void decodeChannel(DataInputStream data, PlanarImage.Plane channel, double[] steps,
+                                      BlockDct dct, double[] block) throws IOException {
+        int blocksWide = channel.width / BLOCK_SIZE;
+        int count = blocksWide * (channel.height / BLOCK_SIZE);
+        for (int b = 0; b < count; b++) {
+            int x = (b % blocksWide) * BLOCK_SIZE;
+            int y = (b / blocksWide) * BLOCK_SIZE;
+            int length = GameByteDecompressor.unpackIndices(data, null, steps, true, dct, block);
+            GameByteDecompressor.inverse(length, channel, x, y, dct, block);
+        }
+    }
+
+    private static void writeValue(int value, DataOutputStream dos) throws IOException {
+        if (value <= Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            dos.writeByte(Byte.MIN_VALUE);
+            dos.writeInt(value);
+        } else {
+            dos.writeByte(value);
+        }
+    }
+}
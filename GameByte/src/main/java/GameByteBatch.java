@@ -0,0 +1,622 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compresses a whole directory (or glob) of textures to .byt in one JVM, so a build pays startup and
+ * JIT warmup once instead of per file. Files flow through a pipeline:
+ * read (virtual threads) -> decode source + encode (DEFAULT_THREADS platform threads) -> write (virtual threads),
+ * with bounded queues between the stages so a slow disk or a slow encoder holds back the others rather
+ * than buffering the whole input. An output is skipped if it is newer than its input and was made
+ * with the same settings (dictionary, quality gate, DCT and plane precision). The settings of each
+ * output are recorded in MANIFEST_NAME in the output directory. Every file gets a row in a CSV or JSON
+ * report.
+ *
+ * With --min-psnr or --min-ssim each encoded file is decoded again and scored with QualityMetrics on the
+ * encoder thread; a file that falls short is rejected rather than written. --metrics scores without gating.
+ * With --dictionary every file is written as a dictionary frame (see GameByteDictionary), which pays off on
+ * folders of small textures that share the dictionary's corpus.
+ */
+public class GameByteBatch {
+
+    private static final int DEFAULT_THREADS = Integer.getInteger("gamebyte.threads",
+            Runtime.getRuntime().availableProcessors());
+    // Files read or written at once on virtual threads, -Dgamebyte.ioConcurrency
+    private static final int IO_CONCURRENCY = Integer.getInteger("gamebyte.ioConcurrency", 16);
+    // Depth of the read -> encode and encode -> write queues, -Dgamebyte.queueCapacity
+    private static final int QUEUE_CAPACITY = Integer.getInteger("gamebyte.queueCapacity", 8);
+    // How long shutdown waits for an encoder to take END, or to exit after it, before interrupting it
+    private static final long ENCODER_STOP_MILLIS = 1000;
+    private static final String IMAGE_EXTENSIONS = "(?i).*\\.(jpe?g|png|bmp|gif)";
+    // Output path (relative to the output directory) -> the settings it was encoded with
+    static final String MANIFEST_NAME = ".gamebyte-batch";
+
+    public static void main(String[] args) {
+        String input = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset";
+        String outputDir = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed";
+        String reportFile = null;
+        boolean force = false;
+        int threads = DEFAULT_THREADS;
+        QualityGate gate = null;
+        String dictionaryFile = null;
+        // Usage: [--force] [--threads n] [--report report.csv|report.json] [--metrics] [--min-psnr dB] [--min-ssim s]
+        //        [--dictionary file.dict] <input dir or glob> <output dir>
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--force" -> force = true;
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--report" -> reportFile = args[++i];
+                case "--metrics" -> gate = QualityGate.orNone(gate);
+                case "--min-psnr" -> gate = QualityGate.orNone(gate).withMinPsnr(Double.parseDouble(args[++i]));
+                case "--min-ssim" -> gate = QualityGate.orNone(gate).withMinSsim(Double.parseDouble(args[++i]));
+                case "--dictionary" -> dictionaryFile = args[++i];
+                default -> positional.add(args[i]);
+            }
+        }
+        if (positional.size() >= 2) {
+            input = positional.get(0);
+            outputDir = positional.get(1);
+        }
+
+        try {
+            long startTime = System.nanoTime();
+            Path base = baseDirectory(input);
+            List<Path> inputs = findInputs(input);
+            GameByteDictionary dictionary = null;
+            if (dictionaryFile != null) {
+                dictionary = GameByteDictionary.load(Paths.get(dictionaryFile));
+                GameByteDictionary.register(dictionary);
+            }
+            List<Result> results = run(inputs, base, Paths.get(outputDir), threads, force, gate, dictionary);
+            long endTime = System.nanoTime();
+
+            //Evaluation
+            int compressed = 0;
+            int skipped = 0;
+            int failed = 0;
+            int rejected = 0;
+            long inputBytes = 0;
+            long outputBytes = 0;
+            double megapixels = 0;
+            for (Result result : results) {
+                switch (result.status) {
+                    case COMPRESSED -> {
+                        compressed++;
+                        inputBytes += result.inputBytes;
+                        outputBytes += result.outputBytes;
+                        megapixels += result.width * (double) result.height / 1_000_000.0;
+                    }
+                    case SKIPPED -> skipped++;
+                    case REJECTED -> {
+                        rejected++;
+                        System.err.println("Rejected: " + result.input + ": " + result.error);
+                    }
+                    case FAILED -> {
+                        failed++;
+                        System.err.println("Failed: " + result.input + ": " + result.error);
+                    }
+                }
+            }
+            double timeTakenS = (endTime - startTime) / 1_000_000_000.0;
+            System.out.printf("%d compressed, %d up to date, %d below quality, %d failed (%d threads)%n", compressed,
+                    skipped, rejected, failed, threads);
+            System.out.printf("Time taken: %.2f s (%.1f MP/s)%n", timeTakenS, megapixels / timeTakenS);
+            System.out.printf("Size: %d -> %d bytes (%.2f%%)%n", inputBytes, outputBytes,
+                    inputBytes == 0 ? 0.0 : outputBytes * 100.0 / inputBytes);
+            if (reportFile != null) {
+                writeReport(results, Paths.get(reportFile));
+                System.out.println("Report saved as: " + reportFile);
+            }
+            CodecTrace.printReport();
+        } catch (IOException e) {
+            System.err.println("Error during batch compression: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lists the images a directory or glob names, sorted. A directory means every image below it; otherwise the
+     * argument is a glob such as textures/**.png, matched below its longest glob-free directory prefix.
+     */
+    static List<Path> findInputs(String input) throws IOException {
+        Path base = baseDirectory(input);
+        PathMatcher matcher;
+        if (Files.isDirectory(Paths.get(input))) {
+            matcher = path -> path.getFileName().toString().matches(IMAGE_EXTENSIONS);
+        } else {
+            // Match the rest of the glob against paths relative to its base directory
+            String pattern = input.replace('\\', '/');
+            String prefix = base.toString().replace('\\', '/');
+            if (pattern.startsWith(prefix + "/")) {
+                pattern = pattern.substring(prefix.length() + 1);
+            }
+            PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            matcher = path -> glob.matches(Paths.get(base.relativize(path).toString().replace('\\', '/')));
+        }
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(Files::isRegularFile).filter(matcher::matches).sorted().toList();
+        }
+    }
+
+    // The directory outputs are made relative to: the input itself, or the directory part of a glob before its first wildcard
+    static Path baseDirectory(String input) {
+        if (Files.isDirectory(Paths.get(input))) {
+            return Paths.get(input);
+        }
+        Path parent = Paths.get(input.replaceAll("[*?\\[{].*$", "") + "x").getParent();
+        return parent != null ? parent : Paths.get(".");
+    }
+
+    /**
+     * Compresses inputs into outputDir, mirroring their paths relative to base with a .byt extension.
+     * Returns one result per input, in input order.
+     */
+    public static List<Result> run(List<Path> inputs, Path base, Path outputDir, int threads, boolean force)
+            throws InterruptedException {
+        return run(inputs, base, outputDir, threads, force, null);
+    }
+
+    /** As run, scoring every encoded file against gate (null for no scoring) before it is written. */
+    public static List<Result> run(List<Path> inputs, Path base, Path outputDir, int threads, boolean force,
+                                   QualityGate gate) throws InterruptedException {
+        return run(inputs, base, outputDir, threads, force, gate, null);
+    }
+
+    /**
+     * As run with a gate, writing dictionary frames when dictionary is not null. The dictionary must be
+     * registered (or saved where GameByteDictionary.forId looks) for the outputs to be decodable.
+     */
+    public static List<Result> run(List<Path> inputs, Path base, Path outputDir, int threads, boolean force,
+                                   QualityGate gate, GameByteDictionary dictionary) throws InterruptedException {
+        Result[] results = new Result[inputs.size()];
+        String settings = settings(gate, dictionary);
+        Properties manifest = readManifest(outputDir);
+        List<Job> jobs = new ArrayList<>();
+        Map<Path, Path> claimed = new HashMap<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            Path inputPath = inputs.get(i);
+            Path relative = base.relativize(inputPath);
+            String name = relative.getFileName().toString().replaceFirst("\\.[^.]+$", "") + ".byt";
+            Path outputPath = outputDir.resolve(relative).resolveSibling(name);
+            Result result = new Result(inputPath, outputPath);
+            results[i] = result;
+            // e.g. 1.jpg and 1.png both map to 1.byt; the first in sorted order keeps it
+            Path owner = claimed.putIfAbsent(outputPath, inputPath);
+            if (owner != null) {
+                result.fail(new FileAlreadyExistsException(outputPath.toString(), owner.toString(), "output already taken"));
+                continue;
+            }
+            if (!force && upToDate(inputPath, outputPath)
+                    && settings.equals(manifest.getProperty(manifestKey(outputDir, outputPath)))) {
+                result.status = Status.SKIPPED;
+                continue;
+            }
+            jobs.add(new Job(result));
+        }
+
+        BlockingQueue<Job> toEncode = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Job> toWrite = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        // Held from the start of a read until its job is queued for encoding, and from dispatch to the end
+        // of a write, so at most IO_CONCURRENCY files are in flight at either end of the pipeline
+        Semaphore readPermits = new Semaphore(IO_CONCURRENCY);
+        Semaphore writePermits = new Semaphore(IO_CONCURRENCY);
+
+        Thread[] encoders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            encoders[i] = Thread.ofPlatform().name("gamebyte-encode-" + i).start(() -> encodeLoop(toEncode, toWrite, gate, dictionary));
+        }
+        try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();
+             ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor()) {
+            Thread feeder = Thread.ofVirtual().start(() -> {
+                try {
+                    for (Job job : jobs) {
+                        readPermits.acquire();
+                        readers.submit(() -> read(job, toEncode, readPermits));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            // Every job comes out of the encoders exactly once, failed or not
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = toWrite.take();
+                writePermits.acquire();
+                writers.submit(() -> {
+                    try {
+                        write(job);
+                    } finally {
+                        writePermits.release();
+                    }
+                });
+            }
+            feeder.join();
+        } finally {
+            stopEncoders(encoders, toEncode);
+            if (dictionary != null) {
+                GameByteDictionary.closeIdleContexts();
+            }
+        }
+        boolean written = false;
+        for (Result result : results) {
+            if (result.status == Status.COMPRESSED) {
+                manifest.setProperty(manifestKey(outputDir, result.output), settings);
+                written = true;
+            }
+        }
+        if (written) {
+            try {
+                writeManifest(outputDir, manifest);
+            } catch (IOException e) {
+                // Only costs a re-encode: an output without recorded settings is never taken as up to date
+                System.err.println("Failed to record the batch settings: " + e.getMessage());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    // What an output depends on besides its input
+    static String settings(QualityGate gate, GameByteDictionary dictionary) {
+        QualityGate checked = QualityGate.orNone(gate);
+        return String.format(Locale.ROOT, "dictionary=%s minPsnr=%s minSsim=%s dct=%s precision=%s",
+                dictionary == null ? "none" : Integer.toUnsignedString(dictionary.id), checked.minPsnr(),
+                checked.minSsim(), BlockDct.REFERENCE ? "reference" : "fast",
+                GameByteCompressor.FLOAT_PLANES ? "float" : "double");
+    }
+
+    private static String manifestKey(Path outputDir, Path output) {
+        return outputDir.relativize(output).toString().replace('\\', '/');
+    }
+
+    private static Properties readManifest(Path outputDir) {
+        Properties manifest = new Properties();
+        Path file = outputDir.resolve(MANIFEST_NAME);
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                manifest.load(reader);
+            } catch (IOException e) {
+                // Unreadable: every output is re-encoded and the manifest rewritten
+                manifest.clear();
+            }
+        }
+        return manifest;
+    }
+
+    // Through a temporary file, like the outputs, so an interrupted run never leaves half a manifest
+    private static void writeManifest(Path outputDir, Properties manifest) throws IOException {
+        Files.createDirectories(outputDir);
+        Path temp = outputDir.resolve(MANIFEST_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            manifest.store(writer, "GameByteBatch: output -> encode settings");
+        }
+        Files.move(temp, outputDir.resolve(MANIFEST_NAME), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean upToDate(Path input, Path output) {
+        try {
+            if (!Files.exists(output)) {
+                return false;
+            }
+            FileTime inputTime = Files.getLastModifiedTime(input);
+            return Files.getLastModifiedTime(output).compareTo(inputTime) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void read(Job job, BlockingQueue<Job> toEncode, Semaphore readPermits) {
+        try {
+            long start = System.nanoTime();
+            try {
+                job.data = Files.readAllBytes(job.result.input);
+                job.result.inputBytes = job.data.length;
+            } catch (IOException e) {
+                job.result.fail(e);
+            }
+            job.result.readNanos = System.nanoTime() - start;
+            toEncode.put(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            readPermits.release();
+        }
+    }
+
+    // Every job taken is passed on, even if encoding it threw an Error, since run waits for each one
+    private static void encodeLoop(BlockingQueue<Job> toEncode, BlockingQueue<Job> toWrite, QualityGate gate,
+                                   GameByteDictionary dictionary) {
+        try {
+            while (true) {
+                Job job = toEncode.take();
+                if (job == Job.END) {
+                    return;
+                }
+                try {
+                    if (job.result.error == null) {
+                        encode(job, gate, dictionary);
+                    }
+                } catch (Throwable t) {
+                    // e.g. OutOfMemoryError on one huge texture; dropping its buffers lets the rest carry on
+                    job.data = null;
+                    job.result.fail(t);
+                } finally {
+                    toWrite.put(job);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands each encoder END and waits for it to exit. After a failed or interrupted run toEncode may be
+     * full with nobody taking from it, or an encoder stuck on a full toWrite, so END is only offered, and
+     * an encoder that has not exited within ENCODER_STOP_MILLIS is interrupted.
+     */
+    private static void stopEncoders(Thread[] encoders, BlockingQueue<Job> toEncode) throws InterruptedException {
+        for (int i = 0; i < encoders.length; i++) {
+            if (!toEncode.offer(Job.END, ENCODER_STOP_MILLIS, TimeUnit.MILLISECONDS)) {
+                break;
+            }
+        }
+        for (Thread encoder : encoders) {
+            encoder.join(ENCODER_STOP_MILLIS);
+            if (encoder.isAlive()) {
+                encoder.interrupt();
+                encoder.join();
+            }
+        }
+    }
+
+    // Decodes the source image and encodes it single-threaded; parallelism comes from encoding several files at once
+    private static void encode(Job job, QualityGate gate, GameByteDictionary dictionary) {
+        long start = System.nanoTime();
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(job.data));
+            CodecTrace.stage("encode", CodecTrace.Stage.READ, System.nanoTime() - start);
+            if (image == null) {
+                throw new IOException("Unsupported image format");
+            }
+            job.result.width = image.getWidth();
+            job.result.height = image.getHeight();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (dictionary == null) {
+                GameByteCompressor.compress(image, out, 1);
+            } else {
+                GameByteCompressor.compress(PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES), out, 1,
+                        dictionary);
+            }
+            job.data = out.toByteArray();
+            if (gate != null) {
+                long measureStart = System.nanoTime();
+                BufferedImage decoded = GameByteDecompressor.decompress(new ByteArrayInputStream(job.data));
+                QualityMetrics.Report report = QualityMetrics.compare(image, decoded, 1);
+                job.result.quality = report;
+                job.result.measureNanos = System.nanoTime() - measureStart;
+                String shortfall = gate.check(report);
+                if (shortfall != null) {
+                    job.data = null;
+                    job.result.reject(shortfall);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            job.data = null;
+            job.result.fail(e);
+        }
+        job.result.encodeNanos = System.nanoTime() - start;
+    }
+
+    // Writes through a temporary file and renames it, so an interrupted run never leaves a truncated
+    // output that looks up to date
+    private static void write(Job job) {
+        Result result = job.result;
+        if (result.error != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Path parent = result.output.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = parent.resolve(result.output.getFileName() + ".tmp");
+            Files.write(temp, job.data);
+            Files.move(temp, result.output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            result.outputBytes = job.data.length;
+            result.status = Status.COMPRESSED;
+        } catch (IOException e) {
+            result.fail(e);
+        }
+        job.data = null;
+        result.writeNanos = System.nanoTime() - start;
+    }
+
+    /** Writes results as JSON if the file name ends in .json, CSV otherwise. */
+    static void writeReport(List<Result> results, Path reportFile) throws IOException {
+        boolean json = reportFile.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        try (Writer writer = Files.newBufferedWriter(reportFile)) {
+            if (json) {
+                writer.write("[\n");
+            } else {
+                writer.write("input,output,status,width,height,input_bytes,output_bytes,ratio,psnr,psnr_y,ssim,ssim_y,"
+                        + "ms_ssim,read_ms,encode_ms,measure_ms,write_ms,error\n");
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                QualityMetrics.Report q = r.quality;
+                if (json) {
+                    writer.write(String.format(Locale.ROOT,
+                            "  {\"input\": %s, \"output\": %s, \"status\": \"%s\", \"width\": %d, \"height\": %d, "
+                                    + "\"inputBytes\": %d, \"outputBytes\": %d, \"ratio\": %.4f, \"psnr\": %s, "
+                                    + "\"psnrY\": %s, \"ssim\": %s, \"ssimY\": %s, \"msSsim\": %s, \"readMs\": %.3f, "
+                                    + "\"encodeMs\": %.3f, \"measureMs\": %.3f, \"writeMs\": %.3f, \"error\": %s}%s%n",
+                            jsonString(r.input.toString()), jsonString(r.output.toString()), r.status.label, r.width,
+                            r.height, r.inputBytes, r.outputBytes, r.ratio(), jsonNumber(q == null ? Double.NaN : q.psnr()),
+                            jsonNumber(q == null ? Double.NaN : q.psnrY()), jsonNumber(q == null ? Double.NaN : q.ssim()),
+                            jsonNumber(q == null ? Double.NaN : q.ssimY()), jsonNumber(q == null ? Double.NaN : q.msSsim()),
+                            r.readNanos / 1e6, r.encodeNanos / 1e6, r.measureNanos / 1e6, r.writeNanos / 1e6,
+                            r.error == null ? "null" : jsonString(r.error),
+                            i + 1 < results.size() ? "," : ""));
+                } else {
+                    writer.write(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%d,%.4f,%s,%s,%s,%s,%s,%.3f,%.3f,%.3f,%.3f,%s%n",
+                            csvField(r.input.toString()), csvField(r.output.toString()), r.status.label, r.width,
+                            r.height, r.inputBytes, r.outputBytes, r.ratio(), csvNumber(q == null ? Double.NaN : q.psnr()),
+                            csvNumber(q == null ? Double.NaN : q.psnrY()), csvNumber(q == null ? Double.NaN : q.ssim()),
+                            csvNumber(q == null ? Double.NaN : q.ssimY()), csvNumber(q == null ? Double.NaN : q.msSsim()),
+                            r.readNanos / 1e6, r.encodeNanos / 1e6, r.measureNanos / 1e6, r.writeNanos / 1e6,
+                            r.error == null ? "" : csvField(r.error)));
+                }
+            }
+            if (json) {
+                writer.write("]\n");
+            }
+        }
+    }
+
+    // Empty when not measured; PSNR of identical images is written as inf
+    private static String csvNumber(double value) {
+        return Double.isNaN(value) ? "" : Double.isInfinite(value) ? "inf" : String.format(Locale.ROOT, "%.5f", value);
+    }
+
+    // JSON has no infinity, so an unmeasured or infinite score is null
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.ROOT, "%.5f", value);
+    }
+
+    private static String csvField(String value) {
+        return value.matches(".*[\",\\n].*") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public enum Status {
+        COMPRESSED("compressed"), SKIPPED("up-to-date"), REJECTED("below-quality"), FAILED("failed");
+
+        final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+    }
+
+    /** One input's outcome: sizes in bytes, the time spent in each pipeline stage and, if measured, its quality. */
+    public static final class Result {
+        final Path input;
+        final Path output;
+        // Set by the pipeline threads; read after run() has joined them all
+        volatile Status status = Status.FAILED;
+        volatile int width;
+        volatile int height;
+        volatile long inputBytes;
+        volatile long outputBytes;
+        volatile long readNanos;
+        volatile long encodeNanos;
+        volatile long writeNanos;
+        volatile long measureNanos;
+        // Null unless the run was given a QualityGate
+        volatile QualityMetrics.Report quality;
+        volatile String error;
+
+        Result(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        void fail(Throwable e) {
+            status = Status.FAILED;
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+
+        void reject(String reason) {
+            status = Status.REJECTED;
+            error = reason;
+        }
+
+        double ratio() {
+            return inputBytes == 0 || outputBytes == 0 ? 0.0 : outputBytes / (double) inputBytes;
+        }
+    }
+
+    /**
+     * Minimum scores an encoded file needs to be written; NaN leaves a score unchecked, so
+     * QualityGate.NONE only measures. PSNR is the 6:1:1 weighted figure in dB, SSIM the weighted mean.
+     */
+    public record QualityGate(double minPsnr, double minSsim) {
+        public static final QualityGate NONE = new QualityGate(Double.NaN, Double.NaN);
+
+        static QualityGate orNone(QualityGate gate) {
+            return gate == null ? NONE : gate;
+        }
+
+        public QualityGate withMinPsnr(double minPsnr) {
+            return new QualityGate(minPsnr, minSsim);
+        }
+
+        public QualityGate withMinSsim(double minSsim) {
+            return new QualityGate(minPsnr, minSsim);
+        }
+
+        /** Why report falls short, or null if it passes. */
+        String check(QualityMetrics.Report report) {
+            if (report.psnr() < minPsnr) {
+                return String.format(Locale.ROOT, "PSNR %.2f dB below %.2f dB", report.psnr(), minPsnr);
+            }
+            if (report.ssim() < minSsim) {
+                return String.format(Locale.ROOT, "SSIM %.5f below %.5f", report.ssim(), minSsim);
+            }
+            return null;
+        }
+    }
+
+    /** A file moving through the pipeline; data is the source bytes, then the encoded bytes. */
+    private static final class Job {
+        static final Job END = new Job(null);
+
+        final Result result;
+        byte[] data;
+
+        Job(Result result) {
+            this.result = result;
+        }
+    }
+}
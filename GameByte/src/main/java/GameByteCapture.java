@@ -0,0 +1,465 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Continuous capture from an HTTP camera endpoint that returns one JPEG per GET (the robot's
+ * video_capture/jpeg, see RobotConnector) into a .gbcap archive. Frames flow through a pipeline:
+ * poll (virtual thread) -> decode JPEG + inter-frame encode (one platform thread, frames depend on the
+ * one before) -> write (virtual thread), with bounded queues between the stages.
+ *
+ * A slow writer blocks the encoder, and a slow encoder fills the poll queue, where the DropPolicy decides
+ * what happens: BLOCK holds the poller back (the camera is simply polled less often), DROP_OLDEST throws
+ * away the stalest queued frame to keep latency low, DROP_NEWEST throws away the frame just fetched.
+ * Frames are only ever dropped before encoding, so the inter-frame chain in the archive stays unbroken.
+ *
+ * Every frame is a GameByteInter frame: a key frame every keyFrameInterval frames, otherwise only the
+ * 8x8 blocks that changed since the previous frame. The archive is "GBCP", a version, then one record
+ * per frame: capture time (epoch ms), length and the frame's bytes. Records are flushed as they are
+ * written, so an interrupted capture leaves every complete frame readable.
+ */
+public class GameByteCapture {
+
+    private static final int ARCHIVE_MAGIC = 0x47424350; // "GBCP"
+    private static final int ARCHIVE_VERSION = 1;
+    // Depth of the poll -> encode and encode -> write queues, -Dgamebyte.queueCapacity
+    private static final int QUEUE_CAPACITY = Integer.getInteger("gamebyte.queueCapacity", 8);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final Frame END = new Frame(0, null);
+
+    /** What the poller does with a new frame when the encoder is behind and the queue is full. */
+    public enum DropPolicy {
+        BLOCK, DROP_OLDEST, DROP_NEWEST
+    }
+
+    private final URI source;
+    private final Map<String, String> headers;
+    private final DropPolicy policy;
+    private final int queueCapacity;
+    private final int keyFrameInterval;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build();
+    private volatile boolean stopped;
+
+    public GameByteCapture(URI source, Map<String, String> headers, DropPolicy policy, int queueCapacity,
+                           int keyFrameInterval) {
+        if (queueCapacity < 1 || keyFrameInterval < 1) {
+            throw new IllegalArgumentException("Queue capacity and key frame interval must be at least 1");
+        }
+        this.source = source;
+        this.headers = headers;
+        this.policy = policy;
+        this.queueCapacity = queueCapacity;
+        this.keyFrameInterval = keyFrameInterval;
+    }
+
+    public static void main(String[] args) {
+        String url = RobotConnector.VIDEO_CAPTURE_URL;
+        String archive = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\capture.gbcap";
+        String stubDir = null;
+        String replayDir = null;
+        int frames = 100;
+        long intervalMillis = 100;
+        int keyFrameInterval = 30;
+        DropPolicy policy = DropPolicy.DROP_OLDEST;
+        // Usage: [--stub <dir of jpgs>] [--frames n] [--interval ms] [--key-interval n]
+        //        [--policy block|drop-oldest|drop-newest] [--replay <dir>] [url] [archive.gbcap]
+        // --stub serves the directory's images in turn from a local HTTP server and captures from that
+        // Without --stub the camera token must be set: -Dgamebyte.cameraToken or TRITIUM_AUTH_TOKEN
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--stub" -> stubDir = args[++i];
+                case "--frames" -> frames = Integer.parseInt(args[++i]);
+                case "--interval" -> intervalMillis = Long.parseLong(args[++i]);
+                case "--key-interval" -> keyFrameInterval = Integer.parseInt(args[++i]);
+                case "--policy" -> policy = DropPolicy.valueOf(args[++i].toUpperCase(Locale.ROOT).replace('-', '_'));
+                case "--replay" -> replayDir = args[++i];
+                default -> positional.add(args[i]);
+            }
+        }
+        if (positional.size() >= 2) {
+            url = positional.get(0);
+            archive = positional.get(1);
+        } else if (positional.size() == 1) {
+            archive = positional.get(0);
+        }
+
+        StubCamera stub = null;
+        try {
+            Map<String, String> headers;
+            if (stubDir != null) {
+                stub = StubCamera.start(Paths.get(stubDir));
+                url = stub.uri().toString();
+                headers = Map.of();
+                System.out.println("Stub camera serving " + stub.frameCount() + " frames at " + url);
+            } else {
+                headers = RobotConnector.authHeaders();
+            }
+            GameByteCapture capture = new GameByteCapture(URI.create(url), headers, policy, QUEUE_CAPACITY,
+                    keyFrameInterval);
+            Stats stats = capture.run(Paths.get(archive), frames, intervalMillis);
+            System.out.println("Capture saved as: " + archive);
+            System.out.println(stats);
+            if (replayDir != null) {
+                int written = replay(Paths.get(archive), Paths.get(replayDir));
+                System.out.println(written + " frames decoded into " + replayDir);
+            }
+        } catch (IOException e) {
+            System.err.println("Error during capture: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            System.err.println("Error during capture: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (stub != null) {
+                stub.close();
+            }
+        }
+    }
+
+    /**
+     * Polls up to maxFrames frames, starting one every intervalMillis (0 for back to back), and archives
+     * them; returns early after stop(). Throws if the archive cannot be written.
+     */
+    public Stats run(Path archive, int maxFrames, long intervalMillis) throws IOException, InterruptedException {
+        stopped = false;
+        Stats stats = new Stats();
+        BlockingQueue<Frame> toEncode = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Frame> toWrite = new ArrayBlockingQueue<>(queueCapacity);
+        IOException[] writeFailure = new IOException[1];
+        long start = System.nanoTime();
+
+        Thread poller = Thread.ofVirtual().name("gamebyte-capture-poll").start(
+                () -> pollLoop(toEncode, maxFrames, intervalMillis, stats));
+        Thread encoder = Thread.ofPlatform().name("gamebyte-capture-encode").start(
+                () -> encodeLoop(toEncode, toWrite, stats));
+        Thread writer = Thread.ofVirtual().name("gamebyte-capture-write").start(() -> {
+            try {
+                writeLoop(toWrite, archive, stats);
+            } catch (IOException e) {
+                writeFailure[0] = e;
+            }
+        });
+        try {
+            poller.join();
+            encoder.join();
+            writer.join();
+        } catch (InterruptedException e) {
+            stop();
+            poller.interrupt();
+            encoder.interrupt();
+            writer.interrupt();
+            throw e;
+        }
+        stats.nanos = System.nanoTime() - start;
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+        return stats;
+    }
+
+    /** Asks a running capture to finish: no more frames are polled, and the queued ones are still written. */
+    public void stop() {
+        stopped = true;
+    }
+
+    private void pollLoop(BlockingQueue<Frame> toEncode, int maxFrames, long intervalMillis, Stats stats) {
+        try {
+            long next = System.nanoTime();
+            for (int i = 0; i < maxFrames && !stopped; i++) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(Duration.ofNanos(wait));
+                }
+                next += intervalMillis * 1_000_000L;
+                byte[] jpeg = fetch(stats);
+                if (jpeg == null) {
+                    continue;
+                }
+                stats.fetched++;
+                offer(toEncode, new Frame(System.currentTimeMillis(), jpeg), stats);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putEnd(toEncode);
+        }
+    }
+
+    // The frame's bytes, or null (counted as a fetch failure) if the camera did not answer with one
+    private byte[] fetch(Stats stats) throws InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(source).timeout(REQUEST_TIMEOUT).GET();
+        headers.forEach(request::header);
+        try {
+            HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 200 && response.body().length > 0) {
+                return response.body();
+            }
+            System.err.println("Camera answered " + response.statusCode());
+        } catch (IOException e) {
+            System.err.println("Camera fetch failed: " + e.getMessage());
+        }
+        stats.fetchFailures++;
+        return null;
+    }
+
+    private void offer(BlockingQueue<Frame> toEncode, Frame frame, Stats stats) throws InterruptedException {
+        switch (policy) {
+            case BLOCK -> toEncode.put(frame);
+            case DROP_NEWEST -> {
+                if (!toEncode.offer(frame)) {
+                    stats.dropped++;
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!toEncode.offer(frame)) {
+                    if (toEncode.poll() != null) {
+                        stats.dropped++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void encodeLoop(BlockingQueue<Frame> toEncode, BlockingQueue<Frame> toWrite, Stats stats) {
+        GameByteInter.Encoder inter = new GameByteInter.Encoder();
+        int sinceKeyFrame = 0;
+        try {
+            while (true) {
+                Frame frame = toEncode.take();
+                if (frame == END) {
+                    break;
+                }
+                try {
+                    BufferedImage image = ImageIO.read(new ByteArrayInputStream(frame.data));
+                    if (image == null) {
+                        throw new IOException("Not a decodable image");
+                    }
+                    boolean key = sinceKeyFrame == 0;
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(frame.data.length);
+                    inter.encode(image, key, out);
+                    sinceKeyFrame = (sinceKeyFrame + 1) % keyFrameInterval;
+                    stats.encoded++;
+                    stats.keyFrames += key ? 1 : 0;
+                    stats.blocks += inter.blocks();
+                    stats.skippedBlocks += inter.skippedBlocks();
+                    stats.sourceBytes += frame.data.length;
+                    toWrite.put(new Frame(frame.captureMillis, out.toByteArray()));
+                } catch (IOException | RuntimeException e) {
+                    stats.decodeFailures++;
+                    System.err.println("Frame dropped, could not be encoded: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putEnd(toWrite);
+        }
+    }
+
+    // On a write failure the capture is stopped but the queue is still drained, so the encoder never blocks
+    private void writeLoop(BlockingQueue<Frame> toWrite, Path archive, Stats stats) throws IOException {
+        IOException failure = null;
+        DataOutputStream out = null;
+        try {
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(archive)));
+                out.writeInt(ARCHIVE_MAGIC);
+                out.writeInt(ARCHIVE_VERSION);
+                out.flush();
+            } catch (IOException e) {
+                failure = e;
+                stop();
+            }
+            while (true) {
+                Frame frame = toWrite.take();
+                if (frame == END) {
+                    break;
+                }
+                if (failure != null) {
+                    continue;
+                }
+                try {
+                    out.writeLong(frame.captureMillis);
+                    out.writeInt(frame.data.length);
+                    out.write(frame.data);
+                    out.flush();
+                    stats.written++;
+                    stats.bytesWritten += Long.BYTES + Integer.BYTES + frame.data.length;
+                } catch (IOException e) {
+                    failure = e;
+                    stop();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // The end marker always goes through, whatever the drop policy
+    private static void putEnd(BlockingQueue<Frame> queue) {
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Receives the frames of an archive in order, already decoded. */
+    public interface FrameSink {
+        void frame(long captureMillis, BufferedImage image) throws IOException;
+    }
+
+    /**
+     * Decodes every frame of an archive, following the inter-frame chain from the first key frame. A
+     * truncated last record (from a capture that was cut off) ends the archive. Returns the frame count.
+     */
+    public static int read(Path archive, FrameSink sink) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(archive)))) {
+            if (in.readInt() != ARCHIVE_MAGIC || in.readInt() != ARCHIVE_VERSION) {
+                throw new IOException(archive + " is not a capture archive");
+            }
+            GameByteInter.Decoder decoder = new GameByteInter.Decoder();
+            int frames = 0;
+            while (true) {
+                byte[] data;
+                long captureMillis;
+                try {
+                    captureMillis = in.readLong();
+                    data = new byte[in.readInt()];
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    return frames;
+                }
+                sink.frame(captureMillis, decoder.decode(new ByteArrayInputStream(data)));
+                frames++;
+            }
+        }
+    }
+
+    /** Writes every frame of an archive to outputDir as frame-00001.jpg and so on. */
+    public static int replay(Path archive, Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        AtomicInteger index = new AtomicInteger();
+        return read(archive, (captureMillis, image) -> ImageIO.write(image, "jpg",
+                outputDir.resolve(String.format("frame-%05d.jpg", index.incrementAndGet())).toFile()));
+    }
+
+    private record Frame(long captureMillis, byte[] data) {
+    }
+
+    /** Counters for one run; each is only updated by the stage that owns it and read after the run. */
+    public static final class Stats {
+        public long fetched;
+        public long fetchFailures;
+        public long dropped;
+        public long decodeFailures;
+        public long encoded;
+        public long keyFrames;
+        public long written;
+        public long blocks;
+        public long skippedBlocks;
+        public long sourceBytes;
+        public long bytesWritten;
+        long nanos;
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1_000_000_000.0;
+            return String.format(Locale.ROOT, "%d fetched (%d failed), %d dropped, %d undecodable, %d encoded "
+                            + "(%d key frames), %d written in %.2f s (%.1f fps)%n"
+                            + "Blocks skipped: %d of %d (%.1f%%)%n"
+                            + "Size: %d bytes of JPEG -> %d bytes archived (%.2f%%)",
+                    fetched, fetchFailures, dropped, decodeFailures, encoded, keyFrames, written, seconds,
+                    seconds == 0 ? 0.0 : written / seconds, skippedBlocks, blocks,
+                    blocks == 0 ? 0.0 : skippedBlocks * 100.0 / blocks, sourceBytes, bytesWritten,
+                    sourceBytes == 0 ? 0.0 : bytesWritten * 100.0 / sourceBytes);
+        }
+    }
+
+    /**
+     * A stand-in for the camera: a local HTTP server answering every GET with the next image of a
+     * directory, in sorted order and round again at the end. For trying the pipeline without the robot.
+     */
+    static final class StubCamera implements AutoCloseable {
+        private final HttpServer server;
+        private final List<byte[]> frames;
+
+        private StubCamera(HttpServer server, List<byte[]> frames) {
+            this.server = server;
+            this.frames = frames;
+        }
+
+        static StubCamera start(Path directory) throws IOException {
+            List<byte[]> frames = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.filter(f -> f.getFileName().toString().matches("(?i).*\\.jpe?g")).sorted().toList()) {
+                    frames.add(Files.readAllBytes(file));
+                }
+            }
+            if (frames.isEmpty()) {
+                throw new FileNotFoundException("No JPEGs in " + directory);
+            }
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            AtomicInteger next = new AtomicInteger();
+            server.createContext("/video_capture/jpeg", exchange -> {
+                byte[] frame = frames.get(Math.floorMod(next.getAndIncrement(), frames.size()));
+                exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+                exchange.sendResponseHeaders(200, frame.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(frame);
+                }
+            });
+            server.start();
+            return new StubCamera(server, frames);
+        }
+
+        URI uri() {
+            return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                    + "/video_capture/jpeg");
+        }
+
+        int frameCount() {
+            return frames.size();
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+}
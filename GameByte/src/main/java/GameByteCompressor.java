@@ -1,15 +1,55 @@
+import com.github.luben.zstd.Zstd;
 import com.github.luben.zstd.ZstdOutputStream;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import org.jtransforms.dct.DoubleDCT_2D;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class GameByteCompressor {
 
     private static final int BLOCK_SIZE = 8;
-    private static final float[] QUALITY_LEVELS = {0.75f, 1.0f, 1.25f, 1.5f};
-    private static final double BASE_QUALITY = 1.0;
-    private static final int[][] LUMINANCE_QUANT_MATRIX = {
+    // Streaming mode works in MCU stripes: 16 luma rows cover exactly one 8-row chroma block row
+    static final int MCU_SIZE = 16;
+    // Files that are not plain channel-sequential .byt start with this magic and a format version
+    static final int FORMAT_MAGIC = 0x47425954; // "GBYT"
+    static final int VERSION_STRIPED = 2;
+    static final int VERSION_PROGRESSIVE = 3;
+    static final int VERSION_SEGMENTED = 4;
+    static final int VERSION_HUFFMAN = 5;
+    static final int VERSION_SCALED = 6;
+    static final int VERSION_DICTIONARY = 7;
+    static final int VERSION_PALETTE = 8;
+    static final int VERSION_INTER = 9;
+    static final int VERSION_ADAPTIVE = 10;
+    // MCU rows per independently compressed segment in the segmented layout, -Dgamebyte.segmentRows
+    static final int SEGMENT_MCU_ROWS = Integer.getInteger("gamebyte.segmentRows", 4);
+    static final float[] QUALITY_LEVELS = {0.75f, 1.0f, 1.25f, 1.5f};
+    static final double BASE_QUALITY = 1.0;
+    // Zstd level and Zstd's own worker threads for every layout, -Dgamebyte.zstdLevel and -Dgamebyte.zstdWorkers
+    static final int ZSTD_LEVEL = Integer.getInteger("gamebyte.zstdLevel", Zstd.defaultCompressionLevel());
+    static final int ZSTD_WORKERS = Integer.getInteger("gamebyte.zstdWorkers", 0);
+    // Worker threads for block encoding, overridable with -Dgamebyte.threads or the third argument
+    private static final int DEFAULT_THREADS = Integer.getInteger("gamebyte.threads",
+            Runtime.getRuntime().availableProcessors());
+    // -Dgamebyte.precision=float keeps the planes as float[] to halve their memory
+    static final boolean FLOAT_PLANES = "float".equals(System.getProperty("gamebyte.precision"));
+    // Rows decoded per ImageReader call when streaming from a JPEG/PNG source, -Dgamebyte.bandRows
+    private static final int BAND_ROWS = Integer.getInteger("gamebyte.bandRows", 8 * MCU_SIZE);
+    private static final ThreadLocal<BlockScratch> SCRATCH = ThreadLocal.withInitial(BlockScratch::new);
+    static final int[][] LUMINANCE_QUANT_MATRIX = {
             {16, 11, 10, 16, 24, 40, 51, 61},
             {12, 12, 14, 19, 26, 58, 60, 55},
             {14, 13, 16, 24, 40, 57, 69, 56},
@@ -19,7 +59,7 @@ public class GameByteCompressor {
             {49, 64, 78, 87, 103, 121, 120, 101},
             {72, 92, 95, 98, 112, 100, 103, 99}
     };
-    private static final int[][] CHROMINANCE_QUANT_MATRIX = {
+    static final int[][] CHROMINANCE_QUANT_MATRIX = {
             {17, 18, 24, 47, 99, 99, 99, 99},
             {18, 21, 26, 66, 99, 99, 99, 99},
             {24, 26, 56, 99, 99, 99, 99, 99},
@@ -29,7 +69,10 @@ public class GameByteCompressor {
             {99, 99, 99, 99, 99, 99, 99, 99},
             {99, 99, 99, 99, 99, 99, 99, 99}
     };
-    private static final int[] ZIGZAG_ORDER = {
+    // Quantizer steps with the block transform's output scaling folded in, row-major
+    static final double[] LUMINANCE_DIVISORS = BlockDct.quantDivisors(LUMINANCE_QUANT_MATRIX, BASE_QUALITY, BlockDct.REFERENCE);
+    static final double[] CHROMINANCE_DIVISORS = BlockDct.quantDivisors(CHROMINANCE_QUANT_MATRIX, BASE_QUALITY, BlockDct.REFERENCE);
+    static final int[] ZIGZAG_ORDER = {
             0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
             12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
             35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
@@ -40,171 +83,544 @@ public class GameByteCompressor {
 
         String inputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset\\10.jpg";
         String outputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed\\10.byt";
+        // Optional mode flag: --stream (bounded-memory stripes), --segmented (parallel-decodable segments)
+        // --huffman (Huffman-coded coefficients, no Zstd pass), --palette (RGB332 + Deflate, see GameByteVer1)
+        // --incremental (reuses the unchanged tiles of the last run from output.tiles, see GameByteIncremental)
+        // or --adaptive (flat blocks as DC only, see GameByteAdaptive)
+        String mode = args.length > 0 && args[0].startsWith("--") ? args[0] : "";
+        if (!mode.isEmpty()) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        boolean streaming = mode.equals("--stream");
+        if (args.length >= 2) {
+            inputFile = args[0];
+            outputFile = args[1];
+        }
+        int threads = args.length >= 3 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+        if (streaming) {
+            threads = 1;
+        }
 
         try {
             long startTime = System.nanoTime();
-            // Read JPEG image
-            BufferedImage image = ImageIO.read(new File(inputFile));
-            if (image == null) {
-                System.err.println("Failed to read image: " + inputFile);
-                return;
-            }
-            int width = image.getWidth();
-            int height = image.getHeight();
-
-            // Convert to YCbCr
-            double[][] Y = new double[height][width];
-            double[][] Cb = new double[height][width];
-            double[][] Cr = new double[height][width];
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    int rgb = image.getRGB(x, y);
-                    int r = (rgb >> 16) & 0xFF;
-                    int g = (rgb >> 8) & 0xFF;
-                    int b = rgb & 0xFF;
-                    Y[y][x] = 0.299 * r + 0.587 * g + 0.114 * b;
-                    Cb[y][x] = -0.1687 * r - 0.3313 * g + 0.5 * b + 128;
-                    Cr[y][x] = 0.5 * r - 0.4187 * g - 0.0813 * b + 128;
+            long allocatedBefore = allocatedBytes();
+            if (streaming) {
+                try (OutputStream out = new FileOutputStream(outputFile)) {
+                    compressStreaming(new File(inputFile), out);
+                }
+            } else {
+                // Read JPEG image
+                long readStart = System.nanoTime();
+                BufferedImage image = ImageIO.read(new File(inputFile));
+                CodecTrace.stage("encode", CodecTrace.Stage.READ, System.nanoTime() - readStart);
+                if (image == null) {
+                    System.err.println("Failed to read image: " + inputFile);
+                    return;
                 }
-            }
 
-            // Subsample Cb and Cr (4:2:0)
-            int subsampledHeight = (height + 1) / 2;
-            int subsampledWidth = (width + 1) / 2;
-            double[][] subsampledCb = subsample(Cb, height, width);
-            double[][] subsampledCr = subsample(Cr, height, width);
-
-            // Pad channels
-            int paddedHeightY = ((height + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
-            int paddedWidthY = ((width + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
-            double[][] paddedY = padChannel(Y, paddedHeightY, paddedWidthY, height, width);
-
-            int paddedHeightChroma = ((subsampledHeight + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
-            int paddedWidthChroma = ((subsampledWidth + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
-            double[][] paddedCb = padChannel(subsampledCb, paddedHeightChroma,
-                    paddedWidthChroma, subsampledHeight, subsampledWidth);
-            double[][] paddedCr = padChannel(subsampledCr, paddedHeightChroma,
-                    paddedWidthChroma, subsampledHeight, subsampledWidth);
-
-            // Compress and write output using Zstd
-            try (ZstdOutputStream zos = new ZstdOutputStream(new FileOutputStream(outputFile));
-                 DataOutputStream dos = new DataOutputStream(zos)) {
-                // Write header
-                dos.writeInt(width);
-                dos.writeInt(height);
-                dos.writeInt(paddedWidthY);
-                dos.writeInt(paddedHeightY);
-                dos.writeInt(paddedWidthChroma);
-                dos.writeInt(paddedHeightChroma);
-                dos.writeInt(QUALITY_LEVELS.length);
-                for (float level : QUALITY_LEVELS) {
-                    dos.writeFloat(level);
+                // Compress and write output using Zstd
+                try (OutputStream out = new FileOutputStream(outputFile)) {
+                    if (mode.equals("--segmented")) {
+                        compressSegmented(PlanarImage.fromImage(image, FLOAT_PLANES), out, SEGMENT_MCU_ROWS, threads);
+                    } else if (mode.equals("--palette")) {
+                        GameByteVer1.compress(image, out, threads);
+                    } else if (mode.equals("--incremental")) {
+                        threads = 1;
+                        Path cache = GameByteIncremental.cacheFor(Paths.get(outputFile));
+                        int tiles = GameByteIncremental.compress(image, out, cache);
+                        System.out.println("Tiles re-encoded: " + tiles + " (cache: " + cache + ")");
+                    } else if (mode.equals("--adaptive")) {
+                        threads = 1;
+                        int[] classes = GameByteAdaptive.compress(PlanarImage.fromImage(image, FLOAT_PLANES), out);
+                        System.out.printf("Blocks: %d flat, %d transformed%n", classes[0], classes[1]);
+                    } else if (mode.equals("--huffman")) {
+                        threads = 1;
+                        GameByteHuffman.compress(PlanarImage.fromImage(image, FLOAT_PLANES), out);
+                    } else {
+                        compress(image, out, threads);
+                    }
                 }
+            }
+            System.out.println("Image Compressed Successfully and Saved as: " + outputFile);
 
-                // Process channels
-                processChannel(paddedY, paddedHeightY, paddedWidthY, LUMINANCE_QUANT_MATRIX, dos);
-                processChannel(paddedCb, paddedHeightChroma, paddedWidthChroma, CHROMINANCE_QUANT_MATRIX, dos);
-                processChannel(paddedCr, paddedHeightChroma, paddedWidthChroma, CHROMINANCE_QUANT_MATRIX, dos);
+            //Evaluation
+            long endTime = System.nanoTime();
+            double timeTakenMs = (endTime - startTime) / 1_000_000.0;
+            double timeTakenS = (endTime - startTime) / 1_000_000_000.0;
+            System.out.printf("\nTime taken to compress: %.2f ms (%d threads)%n", timeTakenMs, threads);
+            System.out.println(String.format("%.2f", timeTakenS) + " seconds.");
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.out.printf("Heap allocated: %.2f MB%n", allocated / (1024.0 * 1024.0));
 
-                System.out.println("Image Compressed Successfully and Saved as: " + outputFile);
+            //Output size & Comparison
+            File uncompressedFile = new File(inputFile);
+            long fileSizeBytes = uncompressedFile.length();
+            double fileSizeKB1 = fileSizeBytes / 1024.0;
+            System.out.println("\nOriginal File Size: " +
+                    fileSizeBytes + " bytes(" + String.format("%.2f", fileSizeKB1) + " KB)");
 
-                //Evaluation
-                long endTime = System.nanoTime();
-                double timeTakenMs = (endTime - startTime) / 1_000_000.0;
-                double timeTakenS = (endTime - startTime) / 1_000_000_000.0;
-                System.out.printf("\nTime taken to compress: %.2f ms%n", timeTakenMs);
-                System.out.println(String.format("%.2f", timeTakenS) + " seconds.");
+            File compressedFile = new File(outputFile);
+            //if(compressedFile.exists() && compressedFile.canRead())
+            fileSizeBytes = compressedFile.length();
+            double fileSizeKB2 = fileSizeBytes / 1024.0;
+            System.out.println("\nCompressed File Size: " +
+                    fileSizeBytes + " bytes (" + String.format("%.2f", fileSizeKB2) + " KB)");
 
-                //clear
-                dos.close();
-                zos.close();
+            System.out.println("\nSize Reduction: " + String.format("%.2f", (fileSizeKB2 - fileSizeKB1)) + " KB");
+            CodecTrace.printReport();
+        } catch (IOException e) {
+            System.err.println("Error during compression: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-                //Output size & Comparison
-                File uncompressedFile = new File(inputFile);
-                long fileSizeBytes = uncompressedFile.length();
-                double fileSizeKB1 = fileSizeBytes / 1024.0;
-                System.out.println("\nOriginal File Size: " +
-                        fileSizeBytes + " bytes(" + String.format("%.2f", fileSizeKB1) + " KB)");
+    /**
+     * Encodes an image into the .byt format and writes the Zstd stream to out.
+     * With more than one thread the blocks are encoded in parallel stripes of block rows
+     * (all three channels at once) and written back in order, so the output is byte-identical
+     * to the serial path.
+     */
+    public static void compress(BufferedImage image, OutputStream out, int threads) throws IOException {
+        CodecTrace trace = CodecTrace.start("encode", "channels");
+        long start = trace == null ? 0 : System.nanoTime();
+        PlanarImage planes = PlanarImage.fromImage(image, FLOAT_PLANES);
+        if (trace != null) {
+            trace.add(CodecTrace.Stage.COLOR_CONVERT, System.nanoTime() - start);
+        }
+        compress(planes, out, threads, BASE_QUALITY, trace);
+    }
 
-                File compressedFile = new File(outputFile);
-                //if(compressedFile.exists() && compressedFile.canRead())
-                fileSizeBytes = compressedFile.length();
-                double fileSizeKB2 = fileSizeBytes / 1024.0;
-                System.out.println("\nCompressed File Size: " +
-                        fileSizeBytes + " bytes (" + String.format("%.2f", fileSizeKB2) + " KB)");
+    public static void compress(PlanarImage planes, OutputStream out, int threads) throws IOException {
+        compress(planes, out, threads, BASE_QUALITY);
+    }
 
-                System.out.println("\nSize Reduction: " + String.format("%.2f", (fileSizeKB2 - fileSizeKB1)) + " KB");
+    /**
+     * As compress, with every quantizer step multiplied by scale: above 1 is smaller and coarser, below 1
+     * larger and finer. The scale is stored as a float in a version 6 header so the decoder dequantizes
+     * with the same steps; scale 1 writes the original headerless layout.
+     */
+    public static void compress(PlanarImage planes, OutputStream out, int threads, double scale) throws IOException {
+        compress(planes, out, threads, scale, CodecTrace.start("encode", "channels"));
+    }
 
+    private static void compress(PlanarImage planes, OutputStream out, int threads, double scale, CodecTrace trace)
+            throws IOException {
+        if (trace != null) {
+            out = trace.countOut(out);
+            trace.layout((float) scale != BASE_QUALITY ? "scaled" : "channels");
+        }
+        // The Zstd frame is finished on close, but the caller keeps ownership of out
+        OutputStream zos = openZstd(out);
+        if (trace != null) {
+            zos = trace.timeZstd(zos);
+        }
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zos));
+        writeChannels(planes, dos, threads, scale, trace);
+        dos.flush();
+        zos.close();
+        if (trace != null) {
+            trace.finish(planes.width, planes.height);
+        }
+    }
+
+    /**
+     * Dictionary layout (format version 7): the stream compress(planes, out, threads) writes, compressed as
+     * one Zstd frame against a trained dictionary. A raw header holds the dictionary ID, so the decoder can
+     * find the same dictionary. The frame is made with a compression context borrowed from
+     * GameByteDictionary's shared pool and handed back once it is written.
+     */
+    public static void compress(PlanarImage planes, OutputStream out, int threads, GameByteDictionary dictionary)
+            throws IOException {
+        CodecTrace trace = CodecTrace.start("encode", "dictionary");
+        if (trace == null) {
+            dictionary.writeFrame(encodeUncompressed(planes, threads, BASE_QUALITY), out);
+            return;
+        }
+        byte[] stream = encodeUncompressed(planes, threads, BASE_QUALITY, trace);
+        long start = System.nanoTime();
+        dictionary.writeFrame(stream, trace.countOut(out));
+        trace.add(CodecTrace.Stage.ZSTD, System.nanoTime() - start);
+        trace.finish(planes.width, planes.height);
+    }
+
+    /** The header and packed blocks compress(planes, out, threads, scale) hands to Zstd, uncompressed. */
+    static byte[] encodeUncompressed(PlanarImage planes, int threads, double scale) throws IOException {
+        return encodeUncompressed(planes, threads, scale, null);
+    }
+
+    private static byte[] encodeUncompressed(PlanarImage planes, int threads, double scale, CodecTrace trace)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(planes.width * planes.height / 4);
+        DataOutputStream dos = new DataOutputStream(bytes);
+        writeChannels(planes, dos, threads, scale, trace);
+        dos.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeChannels(PlanarImage planes, DataOutputStream dos, int threads, double scale,
+                                      CodecTrace trace) throws IOException {
+        scale = (float) scale;
+        double[] lumaDivisors = scale == BASE_QUALITY ? LUMINANCE_DIVISORS
+                : BlockDct.quantDivisors(LUMINANCE_QUANT_MATRIX, scale, BlockDct.REFERENCE);
+        double[] chromaDivisors = scale == BASE_QUALITY ? CHROMINANCE_DIVISORS
+                : BlockDct.quantDivisors(CHROMINANCE_QUANT_MATRIX, scale, BlockDct.REFERENCE);
+        writeHeader(dos, planes.width, planes.height, scale);
+        boolean escaped = scale != BASE_QUALITY;
+
+        // Process channels
+        if (threads <= 1) {
+            long zstdMark = trace == null ? 0 : trace.nanos(CodecTrace.Stage.ZSTD);
+            processChannel(planes.y, lumaDivisors, escaped, dos, trace);
+            processChannel(planes.cb, chromaDivisors, escaped, dos, trace);
+            processChannel(planes.cr, chromaDivisors, escaped, dos, trace);
+            if (trace != null) {
+                trace.exclude(CodecTrace.Stage.PACK, CodecTrace.Stage.ZSTD, zstdMark);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                // Submit every stripe of every channel before joining any, so Cb and Cr overlap with Y
+                List<ForkJoinTask<byte[]>> rowsY = submitChannel(pool, planes.y, lumaDivisors, escaped, trace);
+                List<ForkJoinTask<byte[]>> rowsCb = submitChannel(pool, planes.cb, chromaDivisors, escaped, trace);
+                List<ForkJoinTask<byte[]>> rowsCr = submitChannel(pool, planes.cr, chromaDivisors, escaped, trace);
+                writeRows(rowsY, dos);
+                writeRows(rowsCb, dos);
+                writeRows(rowsCr, dos);
+            } finally {
+                pool.shutdown();
             }
-        } catch (IOException e) {
-            System.err.println("Error during compression: " + e.getMessage());
-            e.printStackTrace();
         }
     }
 
-    private static double[][] subsample(double[][] channel, int height, int width) {
-        int subsampledHeight = (height + 1) / 2;
-        int subsampledWidth = (width + 1) / 2;
-        double[][] subsampled = new double[subsampledHeight][subsampledWidth];
-        for (int y = 0; y < subsampledHeight; y++) {
-            for (int x = 0; x < subsampledWidth; x++) {
-                int srcY = y * 2;
-                int srcX = x * 2;
-                double sum = 0;
-                int count = 0;
-                for (int dy = 0; dy < 2 && srcY + dy < height; dy++) {
-                    for (int dx = 0; dx < 2 && srcX + dx < width; dx++) {
-                        sum += channel[srcY + dy][srcX + dx];
-                        count++;
-                    }
-                }
-                subsampled[y][x] = sum / count;
+    /**
+     * Writes already quantized channels (zigzag order, 64 per block, blocks in raster order, as from
+     * quantizeChannel with divisors for scale) in the same layout compress(planes, out, threads, scale) does.
+     */
+    static void compressQuantized(int width, int height, double scale, int[] y, int[] cb, int[] cr, OutputStream out)
+            throws IOException {
+        ZstdOutputStream zos = openZstd(out);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zos));
+        writeHeader(dos, width, height, (float) scale);
+        boolean escaped = (float) scale != BASE_QUALITY;
+        int[] zigZag = new int[BLOCK_SIZE * BLOCK_SIZE];
+        for (int[] channel : new int[][]{y, cb, cr}) {
+            for (int offset = 0; offset < channel.length; offset += zigZag.length) {
+                System.arraycopy(channel, offset, zigZag, 0, zigZag.length);
+                packIndices(zigZag, QUALITY_LEVELS, escaped, dos);
             }
         }
-        return subsampled;
+        dos.flush();
+        zos.close();
     }
 
-    private static double[][] padChannel(double[][] channel, int paddedHeight, int paddedWidth, int originalHeight, int originalWidth) {
-        double[][] padded = new double[paddedHeight][paddedWidth];
-        for (int y = 0; y < paddedHeight; y++) {
-            for (int x = 0; x < paddedWidth; x++) {
-                if (y < originalHeight && x < originalWidth) {
-                    padded[y][x] = channel[y][x];
-                } else {
-                    padded[y][x] = 128; // Padding with neutral value
-                }
+    // Channel-sequential header; only a scaled file carries the magic and version
+    static void writeHeader(DataOutputStream dos, int width, int height, double scale) throws IOException {
+        if (scale != BASE_QUALITY) {
+            dos.writeInt(FORMAT_MAGIC);
+            dos.writeInt(VERSION_SCALED);
+        }
+        dos.writeInt(width);
+        dos.writeInt(height);
+        dos.writeInt(PlanarImage.padToBlock(width));
+        dos.writeInt(PlanarImage.padToBlock(height));
+        dos.writeInt(PlanarImage.padToBlock((width + 1) / 2));
+        dos.writeInt(PlanarImage.padToBlock((height + 1) / 2));
+        dos.writeInt(QUALITY_LEVELS.length);
+        for (float level : QUALITY_LEVELS) {
+            dos.writeFloat(level);
+        }
+        if (scale != BASE_QUALITY) {
+            dos.writeFloat((float) scale);
+        }
+    }
+
+    /**
+     * Streaming mode: reads the source one 16-row MCU stripe at a time and writes that stripe's Y, Cb
+     * and Cr block rows to the Zstd stream as soon as they are encoded, so peak memory follows the
+     * image width rather than its area. Blocks are identical to compress(), only their order changes
+     * (stripe-interleaved, marked as VERSION_STRIPED in the header).
+     */
+    public static void compressStreaming(File input, OutputStream out) throws IOException {
+        try (StreamingSource source = StreamingSource.open(input, BAND_ROWS)) {
+            compressStreaming(source, source.width, source.height, out, CodecTrace.start("encode", "striped"));
+        }
+    }
+
+    public static void compressStreaming(BufferedImage image, OutputStream out) throws IOException {
+        compressStreaming(PlanarImage.RowReader.forImage(image), image.getWidth(), image.getHeight(), out,
+                CodecTrace.start("encode", "striped"));
+    }
+
+    // Stripe loading reads and converts the source together, so it counts as the colorConvert stage
+    private static void compressStreaming(PlanarImage.RowReader reader, int width, int height,
+                                          OutputStream out, CodecTrace trace) throws IOException {
+        if (trace != null) {
+            out = trace.countOut(out);
+        }
+        OutputStream zos = openZstd(out);
+        if (trace != null) {
+            zos = trace.timeZstd(zos);
+        }
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zos));
+        // Write header
+        dos.writeInt(FORMAT_MAGIC);
+        dos.writeInt(VERSION_STRIPED);
+        dos.writeInt(width);
+        dos.writeInt(height);
+        dos.writeInt(PlanarImage.padToBlock(width));
+        dos.writeInt(PlanarImage.padToBlock(height));
+        dos.writeInt(PlanarImage.padToBlock((width + 1) / 2));
+        dos.writeInt(PlanarImage.padToBlock((height + 1) / 2));
+        dos.writeInt(QUALITY_LEVELS.length);
+        for (float level : QUALITY_LEVELS) {
+            dos.writeFloat(level);
+        }
+
+        // One stripe of planes, reloaded for every MCU row
+        PlanarImage stripe = new PlanarImage(width, Math.min(MCU_SIZE, height), FLOAT_PLANES);
+        BlockScratch scratch = SCRATCH.get();
+        long zstdMark = trace == null ? 0 : trace.nanos(CodecTrace.Stage.ZSTD);
+        for (int y = 0; y < height; y += MCU_SIZE) {
+            int rows = Math.min(MCU_SIZE, height - y);
+            long start = trace == null ? 0 : System.nanoTime();
+            stripe.load(reader, y, rows);
+            if (trace != null) {
+                trace.add(CodecTrace.Stage.COLOR_CONVERT, System.nanoTime() - start);
             }
+            for (int blockY = 0; blockY < PlanarImage.padToBlock(rows); blockY += BLOCK_SIZE) {
+                processBlockRow(stripe.y, blockY, LUMINANCE_DIVISORS, false, scratch, dos, trace);
+            }
+            processBlockRow(stripe.cb, 0, CHROMINANCE_DIVISORS, false, scratch, dos, trace);
+            processBlockRow(stripe.cr, 0, CHROMINANCE_DIVISORS, false, scratch, dos, trace);
+        }
+        if (trace != null) {
+            trace.exclude(CodecTrace.Stage.PACK, CodecTrace.Stage.ZSTD, zstdMark);
+        }
+        dos.flush();
+        zos.close();
+        if (trace != null) {
+            trace.finish(width, height);
         }
-        return padded;
     }
 
-    private static void processChannel(double[][] channel, int height, int width,
-                                       int[][] quantMatrix, DataOutputStream dos)
-                                        throws IOException {
-        DoubleDCT_2D dct = new DoubleDCT_2D(BLOCK_SIZE, BLOCK_SIZE);
-        for (int y = 0; y < height; y += BLOCK_SIZE) {
-            for (int x = 0; x < width; x += BLOCK_SIZE) {
-                double[][] block = new double[BLOCK_SIZE][BLOCK_SIZE];
-                for (int i = 0; i < BLOCK_SIZE; i++) {
-                    for (int j = 0; j < BLOCK_SIZE; j++) {
-                        block[i][j] = channel[y + i][x + j] - 128;
-                    }
+    private static void processChannel(PlanarImage.Plane channel, double[] divisors, boolean escaped,
+                                       DataOutputStream dos, CodecTrace trace) throws IOException {
+        BlockScratch scratch = SCRATCH.get();
+        for (int y = 0; y < channel.height; y += BLOCK_SIZE) {
+            processBlockRow(channel, y, divisors, escaped, scratch, dos, trace);
+        }
+    }
+
+    private static List<ForkJoinTask<byte[]>> submitChannel(ForkJoinPool pool, PlanarImage.Plane channel,
+                                                            double[] divisors, boolean escaped, CodecTrace trace) {
+        List<ForkJoinTask<byte[]>> rows = new ArrayList<>(channel.height / BLOCK_SIZE);
+        for (int y = 0; y < channel.height; y += BLOCK_SIZE) {
+            int rowY = y;
+            rows.add(pool.submit(() -> {
+                ByteArrayOutputStream stripe = new ByteArrayOutputStream(channel.width * 2);
+                processBlockRow(channel, rowY, divisors, escaped, SCRATCH.get(), new DataOutputStream(stripe), trace);
+                return stripe.toByteArray();
+            }));
+        }
+        return rows;
+    }
+
+    private static void writeRows(List<ForkJoinTask<byte[]>> rows, DataOutputStream dos) throws IOException {
+        for (ForkJoinTask<byte[]> row : rows) {
+            dos.write(join(row));
+        }
+    }
+
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding blocks");
+        } catch (ExecutionException e) {
+            throw new IOException("Block encoding failed", e.getCause());
+        }
+    }
+
+    /**
+     * Segmented layout (format version 4): the image is cut into segments of segmentMcuRows MCU rows and
+     * each segment's Y, Cb and Cr block rows are compressed as their own Zstd frame. The header is not
+     * compressed and ends with a table of segment offsets, so a decoder can inflate segments in parallel
+     * or only the ones covering a region of interest.
+     */
+    public static void compressSegmented(PlanarImage planes, OutputStream out, int segmentMcuRows, int threads)
+            throws IOException {
+        CodecTrace trace = CodecTrace.start("encode", "segmented");
+        if (trace != null) {
+            out = trace.countOut(out);
+        }
+        int segmentRows = segmentMcuRows * MCU_SIZE;
+        int segmentCount = (planes.height + segmentRows - 1) / segmentRows;
+        byte[][] segments = new byte[segmentCount][];
+        if (threads <= 1) {
+            for (int segment = 0; segment < segmentCount; segment++) {
+                segments[segment] = encodeSegment(planes, segment, segmentRows, trace);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(segmentCount);
+                for (int segment = 0; segment < segmentCount; segment++) {
+                    int index = segment;
+                    tasks.add(pool.submit(() -> encodeSegment(planes, index, segmentRows, trace)));
                 }
-                dct.forward(block, true);
-                double[] zigZag = new double[BLOCK_SIZE * BLOCK_SIZE];
-                for (int i = 0; i < ZIGZAG_ORDER.length; i++) {
-                    int row = ZIGZAG_ORDER[i] / BLOCK_SIZE;
-                    int col = ZIGZAG_ORDER[i] % BLOCK_SIZE;
-                    double q = quantMatrix[row][col] * BASE_QUALITY;
-                    zigZag[i] = Math.round(block[row][col] / q);
+                for (int segment = 0; segment < segmentCount; segment++) {
+                    segments[segment] = join(tasks.get(segment));
                 }
-                packIndices(zigZag, QUALITY_LEVELS, dos);
+            } finally {
+                pool.shutdown();
             }
         }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new NonClosingOutputStream(out)));
+        // Write header
+        dos.writeInt(FORMAT_MAGIC);
+        dos.writeInt(VERSION_SEGMENTED);
+        dos.writeInt(planes.width);
+        dos.writeInt(planes.height);
+        dos.writeInt(QUALITY_LEVELS.length);
+        for (float level : QUALITY_LEVELS) {
+            dos.writeFloat(level);
+        }
+        dos.writeInt(segmentMcuRows);
+        dos.writeInt(segmentCount);
+        // Offsets from the end of the table; segment i spans [offset i, offset i + 1)
+        int offset = 0;
+        dos.writeInt(offset);
+        for (byte[] segment : segments) {
+            offset += segment.length;
+            dos.writeInt(offset);
+        }
+        for (byte[] segment : segments) {
+            dos.write(segment);
+        }
+        dos.flush();
+        if (trace != null) {
+            trace.finish(planes.width, planes.height);
+        }
     }
 
-    private static void packIndices(double[] zigZag,
+    // Block rows of one segment: its Y rows, then its Cb rows, then its Cr rows, as one Zstd frame
+    private static byte[] encodeSegment(PlanarImage planes, int segment, int segmentRows, CodecTrace trace)
+            throws IOException {
+        int top = segment * segmentRows;
+        int rows = Math.min(segmentRows, planes.height - top);
+        int chromaRows = PlanarImage.padToBlock((rows + 1) / 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(planes.width * rows / 4);
+        DataOutputStream dos = new DataOutputStream(bytes);
+        BlockScratch scratch = SCRATCH.get();
+        for (int y = top; y < top + PlanarImage.padToBlock(rows); y += BLOCK_SIZE) {
+            processBlockRow(planes.y, y, LUMINANCE_DIVISORS, false, scratch, dos, trace);
+        }
+        for (int y = top / 2; y < top / 2 + chromaRows; y += BLOCK_SIZE) {
+            processBlockRow(planes.cb, y, CHROMINANCE_DIVISORS, false, scratch, dos, trace);
+        }
+        for (int y = top / 2; y < top / 2 + chromaRows; y += BLOCK_SIZE) {
+            processBlockRow(planes.cr, y, CHROMINANCE_DIVISORS, false, scratch, dos, trace);
+        }
+        if (trace == null) {
+            return Zstd.compress(bytes.toByteArray(), ZSTD_LEVEL);
+        }
+        long start = System.nanoTime();
+        byte[] compressed = Zstd.compress(bytes.toByteArray(), ZSTD_LEVEL);
+        trace.add(CodecTrace.Stage.ZSTD, System.nanoTime() - start);
+        return compressed;
+    }
+
+    // escaped selects the version 6 escape rule (see packIndices); every other layout keeps the original one
+    // Traced rows time every block and report once at the end of the row; untraced rows take the plain loop
+    private static void processBlockRow(PlanarImage.Plane channel, int y, double[] divisors, boolean escaped,
+                                        BlockScratch scratch, DataOutputStream dos, CodecTrace trace)
+                                        throws IOException {
+        if (trace == null) {
+            for (int x = 0; x < channel.width; x += BLOCK_SIZE) {
+                quantizeBlock(channel, x, y, divisors, scratch);
+                packIndices(scratch.zigZag, QUALITY_LEVELS, escaped, dos);
+            }
+            return;
+        }
+        long dctNanos = 0;
+        long packNanos = 0;
+        int zero = 0;
+        int escapes = 0;
+        long time = System.nanoTime();
+        for (int x = 0; x < channel.width; x += BLOCK_SIZE) {
+            quantizeBlock(channel, x, y, divisors, scratch);
+            long quantized = System.nanoTime();
+            int written = dos.size();
+            escapes += packIndices(scratch.zigZag, QUALITY_LEVELS, escaped, dos);
+            if (dos.size() - written == 1) {
+                zero++;
+            }
+            dctNanos += quantized - time;
+            time = System.nanoTime();
+            packNanos += time - quantized;
+        }
+        trace.add(CodecTrace.Stage.DCT, dctNanos);
+        trace.add(CodecTrace.Stage.PACK, packNanos);
+        trace.blocks(channel.width / BLOCK_SIZE, zero, escapes);
+    }
+
+    /** Transforms, quantizes and packs the block at (x, y) of channel as the base-quality layouts write it. */
+    static void encodeBlock(PlanarImage.Plane channel, int x, int y, double[] divisors, DataOutputStream dos)
+            throws IOException {
+        BlockScratch scratch = SCRATCH.get();
+        quantizeBlock(channel, x, y, divisors, scratch);
+        packIndices(scratch.zigZag, QUALITY_LEVELS, false, dos);
+    }
+
+    /**
+     * Transforms and quantizes every block of a channel, in raster order, and returns the zigzag
+     * coefficients 64 per block. Used by the formats that reorder coefficients across blocks.
+     */
+    static int[] quantizeChannel(PlanarImage.Plane channel, double[] divisors) {
+        int blocksWide = channel.width / BLOCK_SIZE;
+        int[] coefficients = new int[blocksWide * (channel.height / BLOCK_SIZE) * BLOCK_SIZE * BLOCK_SIZE];
+        BlockScratch scratch = SCRATCH.get();
+        for (int y = 0; y < channel.height; y += BLOCK_SIZE) {
+            for (int x = 0; x < channel.width; x += BLOCK_SIZE) {
+                quantizeBlock(channel, x, y, divisors, scratch);
+                int block = (y / BLOCK_SIZE) * blocksWide + x / BLOCK_SIZE;
+                System.arraycopy(scratch.zigZag, 0, coefficients, block * BLOCK_SIZE * BLOCK_SIZE, BLOCK_SIZE * BLOCK_SIZE);
+            }
+        }
+        return coefficients;
+    }
+
+    // Forward DCT and quantization of one block; the zigzag result is left in scratch.zigZag
+    private static void quantizeBlock(PlanarImage.Plane channel, int x, int y, double[] divisors,
+                                      BlockScratch scratch) {
+        double[] block = scratch.block;
+        int[] zigZag = scratch.zigZag;
+        channel.loadBlock(x, y, block);
+        scratch.dct.forward(block);
+        for (int i = 0; i < ZIGZAG_ORDER.length; i++) {
+            zigZag[i] = (int) Math.round(block[ZIGZAG_ORDER[i]] / divisors[ZIGZAG_ORDER[i]]);
+        }
+    }
+
+    /** Per-thread block buffers, so the block loop itself allocates nothing. */
+    private static final class BlockScratch {
+        final double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+        final int[] zigZag = new int[BLOCK_SIZE * BLOCK_SIZE];
+        final BlockDct dct = new BlockDct();
+    }
+
+    /**
+     * Writes a block as its length up to the last non-zero coefficient, then one signed byte per coefficient.
+     * Escaped (version 6) blocks write -128 as the escape followed by the int, as the progressive layout
+     * does. Otherwise the original rule is kept for compatibility: the escape byte is the same -128 that
+     * stands for the value -128, so the decoder cannot tell them apart and reads out-of-range values wrongly.
+     * Returns the number of coefficients written as an escape and int.
+     */
+    static int packIndices(int[] zigZag,
                                     float[] qualityLevels,
+                                    boolean escaped,
                                     DataOutputStream dos) throws IOException {
         int lastNonZero = -1;
         for (int i = zigZag.length - 1; i >= 0; i--) {
@@ -215,17 +631,186 @@ public class GameByteCompressor {
         }
         if (lastNonZero == -1) {
             dos.writeByte(0);
-            return;
+            return 0;
         }
         dos.writeByte(lastNonZero + 1);
+        int escapes = 0;
         for (int i = 0; i <= lastNonZero; i++) {
-            int value = (int) zigZag[i];
-            if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            int value = zigZag[i];
+            if (escaped && (value <= Byte.MIN_VALUE || value > Byte.MAX_VALUE)) {
+                dos.writeByte(Byte.MIN_VALUE);
+                dos.writeInt(value);
+                escapes++;
+            } else if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
                 dos.writeByte(Byte.MAX_VALUE + 1);
                 dos.writeInt(value);
+                escapes++;
             } else {
                 dos.writeByte(value);
             }
         }
+        return escapes;
+    }
+
+    /** A source image read incrementally, top to bottom. */
+    private abstract static class StreamingSource extends PlanarImage.RowReader implements Closeable {
+        final int width;
+        final int height;
+
+        StreamingSource(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        static StreamingSource open(File file, int bandRows) throws IOException {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".ppm") || name.endsWith(".pnm")) {
+                return PpmSource.open(file);
+            }
+            return BandSource.open(file, bandRows);
+        }
+    }
+
+    /**
+     * Decodes the source a band of rows at a time through ImageReader source regions, so only one band
+     * is ever held in memory. The JDK's JPEG and PNG readers rescan the file from the top for each
+     * region, so bigger bands trade memory for fewer rescans.
+     */
+    private static final class BandSource extends StreamingSource {
+        private final ImageInputStream stream;
+        private final ImageReader reader;
+        private final int bandRows;
+        private PlanarImage.RowReader band;
+        private int bandStart;
+        private int bandEnd;
+
+        private BandSource(ImageInputStream stream, ImageReader reader, int bandRows) throws IOException {
+            super(reader.getWidth(0), reader.getHeight(0));
+            this.stream = stream;
+            this.reader = reader;
+            this.bandRows = bandRows;
+        }
+
+        static BandSource open(File file, int bandRows) throws IOException {
+            ImageInputStream stream = ImageIO.createImageInputStream(file);
+            if (stream == null) {
+                throw new FileNotFoundException(file.getPath());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                stream.close();
+                throw new IOException("Failed to read image: " + file);
+            }
+            ImageReader reader = readers.next();
+            reader.setInput(stream, false, true);
+            return new BandSource(stream, reader, bandRows);
+        }
+
+        @Override
+        void read(int y, int[] rgbRow) throws IOException {
+            if (band == null || y < bandStart || y >= bandEnd) {
+                int rows = Math.min(bandRows, height - y);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, y, width, rows));
+                band = PlanarImage.RowReader.forImage(reader.read(0, param));
+                bandStart = y;
+                bandEnd = y + rows;
+            }
+            band.read(y - bandStart, rgbRow);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.dispose();
+            stream.close();
+        }
+    }
+
+    /** Binary PPM (P6, 8-bit) source, read row by row straight off the file. */
+    private static final class PpmSource extends StreamingSource {
+        private final DataInputStream in;
+        private final byte[] row;
+
+        private PpmSource(DataInputStream in, int width, int height) {
+            super(width, height);
+            this.in = in;
+            this.row = new byte[width * 3];
+        }
+
+        static PpmSource open(File file) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readUnsignedByte() != 'P' || in.readUnsignedByte() != '6') {
+                    throw new IOException("Not a binary PPM: " + file);
+                }
+                int width = readHeaderInt(in);
+                int height = readHeaderInt(in);
+                if (readHeaderInt(in) != 255) {
+                    throw new IOException("Only 8-bit PPM is supported: " + file);
+                }
+                return new PpmSource(in, width, height);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        // Reads a decimal header field, skipping whitespace and comments, and consumes one trailing whitespace
+        private static int readHeaderInt(DataInputStream in) throws IOException {
+            int c = in.readUnsignedByte();
+            while (Character.isWhitespace(c) || c == '#') {
+                if (c == '#') {
+                    while (c != '\n') {
+                        c = in.readUnsignedByte();
+                    }
+                }
+                c = in.readUnsignedByte();
+            }
+            int value = 0;
+            while (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                c = in.readUnsignedByte();
+            }
+            return value;
+        }
+
+        @Override
+        void read(int y, int[] rgbRow) throws IOException {
+            in.readFully(row);
+            for (int x = 0, i = 0; x < rgbRow.length; x++, i += 3) {
+                rgbRow[x] = ((row[i] & 0xFF) << 16) | ((row[i + 1] & 0xFF) << 8) | (row[i + 2] & 0xFF);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Cumulative heap allocation of all threads, including the encoder's pool workers
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getTotalThreadAllocatedBytes();
+    }
+
+    /** A Zstd stream at ZSTD_LEVEL and ZSTD_WORKERS whose close finishes the frame but leaves out open. */
+    static ZstdOutputStream openZstd(OutputStream out) throws IOException {
+        return new ZstdOutputStream(new NonClosingOutputStream(out), ZSTD_LEVEL).setWorkers(ZSTD_WORKERS);
+    }
+
+    static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
\ No newline at end of file
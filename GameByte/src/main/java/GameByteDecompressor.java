@@ -1,12 +1,42 @@
+import com.github.luben.zstd.Zstd;
 import com.github.luben.zstd.ZstdInputStream;
 import javax.imageio.ImageIO;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
-import org.jtransforms.dct.DoubleDCT_2D;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class GameByteDecompressor {
 
     private static final int BLOCK_SIZE = 8;
+    private static final int MCU_SIZE = 16;
+    private static final int FORMAT_MAGIC = 0x47425954; // "GBYT"
+    private static final int VERSION_STRIPED = 2;
+    private static final int VERSION_PROGRESSIVE = 3;
+    private static final int VERSION_SEGMENTED = 4;
+    private static final int VERSION_HUFFMAN = 5;
+    private static final int VERSION_SCALED = 6;
+    private static final int VERSION_DICTIONARY = 7;
+    private static final int VERSION_PALETTE = 8;
+    private static final int VERSION_INTER = 9;
+    private static final int VERSION_ADAPTIVE = 10;
+    // -Dgamebyte.precision=float keeps the planes as float[] to halve their memory
+    // Worker threads for segmented files, overridable with -Dgamebyte.threads
+    private static final int DEFAULT_THREADS = Integer.getInteger("gamebyte.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final boolean FLOAT_PLANES = "float".equals(System.getProperty("gamebyte.precision"));
     private static final int[][] LUMINANCE_QUANT_MATRIX = {
             {16, 11, 10, 16, 24, 40, 51, 61},
             {12, 12, 14, 19, 26, 58, 60, 55},
@@ -27,6 +57,9 @@ public class GameByteDecompressor {
             {99, 99, 99, 99, 99, 99, 99, 99},
             {99, 99, 99, 99, 99, 99, 99, 99}
     };
+    // Quantizer steps with the inverse transform's input scaling folded in, row-major
+    private static final double[] LUMINANCE_MULTIPLIERS = BlockDct.dequantMultipliers(LUMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
+    private static final double[] CHROMINANCE_MULTIPLIERS = BlockDct.dequantMultipliers(CHROMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
     private static final int[] ZIGZAG_ORDER = {
             0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
             12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
@@ -37,52 +70,50 @@ public class GameByteDecompressor {
     public static void main(String[] args) {
         String inputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed\\10.byt";
         String outputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Uncompressed\\10.jpg";
+        // --stream decodes stripe by stripe into a binary PPM instead of building a whole image,
+        // --region x,y,w,h decodes only that part of the image,
+        // --raw rgba|rgb dumps the bare pixel bytes straight from a direct buffer
+        boolean streaming = args.length > 0 && args[0].equals("--stream");
+        Rectangle region = null;
+        PixelFormat rawFormat = null;
+        if (streaming) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        } else if (args.length > 1 && args[0].equals("--raw")) {
+            rawFormat = args[1].equalsIgnoreCase("rgb") ? PixelFormat.RGB8 : PixelFormat.RGBA8;
+            args = Arrays.copyOfRange(args, 2, args.length);
+        } else if (args.length > 1 && args[0].equals("--region")) {
+            String[] parts = args[1].split(",");
+            region = new Rectangle(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length >= 2) {
+            inputFile = args[0];
+            outputFile = args[1];
+        }
 
         long startTime = System.nanoTime();
-        try (ZstdInputStream zis = new ZstdInputStream(new FileInputStream(inputFile));
-             DataInputStream dis = new DataInputStream(zis)) {
-            // Read header
-            int originalWidth = dis.readInt();
-            int originalHeight = dis.readInt();
-            int paddedWidthY = dis.readInt();
-            int paddedHeightY = dis.readInt();
-            int paddedWidthChroma = dis.readInt();
-            int paddedHeightChroma = dis.readInt();
-            int numQualityLevels = dis.readInt();
-            float[] qualityLevels = new float[numQualityLevels];
-            for (int i = 0; i < numQualityLevels; i++) {
-                qualityLevels[i] = dis.readFloat();
-            }
-
-            // Process channels
-            double[][] paddedY = processChannel(dis, paddedHeightY, paddedWidthY, LUMINANCE_QUANT_MATRIX, qualityLevels);
-            double[][] paddedCb = processChannel(dis, paddedHeightChroma, paddedWidthChroma, CHROMINANCE_QUANT_MATRIX, qualityLevels);
-            double[][] paddedCr = processChannel(dis, paddedHeightChroma, paddedWidthChroma, CHROMINANCE_QUANT_MATRIX, qualityLevels);
-
-            // Upsample Cb and Cr
-            double[][] fullCb = upsample(paddedCb, paddedHeightY, paddedWidthY);
-            double[][] fullCr = upsample(paddedCr, paddedHeightY, paddedWidthY);
-
-            // Convert to RGB and create image
-            BufferedImage image = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
-            for (int y = 0; y < originalHeight; y++) {
-                for (int x = 0; x < originalWidth; x++) {
-                    double yVal = paddedY[y][x];
-                    double cbVal = fullCb[y][x];
-                    double crVal = fullCr[y][x];
-                    int r = (int) Math.round(yVal + 1.402 * (crVal - 128));
-                    int g = (int) Math.round(yVal - 0.34414 * (cbVal - 128) - 0.71414 * (crVal - 128));
-                    int b = (int) Math.round(yVal + 1.772 * (cbVal - 128));
-                    r = Math.max(0, Math.min(255, r));
-                    g = Math.max(0, Math.min(255, g));
-                    b = Math.max(0, Math.min(255, b));
-                    int rgb = (r << 16) | (g << 8) | b;
-                    image.setRGB(x, y, rgb);
+        long allocatedBefore = allocatedBytes();
+        try (InputStream in = new FileInputStream(inputFile)) {
+            if (streaming) {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                    decompressStreaming(in, new PpmSink(out));
                 }
-            }
+            } else if (rawFormat != null) {
+                try (DecodedPixels pixels = decompress(in, rawFormat, new DirectBufferPool(0));
+                     FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    while (pixels.pixels.hasRemaining()) {
+                        channel.write(pixels.pixels);
+                    }
+                    System.out.println("Raw " + rawFormat + " pixels, " + pixels.width + "x" + pixels.height);
+                }
+            } else {
+                BufferedImage image = region != null ? decompressRegion(in, region) : decompress(in);
 
-            // Write JPEG image
-            ImageIO.write(image, "jpg", new File(outputFile));
+                // Write JPEG image
+                ImageIO.write(image, "jpg", new File(outputFile));
+            }
             System.out.println("Decompression complete and saved as: " + outputFile);
 
             //Time
@@ -90,6 +121,8 @@ public class GameByteDecompressor {
             double timeTakenMs = (endTime - startTime) / 1_000_000.0;
             double timeTakenS = (endTime - startTime) / 1_000_000_000.0;
             System.out.println("\nTime taken: " + String.format("%.2f", timeTakenMs) + " Ms/" + String.format("%.2f", timeTakenS) + " S");
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.out.printf("Heap allocated: %.2f MB%n", allocated / (1024.0 * 1024.0));
 
             //Size
             File compressedFile = new File(inputFile);
@@ -107,71 +140,769 @@ public class GameByteDecompressor {
             double fileSizeDifferenceKB = fileSizeKB - fileSizeKb1;
 
             System.out.println("\nDifference in file size: " + fileSizeDifferenceBytes + " bytes (" + String.format("%.2f", fileSizeDifferenceKB) + " KB)");
+            CodecTrace.printReport();
         } catch (IOException e) {
             System.err.println("Error during decompression: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private static double[][] processChannel(DataInputStream dis, int height, int width, int[][] quantMatrix, float[] qualityLevels) throws IOException {
-        double[][] channel = new double[height][width];
-        DoubleDCT_2D dct = new DoubleDCT_2D(BLOCK_SIZE, BLOCK_SIZE);
-        for (int y = 0; y < height; y += BLOCK_SIZE) {
-            for (int x = 0; x < width; x += BLOCK_SIZE) {
-                double[] zigZag = unpackIndices(dis, qualityLevels);
-                double[][] block = inverseZigZagScan(zigZag, quantMatrix);
-                dct.inverse(block, true);
-                for (int i = 0; i < BLOCK_SIZE; i++) {
-                    for (int j = 0; j < BLOCK_SIZE; j++) {
-                        channel[y + i][x + j] = block[i][j] + 128;
+    /**
+     * Decodes a .byt stream into an image. The blocks are inverse transformed into flat planes
+     * with reused scratch buffers and converted to RGB straight into the image's raster.
+     * Stripe-interleaved files are decoded one MCU stripe at a time, so only the output image is held.
+     * Segmented files are decoded one segment per task across DEFAULT_THREADS threads.
+     */
+    public static BufferedImage decompress(InputStream in) throws IOException {
+        CodecTrace trace = CodecTrace.start("decode", "channels");
+        if (trace == null) {
+            return decompress(buffer(in), null);
+        }
+        BufferedImage image = decompress(buffer(trace.countIn(in)), trace);
+        trace.finish(image.getWidth(), image.getHeight());
+        return image;
+    }
+
+    private static BufferedImage decompress(InputStream buffered, CodecTrace trace) throws IOException {
+        int rawVersion = rawVersion(buffered);
+        if (trace != null) {
+            trace.layout(layoutName(rawVersion));
+        }
+        if (rawVersion == VERSION_SEGMENTED) {
+            return decodeSegmented(new DataInputStream(buffered), null, DEFAULT_THREADS, trace);
+        }
+        if (rawVersion == VERSION_HUFFMAN) {
+            DataInputStream dis = new DataInputStream(buffered);
+            dis.readInt();
+            dis.readInt();
+            return GameByteHuffman.decode(dis);
+        }
+        if (rawVersion == VERSION_PALETTE) {
+            DataInputStream dis = new DataInputStream(buffered);
+            dis.readInt();
+            dis.readInt();
+            return GameByteVer1.decode(dis, DEFAULT_THREADS);
+        }
+        if (rawVersion == VERSION_INTER) {
+            // Only a key frame stands on its own; GameByteInter.Decoder follows a whole sequence
+            DataInputStream dis = new DataInputStream(buffered);
+            dis.readInt();
+            dis.readInt();
+            return new GameByteInter.Decoder().decode(dis);
+        }
+        if (rawVersion == VERSION_ADAPTIVE) {
+            DataInputStream dis = new DataInputStream(buffered);
+            dis.readInt();
+            dis.readInt();
+            return GameByteAdaptive.decode(dis);
+        }
+        if (rawVersion == VERSION_DICTIONARY) {
+            return decode(new DataInputStream(new ByteArrayInputStream(readDictionaryFrame(buffered, trace))), trace);
+        }
+        try (InputStream zis = inflate(buffered)) {
+            return decode(new DataInputStream(new BufferedInputStream(trace == null ? zis : trace.timeZstd(zis))), trace);
+        }
+    }
+
+    // Decodes an uncompressed .byt stream: what the Zstd frame of every Zstd-based layout holds
+    private static BufferedImage decode(DataInputStream dis, CodecTrace trace) throws IOException {
+        Header header = Header.read(dis);
+        if (trace != null && header.version != 0) {
+            trace.layout(layoutName(header.version));
+        }
+        if (header.version == VERSION_STRIPED) {
+            BufferedImage image = new BufferedImage(header.width, header.height, BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            decodeStripes(dis, header, (y, rows, rgb) ->
+                    System.arraycopy(rgb, 0, pixels, y * header.width, rows * header.width), trace);
+            return image;
+        }
+        if (header.version == VERSION_PROGRESSIVE) {
+            return GameByteProgressive.decode(dis, header, Integer.MAX_VALUE, 0);
+        }
+        // Upsample Cb and Cr and convert to RGB
+        PlanarImage planes = decodeChannels(dis, header, trace);
+        if (trace == null) {
+            return planes.toImage();
+        }
+        long start = System.nanoTime();
+        BufferedImage image = planes.toImage();
+        trace.add(CodecTrace.Stage.COLOR_CONVERT, System.nanoTime() - start);
+        return image;
+    }
+
+    private static byte[] readDictionaryFrame(InputStream buffered, CodecTrace trace) throws IOException {
+        long start = trace == null ? 0 : System.nanoTime();
+        byte[] stream = GameByteDictionary.readFrame(new DataInputStream(buffered));
+        if (trace != null) {
+            trace.add(CodecTrace.Stage.ZSTD, System.nanoTime() - start);
+        }
+        return stream;
+    }
+
+    // The layout names the metrics and JFR events report, by format version (0 for the headerless original)
+    private static String layoutName(int version) {
+        return switch (version) {
+            case VERSION_STRIPED -> "striped";
+            case VERSION_PROGRESSIVE -> "progressive";
+            case VERSION_SEGMENTED -> "segmented";
+            case VERSION_HUFFMAN -> "huffman";
+            case VERSION_SCALED -> "scaled";
+            case VERSION_DICTIONARY -> "dictionary";
+            case VERSION_PALETTE -> "palette";
+            case VERSION_INTER -> "inter";
+            case VERSION_ADAPTIVE -> "adaptive";
+            default -> "channels";
+        };
+    }
+
+    /** Receives decoded rows top to bottom as packed 0xRRGGBB pixels, width pixels per row. */
+    public interface StripeSink {
+        default void start(int width, int height) throws IOException {
+        }
+
+        void stripe(int y, int rows, int[] rgb) throws IOException;
+    }
+
+    /**
+     * Streaming decode: hands the image to sink one 16-row stripe (or one segment) at a time. For
+     * stripe-interleaved and segmented files peak memory follows the image width; channel-sequential, progressive, Huffman-coded, palette, inter-frame and adaptive files need every channel
+     * before the first row can be produced, so they are decoded whole and delivered as a single stripe.
+     */
+    public static void decompressStreaming(InputStream in, StripeSink sink) throws IOException {
+        CodecTrace trace = CodecTrace.start("decode", "channels");
+        if (trace == null) {
+            decompressStreaming(buffer(in), sink, null);
+            return;
+        }
+        int[] size = new int[2];
+        decompressStreaming(buffer(trace.countIn(in)), new StripeSink() {
+            @Override
+            public void start(int width, int height) throws IOException {
+                size[0] = width;
+                size[1] = height;
+                sink.start(width, height);
+            }
+
+            @Override
+            public void stripe(int y, int rows, int[] rgb) throws IOException {
+                sink.stripe(y, rows, rgb);
+            }
+        }, trace);
+        trace.finish(size[0], size[1]);
+    }
+
+    private static void decompressStreaming(InputStream buffered, StripeSink sink, CodecTrace trace)
+            throws IOException {
+        int rawVersion = rawVersion(buffered);
+        if (trace != null) {
+            trace.layout(layoutName(rawVersion));
+        }
+        if (rawVersion == VERSION_SEGMENTED) {
+            streamSegments(new DataInputStream(buffered), sink, trace);
+            return;
+        }
+        if (rawVersion == VERSION_HUFFMAN || rawVersion == VERSION_PALETTE || rawVersion == VERSION_INTER
+                || rawVersion == VERSION_ADAPTIVE) {
+            BufferedImage image = decompress(buffered, trace);
+            sink.start(image.getWidth(), image.getHeight());
+            sink.stripe(0, image.getHeight(), ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+            return;
+        }
+        if (rawVersion == VERSION_DICTIONARY) {
+            byte[] stream = readDictionaryFrame(buffered, trace);
+            decodeStreaming(new DataInputStream(new ByteArrayInputStream(stream)), sink, trace);
+            return;
+        }
+        try (InputStream zis = inflate(buffered)) {
+            decodeStreaming(new DataInputStream(new BufferedInputStream(trace == null ? zis : trace.timeZstd(zis))),
+                    sink, trace);
+        }
+    }
+
+    private static void decodeStreaming(DataInputStream dis, StripeSink sink, CodecTrace trace) throws IOException {
+        Header header = Header.read(dis);
+        if (trace != null && header.version != 0) {
+            trace.layout(layoutName(header.version));
+        }
+        sink.start(header.width, header.height);
+        if (header.version == VERSION_STRIPED) {
+            decodeStripes(dis, header, sink, trace);
+        } else if (header.version == VERSION_PROGRESSIVE) {
+            BufferedImage image = GameByteProgressive.decode(dis, header, Integer.MAX_VALUE, 0);
+            sink.stripe(0, header.height, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        } else {
+            int[] rgb = new int[header.width * header.height];
+            PlanarImage planes = decodeChannels(dis, header, trace);
+            long start = trace == null ? 0 : System.nanoTime();
+            planes.toRgb(header.height, rgb);
+            if (trace != null) {
+                trace.add(CodecTrace.Stage.COLOR_CONVERT, System.nanoTime() - start);
+            }
+            sink.stripe(0, header.height, rgb);
+        }
+    }
+
+    /**
+     * Decodes only the given region. For segmented files just the segments overlapping the region are
+     * read and inflated (in parallel); other layouts are decoded whole and cropped.
+     */
+    public static BufferedImage decompressRegion(InputStream in, Rectangle region) throws IOException {
+        CodecTrace trace = CodecTrace.start("decode", "segmented");
+        InputStream buffered = buffer(trace == null ? in : trace.countIn(in));
+        BufferedImage image;
+        if (rawVersion(buffered) == VERSION_SEGMENTED) {
+            image = decodeSegmented(new DataInputStream(buffered), region, DEFAULT_THREADS, trace);
+        } else {
+            BufferedImage whole = decompress(buffered, trace);
+            Rectangle area = clip(region, whole.getWidth(), whole.getHeight());
+            image = crop(whole, area.x, area.y, area.width, area.height);
+        }
+        if (trace != null) {
+            trace.finish(image.getWidth(), image.getHeight());
+        }
+        return image;
+    }
+
+    /** Byte layout of decoded pixels: R, G, B (then A = 255 for RGBA8) per pixel, rows top to bottom, no padding. */
+    public enum PixelFormat {
+        RGBA8(4), RGB8(3);
+
+        public final int bytesPerPixel;
+
+        PixelFormat(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    /**
+     * Decodes into target as tightly packed pixels, ready for a texture upload, starting at its position
+     * and advancing the position past them. Rows go straight from the decoder's stripes into the buffer,
+     * so for stripe-interleaved and segmented files no whole-image BufferedImage is ever built.
+     * Fails before decoding any pixels if target has fewer than width * height * bytesPerPixel bytes remaining.
+     */
+    public static void decompress(InputStream in, ByteBuffer target, PixelFormat format) throws IOException {
+        ByteBufferSink sink = new ByteBufferSink(format, target, null);
+        decompressStreaming(in, sink);
+        target.position(target.position() + sink.bytes);
+    }
+
+    /** As decompress(in, target, format), into a buffer from pool; closing the result hands the buffer back. */
+    public static DecodedPixels decompress(InputStream in, PixelFormat format, DirectBufferPool pool) throws IOException {
+        ByteBufferSink sink = new ByteBufferSink(format, null, pool);
+        try {
+            decompressStreaming(in, sink);
+        } catch (IOException | RuntimeException e) {
+            if (sink.buffer != null) {
+                pool.release(sink.buffer);
+            }
+            throw e;
+        }
+        return new DecodedPixels(sink.width, sink.height, format, sink.buffer, pool);
+    }
+
+    /** Pixels decoded into a pooled direct buffer; pixels holds exactly width * height * bytesPerPixel bytes. */
+    public static final class DecodedPixels implements AutoCloseable {
+        public final int width;
+        public final int height;
+        public final PixelFormat format;
+        public final ByteBuffer pixels;
+        private DirectBufferPool pool;
+
+        DecodedPixels(int width, int height, PixelFormat format, ByteBuffer pixels, DirectBufferPool pool) {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.pixels = pixels;
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.release(pixels);
+                pool = null;
+            }
+        }
+    }
+
+    // Segmented, Huffman-coded, dictionary-compressed, palette, inter-frame and adaptive files start with the raw magic and version;
+    // every other layout starts with a Zstd frame, reported as version 0
+    private static int rawVersion(InputStream in) throws IOException {
+        in.mark(2 * Integer.BYTES);
+        DataInputStream dis = new DataInputStream(in);
+        int version = dis.readInt() == FORMAT_MAGIC ? dis.readInt() : 0;
+        in.reset();
+        return version;
+    }
+
+    private static BufferedImage decodeSegmented(DataInputStream dis, Rectangle region, int threads, CodecTrace trace)
+            throws IOException {
+        SegmentTable table = SegmentTable.read(dis);
+        Rectangle area = region == null
+                ? new Rectangle(0, 0, table.width, table.height)
+                : clip(region, table.width, table.height);
+        int first = area.y / table.segmentRows;
+        int last = (area.y + area.height - 1) / table.segmentRows;
+
+        // Read just the segments covering the region
+        dis.skipNBytes(table.offsets[first]);
+        byte[][] segments = new byte[last - first + 1][];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new byte[table.offsets[first + i + 1] - table.offsets[first + i]];
+            dis.readFully(segments[i]);
+        }
+
+        int top = first * table.segmentRows;
+        int bottom = Math.min(table.height, (last + 1) * table.segmentRows);
+        BufferedImage band = new BufferedImage(table.width, bottom - top, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+        ThreadLocal<SegmentScratch> scratch = ThreadLocal.withInitial(() -> new SegmentScratch(table));
+        if (threads <= 1 || segments.length == 1) {
+            for (int i = 0; i < segments.length; i++) {
+                int segment = first + i;
+                decodeSegment(segments[i], table, segment, scratch.get(), pixels, (table.top(segment) - top) * table.width,
+                        trace);
+            }
+        } else {
+            // Segments cover disjoint rows, so every task writes straight into the shared raster
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < segments.length; i++) {
+                    int segment = first + i;
+                    byte[] compressed = segments[i];
+                    tasks.add(pool.submit(() -> {
+                        decodeSegment(compressed, table, segment, scratch.get(), pixels,
+                                (table.top(segment) - top) * table.width, trace);
+                        return null;
+                    }));
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    try {
+                        task.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while decoding segments");
+                    } catch (ExecutionException e) {
+                        throw new IOException("Segment decoding failed", e.getCause());
                     }
                 }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        if (area.x == 0 && area.width == table.width && area.y == top && area.height == band.getHeight()) {
+            return band;
+        }
+        return crop(band, area.x, area.y - top, area.width, area.height);
+    }
+
+    private static void streamSegments(DataInputStream dis, StripeSink sink, CodecTrace trace) throws IOException {
+        SegmentTable table = SegmentTable.read(dis);
+        sink.start(table.width, table.height);
+        SegmentScratch scratch = new SegmentScratch(table);
+        int[] rgb = new int[table.width * table.segmentRows];
+        for (int segment = 0; segment < table.offsets.length - 1; segment++) {
+            byte[] compressed = new byte[table.offsets[segment + 1] - table.offsets[segment]];
+            dis.readFully(compressed);
+            decodeSegment(compressed, table, segment, scratch, rgb, 0, trace);
+            sink.stripe(table.top(segment), table.rows(segment), rgb);
+        }
+    }
+
+    // Inflates one segment and converts its rows to RGB at pixels[offset]
+    private static void decodeSegment(byte[] compressed, SegmentTable table, int segment, SegmentScratch scratch,
+                                      int[] pixels, int offset, CodecTrace trace) throws IOException {
+        long size = Zstd.getFrameContentSize(compressed);
+        if (size < 0) {
+            throw new IOException("Corrupt .byt segment " + segment);
+        }
+        long start = trace == null ? 0 : System.nanoTime();
+        byte[] inflated = Zstd.decompress(compressed, (int) size);
+        if (trace != null) {
+            trace.add(CodecTrace.Stage.ZSTD, System.nanoTime() - start);
+        }
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(inflated));
+        int rows = table.rows(segment);
+        int chromaRows = PlanarImage.padToBlock((rows + 1) / 2);
+        PlanarImage stripe = scratch.stripe;
+        for (int y = 0; y < PlanarImage.padToBlock(rows); y += BLOCK_SIZE) {
+            processBlockRow(dis, stripe.y, y, LUMINANCE_MULTIPLIERS, table.qualityLevels, false, scratch.dct, scratch.block,
+                    trace);
+        }
+        for (int y = 0; y < chromaRows; y += BLOCK_SIZE) {
+            processBlockRow(dis, stripe.cb, y, CHROMINANCE_MULTIPLIERS, table.qualityLevels, false, scratch.dct, scratch.block,
+                    trace);
+        }
+        for (int y = 0; y < chromaRows; y += BLOCK_SIZE) {
+            processBlockRow(dis, stripe.cr, y, CHROMINANCE_MULTIPLIERS, table.qualityLevels, false, scratch.dct, scratch.block,
+                    trace);
+        }
+        start = trace == null ? 0 : System.nanoTime();
+        stripe.toRgb(rows, pixels, offset);
+        if (trace != null) {
+            trace.add(CodecTrace.Stage.COLOR_CONVERT, System.nanoTime() - start);
+        }
+    }
+
+    private static Rectangle clip(Rectangle region, int width, int height) {
+        Rectangle area = region.intersection(new Rectangle(0, 0, width, height));
+        if (area.isEmpty()) {
+            throw new IllegalArgumentException("Region " + region + " is outside the " + width + "x" + height + " image");
+        }
+        return area;
+    }
+
+    private static BufferedImage crop(BufferedImage image, int x, int y, int width, int height) {
+        BufferedImage cropped = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] target = ((DataBufferInt) cropped.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(source, (y + row) * image.getWidth() + x, target, row * width, width);
+        }
+        return cropped;
+    }
+
+    // A ByteBufferInputStream already supports mark/reset and is read straight from memory
+    private static InputStream buffer(InputStream in) {
+        return in instanceof ByteBufferInputStream ? in : new BufferedInputStream(in);
+    }
+
+    // A direct buffer (a mapped BytPack entry) is inflated in place; anything else goes through ZstdInputStream
+    private static InputStream inflate(InputStream in) throws IOException {
+        if (in instanceof ByteBufferInputStream source && source.isDirect()) {
+            return source.inflateZstd();
+        }
+        return openZstd(in);
+    }
+
+    // Closing the Zstd stream frees its native context but must leave the caller's stream open
+    static ZstdInputStream openZstd(InputStream in) throws IOException {
+        return new ZstdInputStream(new FilterInputStream(in) {
+            @Override
+            public void close() {
             }
+        });
+    }
+
+    private static PlanarImage decodeChannels(DataInputStream dis, Header header, CodecTrace trace) throws IOException {
+        PlanarImage planes = new PlanarImage(header.width, header.height, FLOAT_PLANES);
+
+        // Process channels
+        double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+        BlockDct dct = new BlockDct();
+        boolean escaped = header.version == VERSION_SCALED;
+        long zstdMark = trace == null ? 0 : trace.nanos(CodecTrace.Stage.ZSTD);
+        processChannel(dis, planes.y, header.lumaMultipliers, header.qualityLevels, escaped, dct, block, trace);
+        processChannel(dis, planes.cb, header.chromaMultipliers, header.qualityLevels, escaped, dct, block, trace);
+        processChannel(dis, planes.cr, header.chromaMultipliers, header.qualityLevels, escaped, dct, block, trace);
+        if (trace != null) {
+            trace.exclude(CodecTrace.Stage.PACK, CodecTrace.Stage.ZSTD, zstdMark);
         }
-        return channel;
+        return planes;
     }
 
-    private static double[] unpackIndices(DataInputStream dis, float[] qualityLevels) throws IOException {
+    private static void decodeStripes(DataInputStream dis, Header header, StripeSink sink, CodecTrace trace)
+            throws IOException {
+        // One stripe of planes and RGB rows, reused for every MCU row
+        PlanarImage stripe = new PlanarImage(header.width, Math.min(MCU_SIZE, header.height), FLOAT_PLANES);
+        int[] rgb = new int[header.width * MCU_SIZE];
+        double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+        BlockDct dct = new BlockDct();
+        long zstdMark = trace == null ? 0 : trace.nanos(CodecTrace.Stage.ZSTD);
+        for (int y = 0; y < header.height; y += MCU_SIZE) {
+            int rows = Math.min(MCU_SIZE, header.height - y);
+            for (int blockY = 0; blockY < PlanarImage.padToBlock(rows); blockY += BLOCK_SIZE) {
+                processBlockRow(dis, stripe.y, blockY, header.lumaMultipliers, header.qualityLevels, false, dct, block,
+                        trace);
+            }
+            processBlockRow(dis, stripe.cb, 0, header.chromaMultipliers, header.qualityLevels, false, dct, block, trace);
+            processBlockRow(dis, stripe.cr, 0, header.chromaMultipliers, header.qualityLevels, false, dct, block, trace);
+            long start = trace == null ? 0 : System.nanoTime();
+            stripe.toRgb(rows, rgb);
+            if (trace != null) {
+                trace.add(CodecTrace.Stage.COLOR_CONVERT, System.nanoTime() - start);
+            }
+            sink.stripe(y, rows, rgb);
+        }
+        if (trace != null) {
+            trace.exclude(CodecTrace.Stage.PACK, CodecTrace.Stage.ZSTD, zstdMark);
+        }
+    }
+
+    private static void processChannel(DataInputStream dis, PlanarImage.Plane channel, double[] multipliers,
+                                       float[] qualityLevels, boolean escaped, BlockDct dct, double[] block,
+                                       CodecTrace trace) throws IOException {
+        for (int y = 0; y < channel.height; y += BLOCK_SIZE) {
+            processBlockRow(dis, channel, y, multipliers, qualityLevels, escaped, dct, block, trace);
+        }
+    }
+
+    // Traced rows time every block and report once at the end of the row; untraced rows take the plain loop.
+    // Each block's length picks the inverse: DC-only blocks are filled straight into the plane
+    private static void processBlockRow(DataInputStream dis, PlanarImage.Plane channel, int y, double[] multipliers,
+                                        float[] qualityLevels, boolean escaped, BlockDct dct, double[] block,
+                                        CodecTrace trace) throws IOException {
+        if (trace == null) {
+            for (int x = 0; x < channel.width; x += BLOCK_SIZE) {
+                inverse(unpackIndices(dis, qualityLevels, multipliers, escaped, dct, block), channel, x, y, dct, block);
+            }
+            return;
+        }
+        long packNanos = 0;
+        long dctNanos = 0;
+        int zero = 0;
+        long time = System.nanoTime();
+        for (int x = 0; x < channel.width; x += BLOCK_SIZE) {
+            int length = unpackIndices(dis, qualityLevels, multipliers, escaped, dct, block);
+            if (length == 0) {
+                zero++;
+            }
+            long unpacked = System.nanoTime();
+            inverse(length, channel, x, y, dct, block);
+            packNanos += unpacked - time;
+            time = System.nanoTime();
+            dctNanos += time - unpacked;
+        }
+        trace.add(CodecTrace.Stage.PACK, packNanos);
+        trace.add(CodecTrace.Stage.DCT, dctNanos);
+        trace.blocks(channel.width / BLOCK_SIZE, zero, 0);
+    }
+
+    /** Inverse transforms a block unpackIndices returned length for and stores it at (x, y). */
+    static void inverse(int length, PlanarImage.Plane channel, int x, int y, BlockDct dct, double[] block) {
+        if (dct.flatAfterInverse(length)) {
+            channel.fillBlock(x, y, block[0]);
+            return;
+        }
+        dct.inverse(block, length);
+        channel.storeBlock(x, y, block);
+    }
+
+    /**
+     * Reads one block and writes its dequantized, transform-scaled coefficients into block in natural
+     * (row-major) order. Returns the block's length, 0 for an all-zero block. Only the part of block that
+     * dct.inverse(block, length) reads is cleared first, so pass the length on to inverse with the same dct.
+     */
+    static int unpackIndices(DataInputStream dis, float[] qualityLevels, double[] multipliers,
+                                      boolean escaped, BlockDct dct, double[] block) throws IOException {
         int length = dis.readByte();
-        if (length == 0) {
-            return new double[BLOCK_SIZE * BLOCK_SIZE];
+        if (length < 0 || length > ZIGZAG_ORDER.length) {
+            throw new IOException("Corrupt .byt block");
         }
-        double[] zigZag = new double[BLOCK_SIZE * BLOCK_SIZE];
+        dct.clear(block, length);
         for (int i = 0; i < length; i++) {
             int value = dis.readByte();
-            if (value == Byte.MAX_VALUE + 1) {
+            if (escaped ? value == Byte.MIN_VALUE : value == Byte.MAX_VALUE + 1) {
                 value = dis.readInt();
             }
-            zigZag[i] = value;
+            int pos = ZIGZAG_ORDER[i];
+            block[pos] = value * multipliers[pos];
+        }
+        return length;
+    }
+
+    /**
+     * The .byt header; files without the format magic are the original channel-sequential layout.
+     * Version 6 is that layout quantized with a scaled matrix, its scale following the quality levels.
+     */
+    static final class Header {
+        int version = 1;
+        int width;
+        int height;
+        float[] qualityLevels;
+        float scale = 1.0f;
+        double[] lumaMultipliers = LUMINANCE_MULTIPLIERS;
+        double[] chromaMultipliers = CHROMINANCE_MULTIPLIERS;
+
+        static Header read(DataInputStream dis) throws IOException {
+            Header header = new Header();
+            int first = dis.readInt();
+            if (first == FORMAT_MAGIC) {
+                header.version = dis.readInt();
+                if (header.version != VERSION_STRIPED && header.version != VERSION_PROGRESSIVE
+                        && header.version != VERSION_SCALED) {
+                    throw new IOException("Unsupported .byt version: " + header.version);
+                }
+                first = dis.readInt();
+            }
+            header.width = first;
+            header.height = dis.readInt();
+            int paddedWidthY = dis.readInt();
+            int paddedHeightY = dis.readInt();
+            int paddedWidthChroma = dis.readInt();
+            int paddedHeightChroma = dis.readInt();
+            if (paddedWidthY != PlanarImage.padToBlock(header.width)
+                    || paddedHeightY != PlanarImage.padToBlock(header.height)
+                    || paddedWidthChroma != PlanarImage.padToBlock((header.width + 1) / 2)
+                    || paddedHeightChroma != PlanarImage.padToBlock((header.height + 1) / 2)) {
+                throw new IOException("Corrupt .byt header: padded sizes do not match "
+                        + header.width + "x" + header.height);
+            }
+            int numQualityLevels = dis.readInt();
+            header.qualityLevels = new float[numQualityLevels];
+            for (int i = 0; i < numQualityLevels; i++) {
+                header.qualityLevels[i] = dis.readFloat();
+            }
+            if (header.version == VERSION_SCALED) {
+                header.scale = dis.readFloat();
+                if (!(header.scale > 0) || Float.isInfinite(header.scale)) {
+                    throw new IOException("Corrupt .byt header: quantizer scale " + header.scale);
+                }
+                header.lumaMultipliers = BlockDct.dequantMultipliers(LUMINANCE_QUANT_MATRIX, header.scale, BlockDct.REFERENCE);
+                header.chromaMultipliers = BlockDct.dequantMultipliers(CHROMINANCE_QUANT_MATRIX, header.scale, BlockDct.REFERENCE);
+            }
+            return header;
         }
-        return zigZag;
     }
 
-    private static double[][] inverseZigZagScan(double[] zigZag, int[][] quantMatrix) {
-        double[][] block = new double[BLOCK_SIZE][BLOCK_SIZE];
-        for (int i = 0; i < ZIGZAG_ORDER.length; i++) {
-            int row = ZIGZAG_ORDER[i] / BLOCK_SIZE;
-            int col = ZIGZAG_ORDER[i] % BLOCK_SIZE;
-            block[row][col] = zigZag[i] * quantMatrix[row][col];
+    /** Uncompressed header of a segmented (version 4) file, ending with the segment offset table. */
+    private static final class SegmentTable {
+        int width;
+        int height;
+        float[] qualityLevels;
+        int segmentRows;
+        int[] offsets;
+
+        static SegmentTable read(DataInputStream dis) throws IOException {
+            if (dis.readInt() != FORMAT_MAGIC || dis.readInt() != VERSION_SEGMENTED) {
+                throw new IOException("Not a segmented .byt file");
+            }
+            SegmentTable table = new SegmentTable();
+            table.width = dis.readInt();
+            table.height = dis.readInt();
+            int numQualityLevels = dis.readInt();
+            table.qualityLevels = new float[numQualityLevels];
+            for (int i = 0; i < numQualityLevels; i++) {
+                table.qualityLevels[i] = dis.readFloat();
+            }
+            table.segmentRows = dis.readInt() * MCU_SIZE;
+            int segmentCount = dis.readInt();
+            if (table.segmentRows <= 0 || segmentCount != (table.height + table.segmentRows - 1) / table.segmentRows) {
+                throw new IOException("Corrupt .byt segment table");
+            }
+            table.offsets = new int[segmentCount + 1];
+            for (int i = 0; i <= segmentCount; i++) {
+                table.offsets[i] = dis.readInt();
+            }
+            return table;
+        }
+
+        int top(int segment) {
+            return segment * segmentRows;
+        }
+
+        int rows(int segment) {
+            return Math.min(segmentRows, height - top(segment));
         }
-        return block;
     }
 
-    private static double[][] upsample(double[][] subsampled, int targetHeight, int targetWidth) {
-        double[][] upsampled = new double[targetHeight][targetWidth];
-        int subsampledHeight = subsampled.length;
-        int subsampledWidth = subsampled[0].length;
-        for (int y = 0; y < targetHeight; y++) {
-            for (int x = 0; x < targetWidth; x++) {
-                int srcY = y / 2;
-                int srcX = x / 2;
-                if (srcY < subsampledHeight && srcX < subsampledWidth) {
-                    upsampled[y][x] = subsampled[srcY][srcX];
-                } else {
-                    upsampled[y][x] = 128; // Default padding
+    /** Per-thread planes and transform state for decoding one segment at a time. */
+    private static final class SegmentScratch {
+        final PlanarImage stripe;
+        final BlockDct dct = new BlockDct();
+        final double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+
+        SegmentScratch(SegmentTable table) {
+            stripe = new PlanarImage(table.width, Math.min(table.segmentRows, table.height), FLOAT_PLANES);
+        }
+    }
+
+    /** Writes streamed stripes as a binary PPM, so a decode never holds more than one stripe. */
+    private static final class PpmSink implements StripeSink {
+        private final OutputStream out;
+        private byte[] row;
+
+        PpmSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start(int width, int height) throws IOException {
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            row = new byte[width * 3];
+        }
+
+        @Override
+        public void stripe(int y, int rows, int[] rgb) throws IOException {
+            int width = row.length / 3;
+            for (int r = 0; r < rows; r++) {
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    int pixel = rgb[r * width + x];
+                    row[i] = (byte) (pixel >> 16);
+                    row[i + 1] = (byte) (pixel >> 8);
+                    row[i + 2] = (byte) pixel;
                 }
+                out.write(row);
             }
         }
-        return upsampled;
     }
-}
\ No newline at end of file
+
+    /** Converts streamed 0xRRGGBB stripes to packed bytes in a direct (or any) ByteBuffer, one bulk put per row. */
+    private static final class ByteBufferSink implements StripeSink {
+        private final PixelFormat format;
+        private final ByteBuffer target;
+        private final DirectBufferPool pool;
+        ByteBuffer buffer;
+        int base;
+        int width;
+        int height;
+        int bytes;
+        private byte[] row;
+
+        ByteBufferSink(PixelFormat format, ByteBuffer target, DirectBufferPool pool) {
+            this.format = format;
+            this.target = target;
+            this.pool = pool;
+        }
+
+        @Override
+        public void start(int width, int height) throws IOException {
+            this.width = width;
+            this.height = height;
+            long size = (long) width * height * format.bytesPerPixel;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Image too large for a ByteBuffer: " + width + "x" + height);
+            }
+            bytes = (int) size;
+            if (pool != null) {
+                buffer = pool.acquire(bytes);
+                base = 0;
+            } else {
+                if (target.remaining() < bytes) {
+                    throw new IOException("Target buffer has " + target.remaining() + " bytes remaining, needs " + bytes);
+                }
+                buffer = target;
+                base = target.position();
+            }
+            row = new byte[width * format.bytesPerPixel];
+            if (format == PixelFormat.RGBA8) {
+                // Alpha never changes, so it is written once here and left alone by stripe()
+                for (int i = 3; i < row.length; i += 4) {
+                    row[i] = (byte) 0xFF;
+                }
+            }
+        }
+
+        @Override
+        public void stripe(int y, int rows, int[] rgb) {
+            int step = format.bytesPerPixel;
+            for (int r = 0; r < rows; r++) {
+                int offset = r * width;
+                for (int x = 0, i = 0; x < width; x++, i += step) {
+                    int pixel = rgb[offset + x];
+                    row[i] = (byte) (pixel >> 16);
+                    row[i + 1] = (byte) (pixel >> 8);
+                    row[i + 2] = (byte) pixel;
+                }
+                buffer.put(base + (y + r) * row.length, row);
+            }
+        }
+    }
+
+    // Cumulative heap allocation of all threads
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getTotalThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,393 @@
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A Zstd dictionary trained on the uncompressed .byt streams of a texture corpus. Small textures repeat
+ * the same header fields and much the same coefficient patterns, but a plain Zstd frame starts from an empty
+ * window each time; with a dictionary those are matched from the first byte.
+ *
+ * Files compressed with a dictionary use format version 7: the raw magic and version, the dictionary ID, the
+ * uncompressed and compressed lengths, then one Zstd frame (without its own dictionary ID or content size,
+ * since the header has both). Decoders find the dictionary by ID among those registered, then as
+ * /assets/dictionaries/&lt;id&gt;.dict on the classpath, then as &lt;id&gt;.dict in -Dgamebyte.dictionaryDir.
+ *
+ * Compression and decompression contexts are native and only freed when closed, so they are pooled rather
+ * than kept per thread: each frame borrows one and hands it back, and at most one per processor is kept
+ * idle. They compress at GameByteCompressor.ZSTD_LEVEL with ZSTD_WORKERS worker threads.
+ */
+public final class GameByteDictionary {
+
+    // Dictionary size used by main when training, -Dgamebyte.dictionarySize
+    static final int DEFAULT_SIZE = Integer.getInteger("gamebyte.dictionarySize", 64 * 1024);
+    // The bench also reports the ratio over streams up to this size, where per-frame overhead matters most
+    private static final int SMALL_STREAM_BYTES = 32 * 1024;
+    private static final String CLASSPATH_ROOT = "/assets/dictionaries/";
+    private static final String DICTIONARY_DIR = System.getProperty("gamebyte.dictionaryDir", "dictionaries");
+    private static final Map<Integer, GameByteDictionary> REGISTRY = new ConcurrentHashMap<>();
+    private static final ContextPool<ZstdCompressCtx> COMPRESS_CTX = new ContextPool<>(() -> new ZstdCompressCtx()
+            .setLevel(GameByteCompressor.ZSTD_LEVEL)
+            .setWorkers(GameByteCompressor.ZSTD_WORKERS)
+            .setChecksum(false)
+            .setDictID(false)
+            .setContentSize(false));
+    private static final ContextPool<ZstdDecompressCtx> DECOMPRESS_CTX = new ContextPool<>(ZstdDecompressCtx::new);
+
+    final int id;
+    private final byte[] bytes;
+    private final ZstdDictCompress compressDictionary;
+    private final ZstdDictDecompress decompressDictionary;
+
+    private GameByteDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+        compressDictionary = new ZstdDictCompress(bytes, GameByteCompressor.ZSTD_LEVEL);
+        decompressDictionary = new ZstdDictDecompress(bytes);
+    }
+
+    public static void main(String[] args) {
+        String corpus = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset";
+        String outputDir = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\dictionaries";
+        // Usage: train <corpus dir or glob> <output dir>   (writes <output dir>/<id>.dict)
+        //        bench <corpus dir or glob>                (trains on every other file, measures on the rest)
+        String command = args.length > 0 ? args[0] : "train";
+        if (args.length >= 2) {
+            corpus = args[1];
+        }
+        if (args.length >= 3) {
+            outputDir = args[2];
+        }
+
+        try {
+            List<Path> inputs = GameByteBatch.findInputs(corpus);
+            long startTime = System.nanoTime();
+            List<byte[]> streams = new ArrayList<>();
+            for (Path input : inputs) {
+                streams.add(uncompressedStream(input));
+            }
+            long encodedTime = System.nanoTime();
+            System.out.printf("Encoded %d images in %.2f s%n", streams.size(), (encodedTime - startTime) / 1e9);
+
+            if (command.equals("bench")) {
+                bench(streams);
+                return;
+            }
+            GameByteDictionary dictionary = train(streams, DEFAULT_SIZE);
+            long endTime = System.nanoTime();
+            Path dictionaryFile = Paths.get(outputDir, Integer.toUnsignedString(dictionary.id) + ".dict");
+            dictionary.save(dictionaryFile);
+            System.out.printf("Trained dictionary %s (%d bytes) in %.2f s, saved as: %s%n",
+                    Integer.toUnsignedString(dictionary.id), dictionary.bytes.length, (endTime - encodedTime) / 1e9,
+                    dictionaryFile);
+        } catch (IOException e) {
+            System.err.println("Error while training dictionary: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /** Trains a dictionary of at most size bytes from uncompressed .byt streams (see uncompressedStream). */
+    public static GameByteDictionary train(List<byte[]> samples, int size) throws IOException {
+        long total = 0;
+        for (byte[] sample : samples) {
+            total += sample.length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE - 8, total), size);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        try {
+            return of(trainer.trainSamples());
+        } catch (ZstdException e) {
+            throw new IOException("Dictionary training failed (" + samples.size() + " samples, " + total
+                    + " bytes): " + e.getMessage(), e);
+        }
+    }
+
+    /** Wraps trained dictionary bytes; raw-content dictionaries (ID 0) cannot be referred to from a header. */
+    public static GameByteDictionary of(byte[] bytes) throws IOException {
+        int id = (int) Zstd.getDictIdFromDict(bytes);
+        if (id == 0) {
+            throw new IOException("Not a trained Zstd dictionary");
+        }
+        return new GameByteDictionary(id, bytes);
+    }
+
+    public static GameByteDictionary load(Path file) throws IOException {
+        return of(Files.readAllBytes(file));
+    }
+
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.write(file, bytes);
+    }
+
+    /** Makes this dictionary available to decoders in this JVM without a file lookup. */
+    public static void register(GameByteDictionary dictionary) {
+        REGISTRY.put(dictionary.id, dictionary);
+    }
+
+    /** The dictionary with the given ID, registering it once found; IOException if there is none. */
+    static GameByteDictionary forId(int id) throws IOException {
+        GameByteDictionary dictionary = REGISTRY.get(id);
+        if (dictionary != null) {
+            return dictionary;
+        }
+        String name = Integer.toUnsignedString(id) + ".dict";
+        try (InputStream resource = GameByteDictionary.class.getResourceAsStream(CLASSPATH_ROOT + name)) {
+            if (resource != null) {
+                dictionary = of(resource.readAllBytes());
+            }
+        }
+        Path file = Paths.get(DICTIONARY_DIR, name);
+        if (dictionary == null && Files.isRegularFile(file)) {
+            dictionary = load(file);
+        }
+        if (dictionary == null || dictionary.id != id) {
+            throw new IOException("No Zstd dictionary " + Integer.toUnsignedString(id) + " registered, at "
+                    + CLASSPATH_ROOT + name + " or at " + file);
+        }
+        REGISTRY.putIfAbsent(id, dictionary);
+        return REGISTRY.get(id);
+    }
+
+    /** Compresses an uncompressed .byt stream into a version 7 file. */
+    void writeFrame(byte[] stream, OutputStream out) throws IOException {
+        byte[] frame = compress(stream);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new GameByteCompressor.NonClosingOutputStream(out)));
+        dos.writeInt(GameByteCompressor.FORMAT_MAGIC);
+        dos.writeInt(GameByteCompressor.VERSION_DICTIONARY);
+        dos.writeInt(id);
+        dos.writeInt(stream.length);
+        dos.writeInt(frame.length);
+        dos.write(frame);
+        dos.flush();
+    }
+
+    /** Reads a version 7 file from its magic onwards and returns the uncompressed .byt stream inside. */
+    static byte[] readFrame(DataInputStream dis) throws IOException {
+        if (dis.readInt() != GameByteCompressor.FORMAT_MAGIC || dis.readInt() != GameByteCompressor.VERSION_DICTIONARY) {
+            throw new IOException("Not a dictionary-compressed .byt file");
+        }
+        int id = dis.readInt();
+        int streamLength = dis.readInt();
+        int frameLength = dis.readInt();
+        if (streamLength < 0 || frameLength < 0) {
+            throw new IOException("Corrupt .byt dictionary header");
+        }
+        byte[] frame = new byte[frameLength];
+        dis.readFully(frame);
+        return forId(id).decompress(frame, streamLength);
+    }
+
+    byte[] compress(byte[] stream) {
+        ZstdCompressCtx ctx = COMPRESS_CTX.borrow();
+        try {
+            return ctx.loadDict(compressDictionary).compress(stream);
+        } finally {
+            COMPRESS_CTX.giveBack(ctx);
+        }
+    }
+
+    byte[] decompress(byte[] frame, int streamLength) throws IOException {
+        ZstdDecompressCtx ctx = DECOMPRESS_CTX.borrow();
+        try {
+            byte[] stream = ctx.loadDict(decompressDictionary).decompress(frame, streamLength);
+            if (stream.length != streamLength) {
+                throw new IOException("Corrupt .byt: frame holds " + stream.length + " bytes, header says " + streamLength);
+            }
+            return stream;
+        } catch (ZstdException e) {
+            throw new IOException("Corrupt .byt frame: " + e.getMessage(), e);
+        } finally {
+            DECOMPRESS_CTX.giveBack(ctx);
+        }
+    }
+
+    /** Frees the pooled contexts no thread is using, e.g. once a batch run is over. */
+    static void closeIdleContexts() {
+        COMPRESS_CTX.closeIdle();
+        DECOMPRESS_CTX.closeIdle();
+    }
+
+    /** The uncompressed stream GameByteCompressor.compress would write for an image file: the training input. */
+    static byte[] uncompressedStream(Path image) throws IOException {
+        BufferedImage source = ImageIO.read(image.toFile());
+        if (source == null) {
+            throw new IOException("Failed to read image: " + image);
+        }
+        return GameByteCompressor.encodeUncompressed(PlanarImage.fromImage(source, GameByteCompressor.FLOAT_PLANES), 1,
+                GameByteCompressor.BASE_QUALITY);
+    }
+
+    // Trains on the even-indexed streams and compares three ways of compressing the odd-indexed ones:
+    // a new ZstdOutputStream per file (what compress() does), one reused context, and a reused context with
+    // the dictionary. Best of 5 timings; only the Zstd stage is timed, the block encoding is the same for all.
+    private static void bench(List<byte[]> streams) throws IOException {
+        List<byte[]> training = new ArrayList<>();
+        List<byte[]> testing = new ArrayList<>();
+        for (int i = 0; i < streams.size(); i++) {
+            (i % 2 == 0 ? training : testing).add(streams.get(i));
+        }
+        GameByteDictionary dictionary = train(training, DEFAULT_SIZE);
+        register(dictionary);
+        System.out.printf("Dictionary %s: %d bytes from %d files; measuring %d other files (level %d, %d workers)%n",
+                Integer.toUnsignedString(dictionary.id), dictionary.bytes.length, training.size(), testing.size(),
+                GameByteCompressor.ZSTD_LEVEL, GameByteCompressor.ZSTD_WORKERS);
+
+        long rawBytes = 0;
+        for (byte[] stream : testing) {
+            rawBytes += stream.length;
+        }
+        ZstdCompressCtx plainCtx = new ZstdCompressCtx().setLevel(GameByteCompressor.ZSTD_LEVEL)
+                .setWorkers(GameByteCompressor.ZSTD_WORKERS);
+        ZstdDecompressCtx plainDecompressCtx = new ZstdDecompressCtx();
+        List<byte[]> perFile = new ArrayList<>();
+        List<byte[]> reused = new ArrayList<>();
+        List<byte[]> withDictionary = new ArrayList<>();
+        double[] compressMs = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] decompressMs = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        for (int run = 0; run < 5; run++) {
+            perFile.clear();
+            reused.clear();
+            withDictionary.clear();
+            long t0 = System.nanoTime();
+            for (byte[] stream : testing) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (ZstdOutputStream zos = GameByteCompressor.openZstd(out)) {
+                    zos.write(stream);
+                }
+                perFile.add(out.toByteArray());
+            }
+            long t1 = System.nanoTime();
+            for (byte[] stream : testing) {
+                reused.add(plainCtx.compress(stream));
+            }
+            long t2 = System.nanoTime();
+            for (byte[] stream : testing) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                dictionary.writeFrame(stream, out);
+                withDictionary.add(out.toByteArray());
+            }
+            long t3 = System.nanoTime();
+            compressMs[0] = Math.min(compressMs[0], (t1 - t0) / 1e6);
+            compressMs[1] = Math.min(compressMs[1], (t2 - t1) / 1e6);
+            compressMs[2] = Math.min(compressMs[2], (t3 - t2) / 1e6);
+
+            long d0 = System.nanoTime();
+            for (byte[] compressed : perFile) {
+                try (ZstdInputStream zis = new ZstdInputStream(new ByteArrayInputStream(compressed))) {
+                    zis.readAllBytes();
+                }
+            }
+            long d1 = System.nanoTime();
+            for (int i = 0; i < reused.size(); i++) {
+                plainDecompressCtx.decompress(reused.get(i), testing.get(i).length);
+            }
+            long d2 = System.nanoTime();
+            for (byte[] compressed : withDictionary) {
+                readFrame(new DataInputStream(new ByteArrayInputStream(compressed)));
+            }
+            long d3 = System.nanoTime();
+            decompressMs[0] = Math.min(decompressMs[0], (d1 - d0) / 1e6);
+            decompressMs[1] = Math.min(decompressMs[1], (d2 - d1) / 1e6);
+            decompressMs[2] = Math.min(decompressMs[2], (d3 - d2) / 1e6);
+        }
+
+        //Evaluation
+        String[] names = {"ZstdOutputStream per file", "reused context", "reused context + dictionary"};
+        List<List<byte[]>> outputs = List.of(perFile, reused, withDictionary);
+        System.out.printf("%-28s %12s %8s %10s %12s %12s%n", "", "bytes", "ratio", "small", "comp MB/s", "decomp MB/s");
+        for (int i = 0; i < names.length; i++) {
+            long size = 0;
+            long smallRaw = 0;
+            long smallSize = 0;
+            for (int f = 0; f < testing.size(); f++) {
+                int length = outputs.get(i).get(f).length;
+                size += length;
+                if (testing.get(f).length <= SMALL_STREAM_BYTES) {
+                    smallRaw += testing.get(f).length;
+                    smallSize += length;
+                }
+            }
+            System.out.printf("%-28s %12d %7.2f%% %9.2f%% %12.1f %12.1f%n", names[i], size, size * 100.0 / rawBytes,
+                    smallRaw == 0 ? 0.0 : smallSize * 100.0 / smallRaw, rawBytes / 1e3 / compressMs[i],
+                    rawBytes / 1e3 / decompressMs[i]);
+        }
+    }
+
+    /** Idle native contexts shared by every thread; anything beyond MAX_IDLE handed back is closed. */
+    private static final class ContextPool<T extends Closeable> {
+        private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors();
+
+        private final Supplier<T> factory;
+        private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        ContextPool(Supplier<T> factory) {
+            this.factory = factory;
+        }
+
+        T borrow() {
+            T ctx = idle.poll();
+            if (ctx == null) {
+                return factory.get();
+            }
+            idleCount.decrementAndGet();
+            return ctx;
+        }
+
+        void giveBack(T ctx) {
+            if (idleCount.incrementAndGet() <= MAX_IDLE) {
+                idle.offer(ctx);
+            } else {
+                idleCount.decrementAndGet();
+                close(ctx);
+            }
+        }
+
+        void closeIdle() {
+            for (T ctx = idle.poll(); ctx != null; ctx = idle.poll()) {
+                idleCount.decrementAndGet();
+                close(ctx);
+            }
+        }
+
+        private static void close(Closeable ctx) {
+            try {
+                ctx.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,457 @@
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Huffman-coded .byt layout (format version 5). Rather than writing one byte per coefficient and leaving
+ * the structure to Zstd, the quantized coefficients are turned into JPEG-style symbols: the DC difference
+ * from the previous block as a size category plus extra bits, and each non-zero AC coefficient as a
+ * (zero run, size) symbol plus extra bits, with ZRL for 16 zeros and EOB once the rest of the block is zero.
+ * The Huffman tables (DC and AC, luma and chroma) are built per file from that file's own symbol counts
+ * and stored in the header, and the bitstream is written without a Zstd pass.
+ */
+public class GameByteHuffman {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int COEFFICIENTS = BLOCK_SIZE * BLOCK_SIZE;
+    private static final int MAX_CODE_LENGTH = 16;
+    private static final int LOOKUP_BITS = 9;
+    private static final int EOB = 0x00;
+    private static final int ZRL = 0xF0;
+
+    /** Encodes the planes as Huffman-coded coefficients. out is left open. */
+    public static void compress(PlanarImage planes, OutputStream out) throws IOException {
+        CodecTrace trace = CodecTrace.start("encode", "huffman");
+        if (trace != null) {
+            out = trace.countOut(out);
+        }
+        long start = trace == null ? 0 : System.nanoTime();
+        int[][] channels = {
+                GameByteCompressor.quantizeChannel(planes.y, GameByteCompressor.LUMINANCE_DIVISORS),
+                GameByteCompressor.quantizeChannel(planes.cb, GameByteCompressor.CHROMINANCE_DIVISORS),
+                GameByteCompressor.quantizeChannel(planes.cr, GameByteCompressor.CHROMINANCE_DIVISORS)
+        };
+        if (trace != null) {
+            long quantized = System.nanoTime();
+            trace.add(CodecTrace.Stage.DCT, quantized - start);
+            start = quantized;
+        }
+
+        // First pass: symbol statistics, luma and chroma counted separately
+        int[][] frequencies = new int[4][256];
+        countSymbols(channels[0], frequencies[0], frequencies[1]);
+        countSymbols(channels[1], frequencies[2], frequencies[3]);
+        countSymbols(channels[2], frequencies[2], frequencies[3]);
+        HuffmanTable[] tables = new HuffmanTable[4];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = HuffmanTable.build(frequencies[i]);
+        }
+
+        // Second pass: the bitstream
+        BitWriter bits = new BitWriter(planes.width * planes.height / 4);
+        writeSymbols(channels[0], tables[0], tables[1], bits);
+        writeSymbols(channels[1], tables[2], tables[3], bits);
+        writeSymbols(channels[2], tables[2], tables[3], bits);
+        bits.flush();
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new GameByteCompressor.NonClosingOutputStream(out)));
+        // Write header
+        dos.writeInt(GameByteCompressor.FORMAT_MAGIC);
+        dos.writeInt(GameByteCompressor.VERSION_HUFFMAN);
+        dos.writeInt(planes.width);
+        dos.writeInt(planes.height);
+        dos.writeInt(GameByteCompressor.QUALITY_LEVELS.length);
+        for (float level : GameByteCompressor.QUALITY_LEVELS) {
+            dos.writeFloat(level);
+        }
+        for (HuffmanTable table : tables) {
+            table.write(dos);
+        }
+        dos.writeInt(bits.length);
+        dos.write(bits.buffer, 0, bits.length);
+        dos.flush();
+        if (trace != null) {
+            // Symbol counting, table building and the bitstream; there is no Zstd pass
+            trace.add(CodecTrace.Stage.PACK, System.nanoTime() - start);
+            trace.finish(planes.width, planes.height);
+        }
+    }
+
+    /** Decodes a version 5 file; dis is positioned just after the magic and version. */
+    static BufferedImage decode(DataInputStream dis) throws IOException {
+        int width = dis.readInt();
+        int height = dis.readInt();
+        int numQualityLevels = dis.readInt();
+        for (int i = 0; i < numQualityLevels; i++) {
+            dis.readFloat();
+        }
+        HuffmanTable[] tables = new HuffmanTable[4];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = HuffmanTable.read(dis);
+        }
+        byte[] payload = new byte[dis.readInt()];
+        dis.readFully(payload);
+
+        PlanarImage planes = new PlanarImage(width, height, GameByteCompressor.FLOAT_PLANES);
+        BitReader bits = new BitReader(payload);
+        double[] block = new double[COEFFICIENTS];
+        BlockDct dct = new BlockDct();
+        double[] lumaMultipliers = BlockDct.dequantMultipliers(GameByteCompressor.LUMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
+        double[] chromaMultipliers = BlockDct.dequantMultipliers(GameByteCompressor.CHROMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
+        decodeChannel(bits, planes.y, tables[0], tables[1], lumaMultipliers, dct, block);
+        decodeChannel(bits, planes.cb, tables[2], tables[3], chromaMultipliers, dct, block);
+        decodeChannel(bits, planes.cr, tables[2], tables[3], chromaMultipliers, dct, block);
+        return planes.toImage();
+    }
+
+    private static void countSymbols(int[] coefficients, int[] dcFrequencies, int[] acFrequencies) {
+        int previousDc = 0;
+        for (int block = 0; block < coefficients.length; block += COEFFICIENTS) {
+            dcFrequencies[size(coefficients[block] - previousDc)]++;
+            previousDc = coefficients[block];
+            int run = 0;
+            for (int i = 1; i < COEFFICIENTS; i++) {
+                int value = coefficients[block + i];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    acFrequencies[ZRL]++;
+                    run -= 16;
+                }
+                acFrequencies[(run << 4) | size(value)]++;
+                run = 0;
+            }
+            if (run > 0) {
+                acFrequencies[EOB]++;
+            }
+        }
+    }
+
+    private static void writeSymbols(int[] coefficients, HuffmanTable dcTable, HuffmanTable acTable, BitWriter bits)
+            throws IOException {
+        int previousDc = 0;
+        for (int block = 0; block < coefficients.length; block += COEFFICIENTS) {
+            int diff = coefficients[block] - previousDc;
+            previousDc = coefficients[block];
+            int dcSize = size(diff);
+            dcTable.write(bits, dcSize);
+            bits.write(diff < 0 ? diff - 1 : diff, dcSize);
+            int run = 0;
+            for (int i = 1; i < COEFFICIENTS; i++) {
+                int value = coefficients[block + i];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    acTable.write(bits, ZRL);
+                    run -= 16;
+                }
+                int acSize = size(value);
+                if (acSize > 15) {
+                    throw new IOException("AC coefficient " + value + " is too large to Huffman code");
+                }
+                acTable.write(bits, (run << 4) | acSize);
+                bits.write(value < 0 ? value - 1 : value, acSize);
+                run = 0;
+            }
+            if (run > 0) {
+                acTable.write(bits, EOB);
+            }
+        }
+    }
+
+    private static void decodeChannel(BitReader bits, PlanarImage.Plane channel, HuffmanTable dcTable,
+                                      HuffmanTable acTable, double[] multipliers, BlockDct dct,
+                                      double[] block) throws IOException {
+        int dc = 0;
+        for (int y = 0; y < channel.height; y += BLOCK_SIZE) {
+            for (int x = 0; x < channel.width; x += BLOCK_SIZE) {
+                Arrays.fill(block, 0);
+                int dcSize = dcTable.decode(bits);
+                dc += extend(bits.read(dcSize), dcSize);
+                block[0] = dc * multipliers[0];
+                int length = 1;
+                for (int i = 1; i < COEFFICIENTS; i++) {
+                    int symbol = acTable.decode(bits);
+                    int run = symbol >> 4;
+                    int acSize = symbol & 0x0F;
+                    if (acSize == 0) {
+                        if (symbol != ZRL) {
+                            break;
+                        }
+                        i += 15;
+                        continue;
+                    }
+                    i += run;
+                    if (i >= COEFFICIENTS) {
+                        throw new IOException("Corrupt Huffman stream: run past the end of a block");
+                    }
+                    int pos = GameByteCompressor.ZIGZAG_ORDER[i];
+                    block[pos] = (double) extend(bits.read(acSize), acSize) * multipliers[pos];
+                    length = i + 1;
+                }
+                GameByteDecompressor.inverse(length, channel, x, y, dct, block);
+            }
+        }
+    }
+
+    // Number of bits needed for |value| (the JPEG size category)
+    private static int size(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    // Inverse of the negative-value offset applied when writing extra bits
+    private static int extend(int bits, int size) {
+        return size == 0 || bits >= 1 << (size - 1) ? bits : bits - (1 << size) + 1;
+    }
+
+    /** A canonical Huffman table over byte symbols, stored like a JPEG DHT segment. */
+    static final class HuffmanTable {
+        // Number of codes of each length 1..16, and the symbols in code order
+        private final int[] counts = new int[MAX_CODE_LENGTH + 1];
+        private final int[] symbols;
+        // Encoder side
+        private final int[] codes = new int[256];
+        private final int[] lengths = new int[256];
+        // Decoder side: direct lookup of short codes, canonical ranges for the rest
+        private final short[] lookup = new short[1 << LOOKUP_BITS];
+        private final int[] maxCode = new int[MAX_CODE_LENGTH + 2];
+        private final int[] valueOffset = new int[MAX_CODE_LENGTH + 1];
+
+        private HuffmanTable(int[] counts, int[] symbols) {
+            System.arraycopy(counts, 0, this.counts, 0, counts.length);
+            this.symbols = symbols;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                valueOffset[length] = index - code;
+                for (int i = 0; i < counts[length]; i++, index++, code++) {
+                    int symbol = symbols[index];
+                    codes[symbol] = code;
+                    lengths[symbol] = length;
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        for (int fill = 0; fill < 1 << shift; fill++) {
+                            lookup[(code << shift) | fill] = (short) ((length << 8) | symbol);
+                        }
+                    }
+                }
+                maxCode[length] = counts[length] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+            maxCode[MAX_CODE_LENGTH + 1] = Integer.MAX_VALUE;
+        }
+
+        /** Builds code lengths from symbol counts, limited to 16 bits as in JPEG Annex K.2. */
+        static HuffmanTable build(int[] frequencies) {
+            int[] codeLengths = new int[256];
+            PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+            // Node ids 0-255 are symbols, 256+ are internal; parent links give each leaf its depth
+            int[] parent = new int[512];
+            int used = 0;
+            for (int symbol = 0; symbol < 256; symbol++) {
+                if (frequencies[symbol] > 0) {
+                    queue.add(new long[]{frequencies[symbol], symbol});
+                    used++;
+                }
+            }
+            if (used == 0) {
+                return new HuffmanTable(new int[MAX_CODE_LENGTH + 1], new int[0]);
+            }
+            if (used == 1) {
+                int[] counts = new int[MAX_CODE_LENGTH + 1];
+                counts[1] = 1;
+                return new HuffmanTable(counts, new int[]{(int) queue.peek()[1]});
+            }
+            int next = 256;
+            while (queue.size() > 1) {
+                long[] a = queue.poll();
+                long[] b = queue.poll();
+                parent[(int) a[1]] = next;
+                parent[(int) b[1]] = next;
+                queue.add(new long[]{a[0] + b[0], next++});
+            }
+            int root = next - 1;
+            int[] bits = new int[64];
+            for (int symbol = 0; symbol < 256; symbol++) {
+                if (frequencies[symbol] > 0) {
+                    int depth = 0;
+                    for (int node = symbol; node != root; node = parent[node]) {
+                        depth++;
+                    }
+                    codeLengths[symbol] = depth;
+                    bits[depth]++;
+                }
+            }
+            // Move over-long codes up the tree until everything fits in 16 bits
+            for (int i = bits.length - 1; i > MAX_CODE_LENGTH; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            // Hand out the (possibly adjusted) lengths, shortest to the most frequent symbols
+            Integer[] order = new Integer[used];
+            for (int symbol = 0, k = 0; symbol < 256; symbol++) {
+                if (frequencies[symbol] > 0) {
+                    order[k++] = symbol;
+                }
+            }
+            Arrays.sort(order, (a, b) -> frequencies[b] != frequencies[a]
+                    ? Integer.compare(frequencies[b], frequencies[a]) : Integer.compare(a, b));
+            int[] counts = new int[MAX_CODE_LENGTH + 1];
+            int k = 0;
+            int[][] byLength = new int[MAX_CODE_LENGTH + 1][];
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                counts[length] = bits[length];
+                byLength[length] = new int[bits[length]];
+                for (int i = 0; i < bits[length]; i++) {
+                    byLength[length][i] = order[k++];
+                }
+                Arrays.sort(byLength[length]);
+            }
+            int[] symbols = new int[used];
+            k = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                for (int symbol : byLength[length]) {
+                    symbols[k++] = symbol;
+                }
+            }
+            return new HuffmanTable(counts, symbols);
+        }
+
+        static HuffmanTable read(DataInputStream dis) throws IOException {
+            int[] counts = new int[MAX_CODE_LENGTH + 1];
+            int total = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                counts[length] = dis.readUnsignedByte();
+                total += counts[length];
+            }
+            if (total > 256) {
+                throw new IOException("Corrupt Huffman table: " + total + " symbols");
+            }
+            int[] symbols = new int[total];
+            for (int i = 0; i < total; i++) {
+                symbols[i] = dis.readUnsignedByte();
+            }
+            return new HuffmanTable(counts, symbols);
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                dos.writeByte(counts[length]);
+            }
+            for (int symbol : symbols) {
+                dos.writeByte(symbol);
+            }
+        }
+
+        void write(BitWriter bits, int symbol) {
+            bits.write(codes[symbol], lengths[symbol]);
+        }
+
+        int decode(BitReader bits) throws IOException {
+            int entry = lookup[bits.peek(LOOKUP_BITS)];
+            if (entry != 0) {
+                bits.skip(entry >> 8);
+                return entry & 0xFF;
+            }
+            for (int length = LOOKUP_BITS + 1; length <= MAX_CODE_LENGTH; length++) {
+                int code = bits.peek(length);
+                if (code <= maxCode[length]) {
+                    bits.skip(length);
+                    return symbols[valueOffset[length] + code];
+                }
+            }
+            throw new IOException("Corrupt Huffman stream: no code matches");
+        }
+    }
+
+    /** MSB-first bit packer into a growable byte array. */
+    static final class BitWriter {
+        byte[] buffer;
+        int length;
+        private long accumulator;
+        private int pending;
+
+        BitWriter(int capacity) {
+            buffer = new byte[Math.max(capacity, 64)];
+        }
+
+        void write(int value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            accumulator = (accumulator << bits) | (value & ((1L << bits) - 1));
+            pending += bits;
+            while (pending >= 8) {
+                pending -= 8;
+                put((byte) (accumulator >>> pending));
+            }
+        }
+
+        // Pads the last byte with zeros
+        void flush() {
+            if (pending > 0) {
+                put((byte) (accumulator << (8 - pending)));
+                pending = 0;
+            }
+        }
+
+        private void put(byte b) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = b;
+        }
+    }
+
+    /** MSB-first bit reader; reads past the end return zero bits. */
+    static final class BitReader {
+        private final byte[] data;
+        private int position;
+        private long accumulator;
+        private int available;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        int peek(int bits) {
+            if (available < bits) {
+                while (available <= 56) {
+                    accumulator = (accumulator << 8) | (position < data.length ? data[position] & 0xFF : 0);
+                    position++;
+                    available += 8;
+                }
+            }
+            return (int) (accumulator >>> (available - bits)) & ((1 << bits) - 1);
+        }
+
+        void skip(int bits) {
+            available -= bits;
+        }
+
+        int read(int bits) throws IOException {
+            if (bits == 0) {
+                return 0;
+            }
+            int value = peek(bits);
+            skip(bits);
+            if (position > data.length + 8) {
+                throw new EOFException("Huffman stream ended early");
+            }
+            return value;
+        }
+    }
+}
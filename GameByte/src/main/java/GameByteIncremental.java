@@ -0,0 +1,244 @@
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Incremental re-encoding for textures that change a little between runs. The image is cut into 16x16
+ * tiles, one MCU each: with the neutral padding and 2x2 chroma averaging every Y, Cb and Cr block depends
+ * only on the pixels of its own MCU, so a tile whose pixels have not changed packs to the same bytes it
+ * did last time. A sidecar cache keeps each tile's pixel hash and packed blocks; a re-encode hashes every
+ * tile, colour-converts and transforms only the MCU stripes holding changed tiles, and splices the cached
+ * blocks in for the rest. The result is the same file GameByteCompressor.compress writes at the base
+ * quality; only the final Zstd pass over the whole stream is always redone.
+ *
+ * The cache records the encoder settings that change coefficients (plane precision, DCT and colour
+ * converter) and the image size, and is ignored and rewritten when they differ. Tiles are matched by a
+ * 64-bit hash of their pixels, so a changed tile could in principle hash like its old self.
+ *
+ * Cache layout: magic "GBTC", version, settings (UTF), width, height, then per tile in raster order its
+ * hash, six unsigned short block lengths (its up to four Y blocks row by row, then Cb and Cr; 0 for a Y
+ * block past the padded edge) and the packed blocks themselves.
+ */
+public class GameByteIncremental {
+
+    private static final int CACHE_MAGIC = 0x47425443; // "GBTC"
+    private static final int CACHE_VERSION = 1;
+    private static final int TILE_SIZE = GameByteCompressor.MCU_SIZE;
+    private static final int BLOCK_SIZE = 8;
+    private static final int SLOTS = 6;
+    private static final int CB_SLOT = 4;
+    private static final int CR_SLOT = 5;
+
+    /**
+     * Encodes image to out exactly as GameByteCompressor.compress(image, out, threads) does, reusing the
+     * tiles cache holds that have not changed, and rewrites cache for the next run. Returns the number
+     * of tiles transformed; out is left open.
+     */
+    public static int compress(BufferedImage image, OutputStream out, Path cache) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int tilesWide = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesHigh = (height + TILE_SIZE - 1) / TILE_SIZE;
+        PlanarImage.RowReader reader = PlanarImage.RowReader.forImage(image);
+        TileCache previous = TileCache.load(cache, settings(), width, height);
+        TileCache tiles = new TileCache(width, height, tilesWide * tilesHigh);
+
+        int[] rgbRow = new int[width];
+        PlanarImage stripe = new PlanarImage(width, Math.min(TILE_SIZE, height), GameByteCompressor.FLOAT_PLANES);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SLOTS * 64);
+        DataOutputStream packed = new DataOutputStream(bytes);
+        int transformed = 0;
+        for (int ty = 0; ty < tilesHigh; ty++) {
+            int top = ty * TILE_SIZE;
+            int rows = Math.min(TILE_SIZE, height - top);
+            int first = ty * tilesWide;
+            hashStripe(reader, top, rows, rgbRow, tiles.hashes, first, tilesWide);
+
+            boolean changed = previous == null;
+            for (int t = first; t < first + tilesWide && !changed; t++) {
+                changed = tiles.hashes[t] != previous.hashes[t];
+            }
+            if (!changed) {
+                System.arraycopy(previous.blocks, first, tiles.blocks, first, tilesWide);
+                System.arraycopy(previous.lengths, first * SLOTS, tiles.lengths, first * SLOTS, tilesWide * SLOTS);
+                continue;
+            }
+
+            stripe.load(reader, top, rows);
+            for (int tx = 0; tx < tilesWide; tx++) {
+                int tile = first + tx;
+                if (previous != null && tiles.hashes[tile] == previous.hashes[tile]) {
+                    tiles.blocks[tile] = previous.blocks[tile];
+                    System.arraycopy(previous.lengths, tile * SLOTS, tiles.lengths, tile * SLOTS, SLOTS);
+                    continue;
+                }
+                bytes.reset();
+                encodeTile(stripe, tx, rows, packed, tiles.lengths, tile * SLOTS);
+                tiles.blocks[tile] = bytes.toByteArray();
+                transformed++;
+            }
+        }
+
+        writeStream(tiles, tilesWide, tilesHigh, out);
+        tiles.save(cache, settings());
+        return transformed;
+    }
+
+    /** The sidecar next to an encoded file: name.byt.tiles. */
+    public static Path cacheFor(Path encoded) {
+        return encoded.resolveSibling(encoded.getFileName() + ".tiles");
+    }
+
+    // Everything besides the pixels that decides the packed blocks
+    private static String settings() {
+        return "precision=" + (GameByteCompressor.FLOAT_PLANES ? "float" : "double")
+                + " dct=" + (BlockDct.REFERENCE ? "reference" : "fast")
+                + " colour=" + ColorConverter.INSTANCE.name();
+    }
+
+    // FNV-1a over each tile's rows of 0xRRGGBB pixels (alpha is never encoded), then the MurmurHash3 finalizer
+    private static void hashStripe(PlanarImage.RowReader reader, int top, int rows, int[] rgbRow, long[] hashes,
+                                   int first, int tilesWide) throws IOException {
+        for (int t = first; t < first + tilesWide; t++) {
+            hashes[t] = 0xCBF29CE484222325L;
+        }
+        for (int row = 0; row < rows; row++) {
+            reader.read(top + row, rgbRow);
+            for (int tx = 0; tx < tilesWide; tx++) {
+                long h = hashes[first + tx];
+                int end = Math.min(rgbRow.length, (tx + 1) * TILE_SIZE);
+                for (int x = tx * TILE_SIZE; x < end; x++) {
+                    h = (h ^ (rgbRow[x] & 0xFFFFFF)) * 0x100000001B3L;
+                }
+                hashes[first + tx] = h;
+            }
+        }
+        for (int t = first; t < first + tilesWide; t++) {
+            long h = hashes[t];
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            hashes[t] = h ^ (h >>> 33);
+        }
+    }
+
+    // Packs the blocks of tile column tx of a loaded stripe, recording each slot's length at lengths[offset]
+    private static void encodeTile(PlanarImage stripe, int tx, int rows, DataOutputStream packed, int[] lengths,
+                                   int offset) throws IOException {
+        for (int slot = 0; slot < 4; slot++) {
+            int x = tx * TILE_SIZE + (slot & 1) * BLOCK_SIZE;
+            int y = (slot >> 1) * BLOCK_SIZE;
+            int start = packed.size();
+            if (x < stripe.y.width && y < PlanarImage.padToBlock(rows)) {
+                GameByteCompressor.encodeBlock(stripe.y, x, y, GameByteCompressor.LUMINANCE_DIVISORS, packed);
+            }
+            lengths[offset + slot] = packed.size() - start;
+        }
+        int start = packed.size();
+        GameByteCompressor.encodeBlock(stripe.cb, tx * BLOCK_SIZE, 0, GameByteCompressor.CHROMINANCE_DIVISORS, packed);
+        lengths[offset + CB_SLOT] = packed.size() - start;
+        start = packed.size();
+        GameByteCompressor.encodeBlock(stripe.cr, tx * BLOCK_SIZE, 0, GameByteCompressor.CHROMINANCE_DIVISORS, packed);
+        lengths[offset + CR_SLOT] = packed.size() - start;
+    }
+
+    // The channel-sequential stream: header, then every Y block row, every Cb row and every Cr row
+    private static void writeStream(TileCache tiles, int tilesWide, int tilesHigh, OutputStream out)
+            throws IOException {
+        OutputStream zos = GameByteCompressor.openZstd(out);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zos));
+        GameByteCompressor.writeHeader(dos, tiles.width, tiles.height, GameByteCompressor.BASE_QUALITY);
+        int blocksWide = PlanarImage.padToBlock(tiles.width) / BLOCK_SIZE;
+        int blocksHigh = PlanarImage.padToBlock(tiles.height) / BLOCK_SIZE;
+        for (int by = 0; by < blocksHigh; by++) {
+            for (int bx = 0; bx < blocksWide; bx++) {
+                tiles.writeBlock((by / 2) * tilesWide + bx / 2, (by & 1) * 2 + (bx & 1), dos);
+            }
+        }
+        for (int slot : new int[]{CB_SLOT, CR_SLOT}) {
+            for (int tile = 0; tile < tilesWide * tilesHigh; tile++) {
+                tiles.writeBlock(tile, slot, dos);
+            }
+        }
+        dos.flush();
+        zos.close();
+    }
+
+    /** Per tile: the pixel hash, the packed blocks and each slot's length within them. */
+    private static final class TileCache {
+        final int width;
+        final int height;
+        final long[] hashes;
+        final byte[][] blocks;
+        final int[] lengths;
+
+        TileCache(int width, int height, int tiles) {
+            this.width = width;
+            this.height = height;
+            hashes = new long[tiles];
+            blocks = new byte[tiles][];
+            lengths = new int[tiles * SLOTS];
+        }
+
+        void writeBlock(int tile, int slot, DataOutputStream dos) throws IOException {
+            int start = 0;
+            for (int s = 0; s < slot; s++) {
+                start += lengths[tile * SLOTS + s];
+            }
+            dos.write(blocks[tile], start, lengths[tile * SLOTS + slot]);
+        }
+
+        // A missing, unreadable or stale cache is no cache: every tile is transformed and the file rewritten
+        static TileCache load(Path file, String settings, int width, int height) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (dis.readInt() != CACHE_MAGIC || dis.readInt() != CACHE_VERSION || !dis.readUTF().equals(settings)
+                        || dis.readInt() != width || dis.readInt() != height) {
+                    return null;
+                }
+                int tiles = ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+                TileCache cache = new TileCache(width, height, tiles);
+                for (int tile = 0; tile < tiles; tile++) {
+                    cache.hashes[tile] = dis.readLong();
+                    int size = 0;
+                    for (int slot = 0; slot < SLOTS; slot++) {
+                        int length = dis.readUnsignedShort();
+                        cache.lengths[tile * SLOTS + slot] = length;
+                        size += length;
+                    }
+                    cache.blocks[tile] = new byte[size];
+                    dis.readFully(cache.blocks[tile]);
+                }
+                return cache;
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                System.err.println("Ignoring tile cache " + file + ": " + e);
+                return null;
+            }
+        }
+
+        // Written beside the target and moved over it, so an interrupted run leaves the old cache intact
+        void save(Path file, String settings) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                dos.writeInt(CACHE_MAGIC);
+                dos.writeInt(CACHE_VERSION);
+                dos.writeUTF(settings);
+                dos.writeInt(width);
+                dos.writeInt(height);
+                for (int tile = 0; tile < hashes.length; tile++) {
+                    dos.writeLong(hashes[tile]);
+                    for (int slot = 0; slot < SLOTS; slot++) {
+                        dos.writeShort(lengths[tile * SLOTS + slot]);
+                    }
+                    dos.write(blocks[tile]);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+
+/**
+ * Inter-frame .byt layout (format version 9) for camera feeds and other frame sequences. Every 8x8 block
+ * of every channel is transformed and quantized as usual and its 64 coefficients are hashed; a block whose
+ * hash matches the same block of the previous frame is sent as a single skip bit and the decoder keeps
+ * what it already has there. Because the comparison is on the quantized coefficients, a skipped block
+ * decodes exactly as it would have if it had been sent, so there is no drift between key frames.
+ *
+ * Layout: magic, version, width, height and a flags int (bit 0: key frame) uncompressed, then one Zstd
+ * frame holding, per channel (Y, Cb, Cr), the skip bitmap (one bit per block in raster order, LSB first;
+ * absent in key frames) followed by the coefficients of every block that is not skipped, packed as in
+ * the version 6 layout. Key frames decode on their own, e.g. through GameByteDecompressor; the frames
+ * after them need a Decoder that has seen everything since the last key frame.
+ */
+public class GameByteInter {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int COEFFICIENTS = BLOCK_SIZE * BLOCK_SIZE;
+    private static final int KEY_FRAME = 1;
+    private static final double[] LUMA_MULTIPLIERS = BlockDct.dequantMultipliers(
+            GameByteCompressor.LUMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
+    private static final double[] CHROMA_MULTIPLIERS = BlockDct.dequantMultipliers(
+            GameByteCompressor.CHROMINANCE_QUANT_MATRIX, 1.0, BlockDct.REFERENCE);
+
+    /** Encodes a sequence of frames; not thread-safe, one per stream. */
+    public static final class Encoder {
+        private long[][] previousHashes;
+        private int width;
+        private int height;
+        private int skippedBlocks;
+        private int blocks;
+
+        /**
+         * Writes image as the next frame. A key frame is written if keyFrame is set, for the first frame and
+         * whenever the size changes; otherwise unchanged blocks are skipped. out is left open.
+         */
+        public void encode(BufferedImage image, boolean keyFrame, OutputStream out) throws IOException {
+            PlanarImage planes = PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES);
+            boolean key = keyFrame || previousHashes == null || planes.width != width || planes.height != height;
+            int[][] channels = {
+                    GameByteCompressor.quantizeChannel(planes.y, GameByteCompressor.LUMINANCE_DIVISORS),
+                    GameByteCompressor.quantizeChannel(planes.cb, GameByteCompressor.CHROMINANCE_DIVISORS),
+                    GameByteCompressor.quantizeChannel(planes.cr, GameByteCompressor.CHROMINANCE_DIVISORS)
+            };
+
+            DataOutputStream header = new DataOutputStream(new GameByteCompressor.NonClosingOutputStream(out));
+            header.writeInt(GameByteCompressor.FORMAT_MAGIC);
+            header.writeInt(GameByteCompressor.VERSION_INTER);
+            header.writeInt(planes.width);
+            header.writeInt(planes.height);
+            header.writeInt(key ? KEY_FRAME : 0);
+            header.flush();
+
+            long[][] hashes = new long[channels.length][];
+            int skipped = 0;
+            int total = 0;
+            int[] zigZag = new int[COEFFICIENTS];
+            ZstdOutputStream zos = GameByteCompressor.openZstd(out);
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zos));
+            for (int c = 0; c < channels.length; c++) {
+                int[] coefficients = channels[c];
+                int count = coefficients.length / COEFFICIENTS;
+                hashes[c] = new long[count];
+                byte[] skip = new byte[(count + 7) / 8];
+                for (int b = 0; b < count; b++) {
+                    hashes[c][b] = hash(coefficients, b * COEFFICIENTS);
+                    if (!key && hashes[c][b] == previousHashes[c][b]) {
+                        skip[b >> 3] |= (byte) (1 << (b & 7));
+                        skipped++;
+                    }
+                }
+                if (!key) {
+                    dos.write(skip);
+                }
+                for (int b = 0; b < count; b++) {
+                    if ((skip[b >> 3] & (1 << (b & 7))) == 0) {
+                        System.arraycopy(coefficients, b * COEFFICIENTS, zigZag, 0, COEFFICIENTS);
+                        GameByteCompressor.packIndices(zigZag, GameByteCompressor.QUALITY_LEVELS, true, dos);
+                    }
+                }
+                total += count;
+            }
+            dos.flush();
+            zos.close();
+
+            previousHashes = hashes;
+            width = planes.width;
+            height = planes.height;
+            skippedBlocks = skipped;
+            blocks = total;
+        }
+
+        /** Blocks skipped in the last frame encoded, over all three channels. */
+        public int skippedBlocks() {
+            return skippedBlocks;
+        }
+
+        /** Blocks in the last frame encoded, over all three channels. */
+        public int blocks() {
+            return blocks;
+        }
+    }
+
+    /** Decodes a sequence of frames in the order they were encoded; not thread-safe, one per stream. */
+    public static final class Decoder {
+        private final double[] block = new double[COEFFICIENTS];
+        private final BlockDct dct = new BlockDct();
+        private PlanarImage planes;
+
+        public BufferedImage decode(InputStream in) throws IOException {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+            if (dis.readInt() != GameByteCompressor.FORMAT_MAGIC || dis.readInt() != GameByteCompressor.VERSION_INTER) {
+                throw new IOException("Not an inter-frame .byt file");
+            }
+            return decode(dis);
+        }
+
+        /** Decodes one frame; dis is positioned just after the magic and version. */
+        BufferedImage decode(DataInputStream dis) throws IOException {
+            int width = dis.readInt();
+            int height = dis.readInt();
+            boolean key = (dis.readInt() & KEY_FRAME) != 0;
+            boolean sameSize = planes != null && planes.width == width && planes.height == height;
+            if (!key && !sameSize) {
+                throw new IOException("Inter frame without its reference frame; decoding must start at a key frame");
+            }
+            if (width <= 0 || height <= 0) {
+                throw new IOException("Corrupt inter-frame .byt header");
+            }
+            if (!sameSize) {
+                planes = new PlanarImage(width, height, GameByteCompressor.FLOAT_PLANES);
+            }
+            try (InputStream zis = GameByteDecompressor.openZstd(dis)) {
+                DataInputStream data = new DataInputStream(new BufferedInputStream(zis));
+                decodeChannel(data, planes.y, LUMA_MULTIPLIERS, key);
+                decodeChannel(data, planes.cb, CHROMA_MULTIPLIERS, key);
+                decodeChannel(data, planes.cr, CHROMA_MULTIPLIERS, key);
+            } catch (IOException | RuntimeException e) {
+                // Half-updated planes are no reference for the next frame
+                planes = null;
+                throw e;
+            }
+            return planes.toImage();
+        }
+
+        private void decodeChannel(DataInputStream data, PlanarImage.Plane channel, double[] multipliers, boolean key)
+                throws IOException {
+            int blocksWide = channel.width / BLOCK_SIZE;
+            int count = blocksWide * (channel.height / BLOCK_SIZE);
+            byte[] skip = new byte[(count + 7) / 8];
+            if (!key) {
+                data.readFully(skip);
+            }
+            for (int b = 0; b < count; b++) {
+                if ((skip[b >> 3] & (1 << (b & 7))) != 0) {
+                    continue;
+                }
+                int length = GameByteDecompressor.unpackIndices(data, null, multipliers, true, dct, block);
+                GameByteDecompressor.inverse(length, channel, (b % blocksWide) * BLOCK_SIZE,
+                        (b / blocksWide) * BLOCK_SIZE, dct, block);
+            }
+        }
+    }
+
+    // FNV-1a over the 64 coefficients, then the MurmurHash3 finalizer so nearby blocks spread over all 64 bits
+    private static long hash(int[] coefficients, int offset) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = offset; i < offset + COEFFICIENTS; i++) {
+            h = (h ^ coefficients[i]) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
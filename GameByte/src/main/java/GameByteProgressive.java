@@ -0,0 +1,365 @@
+import com.github.luben.zstd.ZstdInputStream;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jtransforms.dct.DoubleDCT_2D;
+
+/**
+ * Progressive .byt layout (format version 3). Instead of writing each block's coefficients together,
+ * the coefficients are grouped into frequency bands and each band is written for every block of every
+ * channel before the next band starts, DC first. A decoder can stop after any band:
+ * - DC alone gives a 1/8-scale image directly (the DC of a block is 8x its mean), with no IDCT at all
+ * - the first 2 bands hold the top-left 2x2 of every block, enough for a 1/4-scale image
+ * - the first 3 bands hold the top-left 4x4, enough for a 1/2-scale image
+ * - all bands give the same full-size image as the other layouts.
+ * Since the Zstd stream is read front to back, stopping early also skips inflating the later bands.
+ */
+public class GameByteProgressive {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int COEFFICIENTS = BLOCK_SIZE * BLOCK_SIZE;
+    // First zigzag index of each band
+    private static final int[] BAND_STARTS = {0, 1, 5, 25, 43};
+    // Zigzag coefficients a 1/2^level decode needs: the top-left (8 >> level) square of each block
+    private static final int[] LEVEL_COEFFICIENTS = {64, 25, 5, 1};
+    static final int MAX_LEVEL = LEVEL_COEFFICIENTS.length - 1;
+
+    public static void main(String[] args) throws IOException {
+        String inputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset\\10.jpg";
+        String outputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed\\10.byt";
+        if (args.length >= 2) {
+            inputFile = args[0];
+            outputFile = args[1];
+        }
+
+        long startTime = System.nanoTime();
+        BufferedImage image = ImageIO.read(new File(inputFile));
+        if (image == null) {
+            System.err.println("Failed to read image: " + inputFile);
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            compress(PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES), out);
+        }
+        System.out.printf("Progressive .byt saved as %s in %.2f ms (%d bytes)%n", outputFile,
+                (System.nanoTime() - startTime) / 1_000_000.0, new File(outputFile).length());
+
+        // Evaluation: cost of each reduced-resolution load against the full decode
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            long levelStart = System.nanoTime();
+            BufferedImage decoded;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(outputFile))) {
+                decoded = decodeScaled(in, level);
+            }
+            System.out.printf("1/%d scale (%dx%d): %.2f ms%n", 1 << level, decoded.getWidth(), decoded.getHeight(),
+                    (System.nanoTime() - levelStart) / 1_000_000.0);
+        }
+    }
+
+    /** Encodes the planes in the progressive layout and writes the Zstd stream to out. */
+    public static void compress(PlanarImage planes, OutputStream out) throws IOException {
+        CodecTrace trace = CodecTrace.start("encode", "progressive");
+        if (trace != null) {
+            out = trace.countOut(out);
+        }
+        long time = trace == null ? 0 : System.nanoTime();
+        int[][] channels = {
+                GameByteCompressor.quantizeChannel(planes.y, GameByteCompressor.LUMINANCE_DIVISORS),
+                GameByteCompressor.quantizeChannel(planes.cb, GameByteCompressor.CHROMINANCE_DIVISORS),
+                GameByteCompressor.quantizeChannel(planes.cr, GameByteCompressor.CHROMINANCE_DIVISORS)
+        };
+        if (trace != null) {
+            long quantized = System.nanoTime();
+            trace.add(CodecTrace.Stage.DCT, quantized - time);
+            time = quantized;
+        }
+
+        OutputStream zos = GameByteCompressor.openZstd(out);
+        if (trace != null) {
+            zos = trace.timeZstd(zos);
+        }
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zos));
+        // Write header
+        dos.writeInt(GameByteCompressor.FORMAT_MAGIC);
+        dos.writeInt(GameByteCompressor.VERSION_PROGRESSIVE);
+        dos.writeInt(planes.width);
+        dos.writeInt(planes.height);
+        dos.writeInt(planes.paddedWidthY);
+        dos.writeInt(planes.paddedHeightY);
+        dos.writeInt(planes.paddedWidthChroma);
+        dos.writeInt(planes.paddedHeightChroma);
+        dos.writeInt(GameByteCompressor.QUALITY_LEVELS.length);
+        for (float level : GameByteCompressor.QUALITY_LEVELS) {
+            dos.writeFloat(level);
+        }
+        dos.writeInt(BAND_STARTS.length);
+        for (int start : BAND_STARTS) {
+            dos.writeInt(start);
+        }
+
+        for (int band = 0; band < BAND_STARTS.length; band++) {
+            int end = band + 1 < BAND_STARTS.length ? BAND_STARTS[band + 1] : COEFFICIENTS;
+            for (int[] coefficients : channels) {
+                writeBand(dos, coefficients, BAND_STARTS[band], end);
+            }
+        }
+        dos.flush();
+        if (trace != null) {
+            // Zstd runs inside the band writes whenever the buffer in front of it fills
+            trace.add(CodecTrace.Stage.PACK, System.nanoTime() - time);
+            trace.exclude(CodecTrace.Stage.PACK, CodecTrace.Stage.ZSTD, 0);
+        }
+        zos.close();
+        if (trace != null) {
+            trace.finish(planes.width, planes.height);
+        }
+    }
+
+    /** Decodes a 1/8-scale preview from the DC band only. */
+    public static BufferedImage decodePreview(InputStream in) throws IOException {
+        return decodeScaled(in, MAX_LEVEL);
+    }
+
+    /** Decodes at 1/2^level scale (level 0 to 3), reading only the bands that scale needs. */
+    public static BufferedImage decodeScaled(InputStream in, int level) throws IOException {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be between 0 and " + MAX_LEVEL);
+        }
+        try (ZstdInputStream zis = GameByteDecompressor.openZstd(in)) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(zis));
+            return decode(dis, readHeader(dis), Integer.MAX_VALUE, level);
+        }
+    }
+
+    /** Decodes at full size from the first bands bands only, e.g. while the rest is still arriving. */
+    public static BufferedImage decodeBands(InputStream in, int bands) throws IOException {
+        try (ZstdInputStream zis = GameByteDecompressor.openZstd(in)) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(zis));
+            return decode(dis, readHeader(dis), bands, 0);
+        }
+    }
+
+    /**
+     * Decodes every mip level from one pass over the stream: levels 0 to 3 come from scaled inverse
+     * transforms of the same coefficients, smaller levels from 2x2 averaging down to 1x1.
+     */
+    public static List<BufferedImage> decodeMipPyramid(InputStream in) throws IOException {
+        try (ZstdInputStream zis = GameByteDecompressor.openZstd(in)) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(zis));
+            GameByteDecompressor.Header header = readHeader(dis);
+            int[][] channels = readCoefficients(dis, header, Integer.MAX_VALUE, COEFFICIENTS);
+            List<BufferedImage> levels = new ArrayList<>();
+            for (int level = 0; level <= MAX_LEVEL; level++) {
+                levels.add(reconstruct(header, channels, COEFFICIENTS, level));
+            }
+            BufferedImage smallest = levels.get(MAX_LEVEL);
+            while (smallest.getWidth() > 1 || smallest.getHeight() > 1) {
+                smallest = halve(smallest);
+                levels.add(smallest);
+            }
+            return levels;
+        }
+    }
+
+    private static GameByteDecompressor.Header readHeader(DataInputStream dis) throws IOException {
+        GameByteDecompressor.Header header = GameByteDecompressor.Header.read(dis);
+        if (header.version != GameByteCompressor.VERSION_PROGRESSIVE) {
+            throw new IOException("Not a progressive .byt file (version " + header.version + ")");
+        }
+        return header;
+    }
+
+    /** Decodes the band section that follows the header; called by GameByteDecompressor for version 3 files. */
+    static BufferedImage decode(DataInputStream dis, GameByteDecompressor.Header header, int maxBands, int level)
+            throws IOException {
+        int kept = LEVEL_COEFFICIENTS[level];
+        return reconstruct(header, readCoefficients(dis, header, maxBands, kept), kept, level);
+    }
+
+    // Reads bands until maxBands or until the first kept zigzag coefficients are complete.
+    // Each channel gets kept coefficients per block; anything above is parsed and dropped.
+    private static int[][] readCoefficients(DataInputStream dis, GameByteDecompressor.Header header,
+                                            int maxBands, int kept) throws IOException {
+        int bandCount = dis.readInt();
+        int[] bandStarts = new int[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            bandStarts[i] = dis.readInt();
+        }
+        int lumaBlocks = blocks(PlanarImage.padToBlock(header.width), PlanarImage.padToBlock(header.height));
+        int chromaBlocks = blocks(PlanarImage.padToBlock((header.width + 1) / 2),
+                PlanarImage.padToBlock((header.height + 1) / 2));
+        int[][] channels = {new int[lumaBlocks * kept], new int[chromaBlocks * kept], new int[chromaBlocks * kept]};
+        int[] scratch = new int[COEFFICIENTS];
+        for (int band = 0; band < Math.min(bandCount, maxBands) && bandStarts[band] < kept; band++) {
+            int end = band + 1 < bandCount ? bandStarts[band + 1] : COEFFICIENTS;
+            for (int[] coefficients : channels) {
+                readBand(dis, coefficients, kept, bandStarts[band], end, scratch);
+            }
+        }
+        return channels;
+    }
+
+    private static int blocks(int paddedWidth, int paddedHeight) {
+        return (paddedWidth / BLOCK_SIZE) * (paddedHeight / BLOCK_SIZE);
+    }
+
+    // Writes zigzag coefficients [start, end) of every block. DC is coded as the difference from the
+    // previous block's DC; other coefficients as a per-block run length followed by the values.
+    private static void writeBand(DataOutputStream dos, int[] coefficients, int start, int end) throws IOException {
+        int previousDc = 0;
+        for (int block = 0; block < coefficients.length; block += COEFFICIENTS) {
+            int from = start;
+            if (start == 0) {
+                writeCoefficient(dos, coefficients[block] - previousDc);
+                previousDc = coefficients[block];
+                from = 1;
+            }
+            if (from >= end) {
+                continue;
+            }
+            int length = 0;
+            for (int i = end - 1; i >= from; i--) {
+                if (coefficients[block + i] != 0) {
+                    length = i - from + 1;
+                    break;
+                }
+            }
+            dos.writeByte(length);
+            for (int i = from; i < from + length; i++) {
+                writeCoefficient(dos, coefficients[block + i]);
+            }
+        }
+    }
+
+    private static void readBand(DataInputStream dis, int[] coefficients, int kept, int start, int end,
+                                 int[] scratch) throws IOException {
+        int previousDc = 0;
+        for (int block = 0; block < coefficients.length; block += kept) {
+            int from = start;
+            if (start == 0) {
+                previousDc += readCoefficient(dis);
+                coefficients[block] = previousDc;
+                from = 1;
+            }
+            if (from >= end) {
+                continue;
+            }
+            int length = dis.readUnsignedByte();
+            if (length > end - from) {
+                throw new IOException("Corrupt progressive band: run of " + length + " in band " + start + "-" + end);
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = readCoefficient(dis);
+            }
+            for (int i = from; i < Math.min(from + length, kept); i++) {
+                coefficients[block + i] = scratch[i - from];
+            }
+        }
+    }
+
+    // Signed byte, or the escape byte -128 followed by the full int
+    private static void writeCoefficient(DataOutputStream dos, int value) throws IOException {
+        if (value > Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            dos.writeByte(value);
+        } else {
+            dos.writeByte(Byte.MIN_VALUE);
+            dos.writeInt(value);
+        }
+    }
+
+    private static int readCoefficient(DataInputStream dis) throws IOException {
+        int value = dis.readByte();
+        return value == Byte.MIN_VALUE ? dis.readInt() : value;
+    }
+
+    // Inverse transforms every block at size (8 >> level) into reduced planes and converts them to RGB
+    private static BufferedImage reconstruct(GameByteDecompressor.Header header, int[][] channels, int kept,
+                                             int level) {
+        int size = BLOCK_SIZE >> level;
+        int scale = 1 << level;
+        PlanarImage.DoublePlane y = reconstructChannel(channels[0], kept, PlanarImage.padToBlock(header.width),
+                PlanarImage.padToBlock(header.height), size, GameByteCompressor.LUMINANCE_QUANT_MATRIX);
+        PlanarImage.DoublePlane cb = reconstructChannel(channels[1], kept, PlanarImage.padToBlock((header.width + 1) / 2),
+                PlanarImage.padToBlock((header.height + 1) / 2), size, GameByteCompressor.CHROMINANCE_QUANT_MATRIX);
+        PlanarImage.DoublePlane cr = reconstructChannel(channels[2], kept, PlanarImage.padToBlock((header.width + 1) / 2),
+                PlanarImage.padToBlock((header.height + 1) / 2), size, GameByteCompressor.CHROMINANCE_QUANT_MATRIX);
+        int width = (header.width + scale - 1) / scale;
+        int height = (header.height + scale - 1) / scale;
+        return new PlanarImage(width, height, y, cb, cr).toImage();
+    }
+
+    private static PlanarImage.DoublePlane reconstructChannel(int[] coefficients, int kept, int paddedWidth,
+                                                             int paddedHeight, int size, int[][] quantMatrix) {
+        int blocksWide = paddedWidth / BLOCK_SIZE;
+        int blocksHigh = paddedHeight / BLOCK_SIZE;
+        PlanarImage.DoublePlane plane = new PlanarImage.DoublePlane(blocksWide * size, blocksHigh * size);
+        if (size == 1) {
+            // DC only: the orthonormal DC coefficient is 8x the block mean, so no transform is needed
+            double dcQuant = quantMatrix[0][0] / (double) BLOCK_SIZE;
+            for (int block = 0; block < blocksWide * blocksHigh; block++) {
+                plane.data[block] = coefficients[block * kept] * dcQuant + 128;
+            }
+            return plane;
+        }
+        // Scaled IDCT: the top-left size x size coefficients, rescaled by size/8, are an orthonormal
+        // DCT of the block downsampled by 8/size. Full size uses the 8x8 block transform instead.
+        BlockDct fullDct = size == BLOCK_SIZE ? new BlockDct() : null;
+        DoubleDCT_2D dct = fullDct == null ? new DoubleDCT_2D(size, size) : null;
+        double[] multipliers = BlockDct.dequantMultipliers(quantMatrix, 1.0, BlockDct.REFERENCE);
+        double[] block = new double[size * size];
+        double rescale = size / (double) BLOCK_SIZE;
+        for (int by = 0; by < blocksHigh; by++) {
+            for (int bx = 0; bx < blocksWide; bx++) {
+                int base = (by * blocksWide + bx) * kept;
+                Arrays.fill(block, 0);
+                for (int i = 0; i < kept; i++) {
+                    int pos = GameByteCompressor.ZIGZAG_ORDER[i];
+                    int row = pos / BLOCK_SIZE;
+                    int col = pos % BLOCK_SIZE;
+                    if (row < size && col < size) {
+                        block[row * size + col] = fullDct != null ? coefficients[base + i] * multipliers[pos]
+                                : (double) coefficients[base + i] * quantMatrix[row][col] * rescale;
+                    }
+                }
+                if (fullDct != null) {
+                    fullDct.inverse(block);
+                } else {
+                    dct.inverse(block, true);
+                }
+                for (int i = 0; i < size; i++) {
+                    int offset = (by * size + i) * plane.width + bx * size;
+                    for (int j = 0; j < size; j++) {
+                        plane.data[offset + j] = block[i * size + j] + 128;
+                    }
+                }
+            }
+        }
+        return plane;
+    }
+
+    // Next mip level: 2x2 box filter, keeping odd edges
+    private static BufferedImage halve(BufferedImage image) {
+        int width = Math.max(1, (image.getWidth() + 1) / 2);
+        int height = Math.max(1, (image.getHeight() + 1) / 2);
+        BufferedImage half = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 0, g = 0, b = 0, count = 0;
+                for (int dy = 0; dy < 2 && y * 2 + dy < image.getHeight(); dy++) {
+                    for (int dx = 0; dx < 2 && x * 2 + dx < image.getWidth(); dx++) {
+                        int rgb = image.getRGB(x * 2 + dx, y * 2 + dy);
+                        r += (rgb >> 16) & 0xFF;
+                        g += (rgb >> 8) & 0xFF;
+                        b += rgb & 0xFF;
+                        count++;
+                    }
+                }
+                half.setRGB(x, y, ((r / count) << 16) | ((g / count) << 8) | (b / count));
+            }
+        }
+        return half;
+    }
+}
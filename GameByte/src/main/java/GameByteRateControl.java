@@ -0,0 +1,342 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Picks the quantizer scale for one texture: the finest scale whose .byt fits a byte budget, or the
+ * coarsest whose decoded image still meets a PSNR or SSIM floor. The forward DCT runs once per image and
+ * its coefficients are kept; each probe of the search only re-quantizes them and then either Zstd-codes
+ * the result (size targets) or inverse transforms it and scores it with QualityMetrics (quality targets).
+ * The winner is written as a version 6 file, which records the scale for the decoder.
+ *
+ * The search bisects log(scale) between MIN_SCALE and MAX_SCALE, since size and quality both fall
+ * roughly geometrically as the steps grow. The cache costs 8 bytes per padded sample, about 12 bytes
+ * per pixel with 4:2:0 chroma.
+ */
+public class GameByteRateControl {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int COEFFICIENTS = BLOCK_SIZE * BLOCK_SIZE;
+    private static final double MIN_SCALE = 0.25;
+    private static final double MAX_SCALE = 16.0;
+    // Bisection stops after MAX_PROBES encodes or once the bracket is within SCALE_TOLERANCE of itself
+    private static final int MAX_PROBES = 12;
+    private static final double SCALE_TOLERANCE = 1.02;
+    private static final int DEFAULT_THREADS = Integer.getInteger("gamebyte.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    public static void main(String[] args) {
+        String inputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset\\10.jpg";
+        String outputFile = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed\\10.byt";
+        Target target = Target.maxBytes(100 * 1024);
+        int threads = DEFAULT_THREADS;
+        // Usage: [--max-bytes n | --min-psnr dB | --min-ssim s | --scale s] [--threads n] <input> <output>
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--max-bytes" -> target = Target.maxBytes(Long.parseLong(args[++i]));
+                case "--min-psnr" -> target = Target.minPsnr(Double.parseDouble(args[++i]));
+                case "--min-ssim" -> target = Target.minSsim(Double.parseDouble(args[++i]));
+                case "--scale" -> target = Target.fixedScale(Double.parseDouble(args[++i]));
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> positional.add(args[i]);
+            }
+        }
+        if (positional.size() >= 2) {
+            inputFile = positional.get(0);
+            outputFile = positional.get(1);
+        }
+
+        try {
+            BufferedImage image = ImageIO.read(new File(inputFile));
+            if (image == null) {
+                System.err.println("Failed to read image: " + inputFile);
+                return;
+            }
+            long startTime = System.nanoTime();
+            Result result = encode(PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES), target, threads);
+            try (OutputStream out = new FileOutputStream(outputFile)) {
+                out.write(result.bytes);
+            }
+            long endTime = System.nanoTime();
+            System.out.println("Image Compressed Successfully and Saved as: " + outputFile);
+
+            //Evaluation
+            System.out.printf("Target: %s (%s)%n", target, result.met ? "met" : "not reachable, closest scale used");
+            System.out.printf("Scale: %.4f after %d probes%n", result.scale, result.probes);
+            System.out.printf("Compressed File Size: %d bytes (%.2f KB)%n", result.bytes.length, result.bytes.length / 1024.0);
+            if (result.quality != null) {
+                System.out.println(result.quality);
+            }
+            System.out.printf("Time taken: %.2f ms (%d threads)%n", (endTime - startTime) / 1_000_000.0, threads);
+        } catch (IOException e) {
+            System.err.println("Error during compression: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /** Searches for the scale that meets target and returns that encode. */
+    public static Result encode(PlanarImage planes, Target target, int threads) throws IOException {
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            return new Search(planes, target, pool, threads).run();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** What the search aims for; exactly one of the limits is set. */
+    public record Target(long maxBytes, double minPsnr, double minSsim, double scale) {
+
+        public static Target maxBytes(long bytes) {
+            return new Target(bytes, Double.NaN, Double.NaN, Double.NaN);
+        }
+
+        /** Floor on the 6:1:1 weighted PSNR, in dB. */
+        public static Target minPsnr(double psnr) {
+            return new Target(0, psnr, Double.NaN, Double.NaN);
+        }
+
+        /** Floor on the 6:1:1 weighted SSIM. */
+        public static Target minSsim(double ssim) {
+            return new Target(0, Double.NaN, ssim, Double.NaN);
+        }
+
+        /** No search: encode at exactly this scale. */
+        public static Target fixedScale(double scale) {
+            return new Target(0, Double.NaN, Double.NaN, scale);
+        }
+
+        boolean bySize() {
+            return maxBytes > 0;
+        }
+
+        @Override
+        public String toString() {
+            if (bySize()) {
+                return "at most " + maxBytes + " bytes";
+            }
+            if (!Double.isNaN(minPsnr)) {
+                return String.format(Locale.ROOT, "PSNR at least %.2f dB", minPsnr);
+            }
+            if (!Double.isNaN(minSsim)) {
+                return String.format(Locale.ROOT, "SSIM at least %.5f", minSsim);
+            }
+            return String.format(Locale.ROOT, "scale %.4f", scale);
+        }
+    }
+
+    /**
+     * The chosen encode. met is false when even the end of the scale range misses the target, in which case
+     * the closest end was used. quality is only measured for quality targets.
+     */
+    public static final class Result {
+        public final byte[] bytes;
+        public final double scale;
+        public final int probes;
+        public final boolean met;
+        public final QualityMetrics.Report quality;
+
+        Result(byte[] bytes, double scale, int probes, boolean met, QualityMetrics.Report quality) {
+            this.bytes = bytes;
+            this.scale = scale;
+            this.probes = probes;
+            this.met = met;
+            this.quality = quality;
+        }
+    }
+
+    private static final class Search {
+        private final PlanarImage planes;
+        private final Target target;
+        private final ForkJoinPool pool;
+        private final int threads;
+        // Forward DCT output, zigzag order, 64 per block, blocks in raster order
+        private final double[] lumaCoefficients;
+        private final double[] cbCoefficients;
+        private final double[] crCoefficients;
+        private int probes;
+
+        Search(PlanarImage planes, Target target, ForkJoinPool pool, int threads) throws IOException {
+            this.planes = planes;
+            this.target = target;
+            this.pool = pool;
+            this.threads = threads;
+            lumaCoefficients = transform(planes.y);
+            cbCoefficients = transform(planes.cb);
+            crCoefficients = transform(planes.cr);
+        }
+
+        Result run() throws IOException {
+            if (!Double.isNaN(target.scale)) {
+                return new Result(entropyCode((float) target.scale), (float) target.scale, 1, true, null);
+            }
+            // Size passes at coarse scales and quality at fine ones; the answer is the boundary between them
+            Probe passing = probe(target.bySize() ? MAX_SCALE : MIN_SCALE);
+            if (!passing.meets) {
+                return finish(passing, false);
+            }
+            Probe failing = probe(target.bySize() ? MIN_SCALE : MAX_SCALE);
+            if (failing.meets) {
+                return finish(failing, true);
+            }
+            while (probes < MAX_PROBES
+                    && Math.max(passing.scale, failing.scale) / Math.min(passing.scale, failing.scale) > SCALE_TOLERANCE) {
+                Probe middle = probe(Math.sqrt(passing.scale * failing.scale));
+                if (middle.meets) {
+                    passing = middle;
+                } else {
+                    failing = middle;
+                }
+            }
+            return finish(passing, true);
+        }
+
+        private Result finish(Probe probe, boolean met) throws IOException {
+            byte[] bytes = probe.bytes != null ? probe.bytes : entropyCode((float) probe.scale);
+            return new Result(bytes, probe.scale, probes, met, probe.quality);
+        }
+
+        // One trial scale: size targets pay for quantize + Zstd, quality targets for quantize + inverse DCT + scoring
+        private Probe probe(double scale) throws IOException {
+            float stored = (float) scale;
+            probes++;
+            if (target.bySize()) {
+                byte[] bytes = entropyCode(stored);
+                return new Probe(stored, bytes.length <= target.maxBytes, bytes, null);
+            }
+            // Through RGB like a real decode, so the score includes its rounding and clamping
+            PlanarImage decoded = PlanarImage.fromImage(reconstruct(stored).toImage(), false);
+            QualityMetrics.Report report = QualityMetrics.compare(planes, decoded, threads);
+            boolean meets = !Double.isNaN(target.minPsnr) ? report.psnr() >= target.minPsnr
+                    : report.ssim() >= target.minSsim;
+            return new Probe(stored, meets, null, report);
+        }
+
+        private byte[] entropyCode(float scale) throws IOException {
+            double[] lumaDivisors = BlockDct.quantDivisors(GameByteCompressor.LUMINANCE_QUANT_MATRIX, scale, BlockDct.REFERENCE);
+            double[] chromaDivisors = BlockDct.quantDivisors(GameByteCompressor.CHROMINANCE_QUANT_MATRIX, scale, BlockDct.REFERENCE);
+            int[] y = quantize(lumaCoefficients, lumaDivisors);
+            int[] cb = quantize(cbCoefficients, chromaDivisors);
+            int[] cr = quantize(crCoefficients, chromaDivisors);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(y.length / 4);
+            GameByteCompressor.compressQuantized(planes.width, planes.height, scale, y, cb, cr, out);
+            return out.toByteArray();
+        }
+
+        // The planes a decoder would produce at scale, without going through the bitstream
+        private PlanarImage reconstruct(float scale) throws IOException {
+            PlanarImage decoded = new PlanarImage(planes.width, planes.height, false);
+            reconstructChannel(lumaCoefficients, scale, GameByteCompressor.LUMINANCE_QUANT_MATRIX, decoded.y);
+            reconstructChannel(cbCoefficients, scale, GameByteCompressor.CHROMINANCE_QUANT_MATRIX, decoded.cb);
+            reconstructChannel(crCoefficients, scale, GameByteCompressor.CHROMINANCE_QUANT_MATRIX, decoded.cr);
+            return decoded;
+        }
+
+        private void reconstructChannel(double[] coefficients, float scale, int[][] quantMatrix, PlanarImage.Plane plane)
+                throws IOException {
+            double[] divisors = BlockDct.quantDivisors(quantMatrix, scale, BlockDct.REFERENCE);
+            double[] multipliers = BlockDct.dequantMultipliers(quantMatrix, scale, BlockDct.REFERENCE);
+            int blocksWide = plane.width / BLOCK_SIZE;
+            forEachBlockRow(plane.height / BLOCK_SIZE, (fromRow, toRow) -> {
+                double[] block = new double[COEFFICIENTS];
+                BlockDct dct = new BlockDct();
+                for (int row = fromRow; row < toRow; row++) {
+                    for (int column = 0; column < blocksWide; column++) {
+                        int offset = (row * blocksWide + column) * COEFFICIENTS;
+                        for (int i = 0; i < COEFFICIENTS; i++) {
+                            int pos = GameByteCompressor.ZIGZAG_ORDER[i];
+                            block[pos] = Math.round(coefficients[offset + i] / divisors[pos]) * multipliers[pos];
+                        }
+                        dct.inverse(block);
+                        plane.storeBlock(column * BLOCK_SIZE, row * BLOCK_SIZE, block);
+                    }
+                }
+            });
+        }
+
+        // Same rounding as GameByteCompressor.quantizeBlock, so a probe's bytes match a direct encode at that scale
+        private int[] quantize(double[] coefficients, double[] divisors) throws IOException {
+            double[] zigZagDivisors = new double[COEFFICIENTS];
+            for (int i = 0; i < COEFFICIENTS; i++) {
+                zigZagDivisors[i] = divisors[GameByteCompressor.ZIGZAG_ORDER[i]];
+            }
+            int[] quantized = new int[coefficients.length];
+            int blocks = coefficients.length / COEFFICIENTS;
+            forEachBlockRow(blocks, (from, to) -> {
+                for (int offset = from * COEFFICIENTS; offset < to * COEFFICIENTS; offset += COEFFICIENTS) {
+                    for (int i = 0; i < COEFFICIENTS; i++) {
+                        quantized[offset + i] = (int) Math.round(coefficients[offset + i] / zigZagDivisors[i]);
+                    }
+                }
+            });
+            return quantized;
+        }
+
+        private double[] transform(PlanarImage.Plane plane) throws IOException {
+            int blocksWide = plane.width / BLOCK_SIZE;
+            double[] coefficients = new double[blocksWide * (plane.height / BLOCK_SIZE) * COEFFICIENTS];
+            forEachBlockRow(plane.height / BLOCK_SIZE, (fromRow, toRow) -> {
+                double[] block = new double[COEFFICIENTS];
+                BlockDct dct = new BlockDct();
+                for (int row = fromRow; row < toRow; row++) {
+                    for (int column = 0; column < blocksWide; column++) {
+                        plane.loadBlock(column * BLOCK_SIZE, row * BLOCK_SIZE, block);
+                        dct.forward(block);
+                        int offset = (row * blocksWide + column) * COEFFICIENTS;
+                        for (int i = 0; i < COEFFICIENTS; i++) {
+                            coefficients[offset + i] = block[GameByteCompressor.ZIGZAG_ORDER[i]];
+                        }
+                    }
+                }
+            });
+            return coefficients;
+        }
+
+        // Splits [0, count) into one chunk per thread; each chunk writes a disjoint part of the output
+        private void forEachBlockRow(int count, RangeTask task) throws IOException {
+            if (pool == null || count < 2) {
+                task.run(0, count);
+                return;
+            }
+            int chunks = Math.min(count, threads * 4);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                int from = (int) ((long) count * c / chunks);
+                int to = (int) ((long) count * (c + 1) / chunks);
+                tasks.add(pool.submit(() -> task.run(from, to)));
+            }
+            for (ForkJoinTask<?> forked : tasks) {
+                try {
+                    forked.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted during rate control");
+                } catch (ExecutionException e) {
+                    throw new IOException("Rate control failed", e.getCause());
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private record Probe(double scale, boolean meets, byte[] bytes, QualityMetrics.Report quality) {
+    }
+}
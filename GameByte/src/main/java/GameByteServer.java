@@ -0,0 +1,421 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running local compression service on the JDK's HTTP server. Connections are handled on virtual
+ * threads, which only read request bodies and write responses; the encoding and decoding itself runs on
+ * a fixed pool of platform worker threads fed from a bounded queue. The workers live as long as the
+ * server, so the codec's per-thread scratch (block buffers, Zstd contexts) is allocated once per worker
+ * and reused by every request, and each worker encodes and decodes a small image at start so the first
+ * real request does not pay for class loading and JIT warm-up. Raw decoded pixels come from one shared
+ * DirectBufferPool.
+ *
+ * At most workers + queueCapacity requests are admitted at once, counted from before their body is read,
+ * so neither the queue nor the buffered bodies can grow without bound; anything over that gets 503 with
+ * Retry-After straight away rather than waiting.
+ *
+ * Endpoints:
+ * POST /encode?layout=channels|segmented|adaptive|huffman with an image ImageIO can read, or raw pixels
+ *      with &width=w&height=h&format=rgb|rgba, returns the .byt (application/octet-stream). &scale=s
+ *      multiplies the quantizer steps; only the channels layout, the default, can store it.
+ * POST /decode?format=png|jpg|rgb|rgba with a .byt returns the image, with X-Width and X-Height headers;
+ *      rgb and rgba are tightly packed rows, top to bottom.
+ * GET /metrics returns request, rejection and error counts, in-flight requests, latency and queue-wait
+ *      percentiles per endpoint, then the codec's own metrics.
+ * Bad parameters or an undecodable .byt give 400, an unreadable image 415 and a body over
+ * -Dgamebyte.serverMaxBodyMB (default 64) 413.
+ */
+public class GameByteServer implements AutoCloseable {
+
+    private static final long MAX_BODY_BYTES = Long.getLong("gamebyte.serverMaxBodyMB", 64) * 1024 * 1024;
+    private static final int WARMUP_SIZE = 64;
+    // Decoded pixels only live until they have been written to the response
+    private static final long POOL_BYTES = 256L * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private final ThreadPoolExecutor workers;
+    private final Semaphore admitted;
+    private final DirectBufferPool buffers = new DirectBufferPool(POOL_BYTES);
+    private final InMemoryMetrics metrics = new InMemoryMetrics();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private GameByteServer(HttpServer server, int workerCount, int queueCapacity) {
+        this.server = server;
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "gamebyte-server-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        admitted = new Semaphore(workerCount + queueCapacity);
+    }
+
+    public static void main(String[] args) {
+        int port = 8420;
+        int workerCount = Integer.getInteger("gamebyte.threads", Runtime.getRuntime().availableProcessors());
+        int queueCapacity = 0;
+        // Usage: [--port n] [--workers n] [--queue n]; port 0 picks a free one, the queue defaults to 4 per worker
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--workers" -> workerCount = Integer.parseInt(args[++i]);
+                case "--queue" -> queueCapacity = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+        if (queueCapacity == 0) {
+            queueCapacity = workerCount * 4;
+        }
+        // Read request images from memory instead of through a temporary file each
+        ImageIO.setUseCache(false);
+
+        try {
+            long startTime = System.nanoTime();
+            GameByteServer server = start(port, workerCount, queueCapacity);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            System.out.printf("GameByte service listening on http://%s:%d (%d workers, queue %d), warmed up in %.2f ms%n",
+                    server.address().getHostString(), server.address().getPort(), workerCount, queueCapacity,
+                    (System.nanoTime() - startTime) / 1_000_000.0);
+        } catch (IOException e) {
+            System.err.println("Error starting service: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts a server on the loopback address (port 0 for any free port) with workerCount codec threads
+     * and room for queueCapacity waiting requests, and returns once every worker has warmed up. Codec
+     * metrics go to an InMemoryMetrics unless some CodecMetrics is installed already.
+     */
+    public static GameByteServer start(int port, int workerCount, int queueCapacity) throws IOException {
+        if (workerCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Workers and queue capacity must be at least 1");
+        }
+        if (CodecMetrics.installed() == null) {
+            CodecMetrics.install(new InMemoryMetrics());
+        }
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        GameByteServer server = new GameByteServer(http, workerCount, queueCapacity);
+        server.warmUp();
+        http.setExecutor(server.connections);
+        http.createContext("/encode", exchange -> server.serve(exchange, "encode", "POST", server::encode));
+        http.createContext("/decode", exchange -> server.serve(exchange, "decode", "POST", server::decode));
+        http.createContext("/metrics", server::metrics);
+        http.start();
+        return server;
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    /** The service's own counters and latency histograms (service.*); codec metrics go to CodecMetrics. */
+    public InMemoryMetrics metrics() {
+        return metrics;
+    }
+
+    /** Stops accepting requests, gives the ones in progress a second to finish and stops the workers. */
+    @Override
+    public void close() {
+        server.stop(1);
+        workers.shutdown();
+        connections.shutdown();
+    }
+
+    // Every worker encodes and decodes one image, all at once so that each task lands on its own thread
+    private void warmUp() throws IOException {
+        BufferedImage image = new BufferedImage(WARMUP_SIZE, WARMUP_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < WARMUP_SIZE; y++) {
+            for (int x = 0; x < WARMUP_SIZE; x++) {
+                image.setRGB(x, y, (x * 4) << 16 | (y * 4) << 8 | (x ^ y) * 4);
+            }
+        }
+        int workerCount = workers.getCorePoolSize();
+        CountDownLatch started = new CountDownLatch(workerCount);
+        Future<?>[] tasks = new Future<?>[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            tasks[i] = workers.submit(() -> {
+                started.countDown();
+                started.await();
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                GameByteCompressor.compress(image, encoded, 1);
+                GameByteDecompressor.decompress(new ByteArrayInputStream(encoded.toByteArray()));
+                return null;
+            });
+        }
+        CodecMetrics codecMetrics = CodecMetrics.installed();
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during warm-up");
+        } catch (ExecutionException e) {
+            throw new IOException("Warm-up failed", e.getCause());
+        } finally {
+            // The warm-up images are not traffic
+            if (codecMetrics instanceof InMemoryMetrics inMemory) {
+                inMemory.reset();
+            }
+        }
+    }
+
+    /**
+     * Admits the request if there is room, reads its body on the connection's thread, runs handler on a
+     * worker and writes what it returns; latency is measured from arrival to the last byte sent.
+     */
+    private void serve(HttpExchange exchange, String endpoint, String method, Handler handler) throws IOException {
+        long arrived = System.nanoTime();
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                sendText(exchange, 405, method + " only\n");
+                return;
+            }
+            if (!admitted.tryAcquire()) {
+                reject(exchange, endpoint);
+                return;
+            }
+            inFlight.incrementAndGet();
+            try {
+                metrics.count("service." + endpoint + ".requests", 1);
+                Map<String, String> query = query(exchange);
+                byte[] body = readBody(exchange);
+                if (body == null) {
+                    metrics.count("service." + endpoint + ".errors", 1);
+                    sendText(exchange, 413, "Body larger than " + MAX_BODY_BYTES + " bytes\n");
+                    return;
+                }
+                Future<Reply> task;
+                try {
+                    task = workers.submit(() -> {
+                        metrics.record("service." + endpoint + ".queueNanos", System.nanoTime() - arrived);
+                        return handler.handle(query, body);
+                    });
+                } catch (RejectedExecutionException e) {
+                    reject(exchange, endpoint);
+                    return;
+                }
+                Reply reply;
+                try {
+                    reply = task.get();
+                } catch (ExecutionException e) {
+                    metrics.count("service." + endpoint + ".errors", 1);
+                    Throwable cause = e.getCause();
+                    int status = cause instanceof ReplyException failure ? failure.status
+                            : cause instanceof IllegalArgumentException || cause instanceof IOException ? 400 : 500;
+                    String message = cause.getMessage();
+                    sendText(exchange, status, (message != null ? message : cause.getClass().getSimpleName()) + "\n");
+                    return;
+                }
+                reply.send(exchange);
+                metrics.record("service." + endpoint + ".nanos", System.nanoTime() - arrived);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                admitted.release();
+            }
+        }
+    }
+
+    private Reply encode(Map<String, String> query, byte[] body) throws IOException {
+        BufferedImage image;
+        if (query.containsKey("width")) {
+            image = rawImage(body, intParam(query, "width"), intParam(query, "height"), query.getOrDefault("format", "rgb"));
+        } else {
+            long readStart = System.nanoTime();
+            image = ImageIO.read(new ByteArrayInputStream(body));
+            CodecTrace.stage("encode", CodecTrace.Stage.READ, System.nanoTime() - readStart);
+            if (image == null) {
+                throw new ReplyException(415, "Not an image ImageIO can read");
+            }
+        }
+        String layout = query.getOrDefault("layout", "channels");
+        double scale = query.containsKey("scale") ? Double.parseDouble(query.get("scale")) : GameByteCompressor.BASE_QUALITY;
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("scale must be positive");
+        }
+        if (query.containsKey("scale") && !layout.equals("channels")) {
+            throw new IllegalArgumentException("scale is only supported by the channels layout");
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(body.length / 2 + 64);
+        // One thread per request: the service gets its parallelism from serving requests side by side
+        switch (layout) {
+            case "channels" -> GameByteCompressor.compress(PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES),
+                    encoded, 1, scale);
+            case "segmented" -> GameByteCompressor.compressSegmented(
+                    PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES), encoded,
+                    GameByteCompressor.SEGMENT_MCU_ROWS, 1);
+            case "adaptive" -> GameByteAdaptive.compress(PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES), encoded);
+            case "huffman" -> GameByteHuffman.compress(PlanarImage.fromImage(image, GameByteCompressor.FLOAT_PLANES), encoded);
+            default -> throw new IllegalArgumentException("layout must be channels, segmented, adaptive or huffman");
+        }
+        return new Reply("application/octet-stream", image.getWidth(), image.getHeight(), encoded, null);
+    }
+
+    private Reply decode(Map<String, String> query, byte[] body) throws IOException {
+        String format = query.getOrDefault("format", "png");
+        InputStream in = new ByteArrayInputStream(body);
+        switch (format) {
+            case "rgb", "rgba" -> {
+                GameByteDecompressor.PixelFormat pixelFormat = format.equals("rgb")
+                        ? GameByteDecompressor.PixelFormat.RGB8 : GameByteDecompressor.PixelFormat.RGBA8;
+                GameByteDecompressor.DecodedPixels pixels = GameByteDecompressor.decompress(in, pixelFormat, buffers);
+                return new Reply("application/octet-stream", pixels.width, pixels.height, null, pixels);
+            }
+            case "png", "jpg" -> {
+                BufferedImage image = GameByteDecompressor.decompress(in);
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream(image.getWidth() * image.getHeight());
+                ImageIO.write(image, format, encoded);
+                return new Reply(format.equals("png") ? "image/png" : "image/jpeg", image.getWidth(), image.getHeight(),
+                        encoded, null);
+            }
+            default -> throw new IllegalArgumentException("format must be png, jpg, rgb or rgba");
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendText(exchange, 405, "GET only\n");
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "%-36s %14d%n", "service.inFlight", inFlight.get()));
+            sb.append(String.format(Locale.ROOT, "%-36s %14d%n", "service.queued", workers.getQueue().size()));
+            sb.append(metrics.report());
+            if (CodecMetrics.installed() instanceof InMemoryMetrics codecMetrics) {
+                sb.append("\nCodec metrics:\n").append(codecMetrics.report());
+            }
+            sendText(exchange, 200, sb.toString());
+        }
+    }
+
+    private void reject(HttpExchange exchange, String endpoint) throws IOException {
+        metrics.count("service." + endpoint + ".rejected", 1);
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendText(exchange, 503, "Busy, try again\n");
+    }
+
+    // The whole body, or null if it is over MAX_BODY_BYTES
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes((int) Math.min(MAX_BODY_BYTES + 1, Integer.MAX_VALUE - 8));
+            return body.length > MAX_BODY_BYTES ? null : body;
+        }
+    }
+
+    // Packed 8-bit RGB or RGBA rows into an RGB image; alpha is dropped as the codec never stores it
+    private static BufferedImage rawImage(byte[] body, int width, int height, String format) {
+        int bytesPerPixel = switch (format) {
+            case "rgb" -> 3;
+            case "rgba" -> 4;
+            default -> throw new IllegalArgumentException("format must be rgb or rgba");
+        };
+        if (width <= 0 || height <= 0 || (long) width * height * bytesPerPixel != body.length) {
+            throw new IllegalArgumentException("Body is " + body.length + " bytes, not " + width + "x" + height
+                    + " " + format + " pixels");
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0, p = 0; i < pixels.length; i++, p += bytesPerPixel) {
+            pixels[i] = (body[p] & 0xFF) << 16 | (body[p + 1] & 0xFF) << 8 | body[p + 2] & 0xFF;
+        }
+        return image;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static int intParam(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return Integer.parseInt(value);
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private interface Handler {
+        Reply handle(Map<String, String> query, byte[] body) throws IOException;
+    }
+
+    /** A finished encode or decode: the bytes to send, or decoded pixels to send and hand back to the pool. */
+    private record Reply(String contentType, int width, int height, ByteArrayOutputStream bytes,
+                         GameByteDecompressor.DecodedPixels pixels) {
+
+        void send(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.getResponseHeaders().set("X-Width", Integer.toString(width));
+            exchange.getResponseHeaders().set("X-Height", Integer.toString(height));
+            if (pixels == null) {
+                exchange.sendResponseHeaders(200, bytes.size());
+                bytes.writeTo(exchange.getResponseBody());
+                return;
+            }
+            try (pixels) {
+                exchange.sendResponseHeaders(200, pixels.pixels.remaining());
+                Channels.newChannel(exchange.getResponseBody()).write(pixels.pixels);
+            }
+        }
+    }
+
+    /** A request that fails with a particular status rather than 400 or 500. */
+    private static final class ReplyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ReplyException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -1,62 +1,55 @@
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 import javax.imageio.ImageIO;
 
+/**
+ * Palette .byt layout (format version 8), the fast mode for UI sprites: every pixel is quantized to one
+ * RGB332 byte, each row is delta filtered against its left neighbour, and the image is cut into stripes
+ * of whole rows that are Deflated independently, pigz-style, so both ends run one stripe per core.
+ *
+ * Layout, big-endian: magic, version, width, height, rows per stripe, stripe count, then stripe count + 1
+ * offsets from the end of the table (stripe i spans [offset i, offset i + 1)) and the zlib stripes.
+ * Files from the original encoder (a bare GZIP stream of one 640x480 image) are still read by decompress.
+ */
 public class GameByteVer1 {
 
-    // Hardcoded dimensions (needs improvement for improved usability, but may require header).
-    private static final int WIDTH = 640;
-    private static final int HEIGHT = 480;
+    // The original .byt1 files had no header and were always this size
+    private static final int LEGACY_WIDTH = 640;
+    private static final int LEGACY_HEIGHT = 480;
+    // Roughly pigz's 128 KB of input per independently compressed stripe, -Dgamebyte.paletteStripeRows to override
+    private static final int STRIPE_BYTES = 128 * 1024;
+    private static final int STRIPE_ROWS = Integer.getInteger("gamebyte.paletteStripeRows", 0);
+    private static final int DEFAULT_THREADS = Integer.getInteger("gamebyte.threads",
+            Runtime.getRuntime().availableProcessors());
 
     private static final String INPUT_FILE = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Dataset\\10.jpg";
     private static final String COMPRESSED_FILE = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed\\10.byt1";
     private static final String DECOMPRESSED_FILE = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Uncompressed\\10ver1.jpg";
 
     public static void main(String[] args) throws IOException {
-        compress();
-        decompress();
+        // Optional: input image, compressed file, decompressed image, threads
+        String inputFile = args.length >= 3 ? args[0] : INPUT_FILE;
+        String compressedFile = args.length >= 3 ? args[1] : COMPRESSED_FILE;
+        String decompressedFile = args.length >= 3 ? args[2] : DECOMPRESSED_FILE;
+        int threads = args.length >= 4 ? Integer.parseInt(args[3]) : DEFAULT_THREADS;
+        compress(inputFile, compressedFile, threads);
+        decompress(compressedFile, decompressedFile, threads);
     }
 
-    public static void compress() throws IOException {
+    public static void compress(String inputFile, String compressedFile, int threads) throws IOException {
         // Load image using ImageIO
         long startTime = System.nanoTime();
-        BufferedImage img = ImageIO.read(new File(INPUT_FILE));
-        int width = img.getWidth();
-        int height = img.getHeight();
-
-        // Step 1: Quantize pixels into rawData
-        byte[] rawData = new byte[width * height];
-        int index = 0;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = img.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF; // Red (0-255)
-                int g = (rgb >> 8) & 0xFF;  // Green (0-255)
-                int b = rgb & 0xFF;         // Blue (0-255)
-                int rQuant = (r / 36) & 0x07; // 3 bits (0-7)
-                int gQuant = (g / 36) & 0x07; // 3 bits (0-7)
-                int bQuant = (b / 85) & 0x03; // 2 bits (0-3)
-                int packedColor = (rQuant << 5) | (gQuant << 2) | bQuant;
-                rawData[index++] = (byte) packedColor;
-            }
-        }
-
-        // Step 2: Delta encoding
-        byte[] filteredData = new byte[rawData.length];
-        filteredData[0] = rawData[0]; // First pixel unchanged
-        for (int i = 1; i < rawData.length; i++) {
-            int curr = rawData[i] & 0xFF;
-            int prev = rawData[i - 1] & 0xFF;
-            int diff = (curr - prev) & 0xFF;
-            filteredData[i] = (byte) diff;
-        }
-
-        // Step 3: Compress with GZIP
-        try (FileOutputStream fos = new FileOutputStream(COMPRESSED_FILE);
-             GZIPOutputStream gzipOut = new GZIPOutputStream(fos)) {
-            gzipOut.write(filteredData);
+        BufferedImage img = ImageIO.read(new File(inputFile));
+        try (OutputStream out = new FileOutputStream(compressedFile)) {
+            compress(img, out, threads);
         }
 
         long endTime = System.nanoTime();
@@ -64,66 +57,240 @@ public class GameByteVer1 {
         double timeTakenMs = (endTime - startTime) / 1_000_000.0;
         double timeTakenS = (endTime - startTime) / 1_000_000_000.0;
 
-        System.out.println("Image compressed and saved as " + COMPRESSED_FILE);
-        System.out.printf("\nTime taken to compress: %.2f ms%n", timeTakenMs);
+        System.out.println("Image compressed and saved as " + compressedFile);
+        System.out.printf("\nTime taken to compress: %.2f ms (%d threads)%n", timeTakenMs, threads);
         System.out.println(String.format("%.2f", timeTakenS) + " seconds.");
 
         //Output size
-        File compressedFile = new File(COMPRESSED_FILE);
-        long fileSizeBytes = compressedFile.length();
+        File compressed = new File(compressedFile);
+        long fileSizeBytes = compressed.length();
         double fileSizeKB = fileSizeBytes / 1024.0;
         System.out.println("Compressed File Size: "
                 + fileSizeBytes + " bytes (" + String.format("%.2f", fileSizeKB) + " KB)");
     }
 
-    public static void decompress() throws IOException {
-        // Step 1: Decompress with GZIP
-        byte[] filteredData;
-        try (FileInputStream fis = new FileInputStream(COMPRESSED_FILE);
-             GZIPInputStream gzipIn = new GZIPInputStream(fis)) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = gzipIn.read(buffer)) > 0) {
-                baos.write(buffer, 0, len);
+    public static void decompress(String compressedFile, String decompressedFile, int threads) throws IOException {
+        long startTime = System.nanoTime();
+        BufferedImage image;
+        try (InputStream in = new FileInputStream(compressedFile)) {
+            image = decompress(in, threads);
+        }
+        System.out.printf("\nTime taken to decompress: %.2f ms (%d threads)%n",
+                (System.nanoTime() - startTime) / 1_000_000.0, threads);
+
+        // Save as JPG
+        ImageIO.write(image, "jpg", new File(decompressedFile));
+        System.out.println("Image decompressed and saved as " + decompressedFile);
+    }
+
+    /** Encodes image as a version 8 palette file; out is left open. */
+    public static void compress(BufferedImage image, OutputStream out, int threads) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int stripeRows = STRIPE_ROWS > 0 ? STRIPE_ROWS : Math.max(1, STRIPE_BYTES / width);
+        int stripeCount = (height + stripeRows - 1) / stripeRows;
+        byte[][] stripes = new byte[stripeCount][];
+        runStripes(stripeCount, threads, stripe -> stripes[stripe] = encodeStripe(image, stripe * stripeRows,
+                Math.min(stripeRows, height - stripe * stripeRows)));
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new GameByteCompressor.NonClosingOutputStream(out)));
+        dos.writeInt(GameByteCompressor.FORMAT_MAGIC);
+        dos.writeInt(GameByteCompressor.VERSION_PALETTE);
+        dos.writeInt(width);
+        dos.writeInt(height);
+        dos.writeInt(stripeRows);
+        dos.writeInt(stripeCount);
+        int offset = 0;
+        dos.writeInt(offset);
+        for (byte[] stripe : stripes) {
+            offset += stripe.length;
+            dos.writeInt(offset);
+        }
+        for (byte[] stripe : stripes) {
+            dos.write(stripe);
+        }
+        dos.flush();
+    }
+
+    /** Reads a palette file, or an original headerless GZIP .byt1. */
+    public static BufferedImage decompress(InputStream in, int threads) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int signature = (buffered.read() << 8) | buffered.read();
+        buffered.reset();
+        // GZIP streams start 1f 8b; palette files start with the .byt magic
+        if (signature == 0x1F8B) {
+            return decodeLegacy(buffered);
+        }
+        DataInputStream dis = new DataInputStream(buffered);
+        if (dis.readInt() != GameByteCompressor.FORMAT_MAGIC || dis.readInt() != GameByteCompressor.VERSION_PALETTE) {
+            throw new IOException("Not a palette .byt file");
+        }
+        return decode(dis, threads);
+    }
+
+    /** Decodes a version 8 file; dis is positioned just after the magic and version. */
+    static BufferedImage decode(DataInputStream dis, int threads) throws IOException {
+        int width = dis.readInt();
+        int height = dis.readInt();
+        int stripeRows = dis.readInt();
+        int stripeCount = dis.readInt();
+        if (width <= 0 || height <= 0 || stripeRows <= 0 || stripeCount != (height + stripeRows - 1) / stripeRows) {
+            throw new IOException("Corrupt palette .byt header");
+        }
+        int[] offsets = new int[stripeCount + 1];
+        for (int i = 0; i <= stripeCount; i++) {
+            offsets[i] = dis.readInt();
+            if (i > 0 && offsets[i] < offsets[i - 1]) {
+                throw new IOException("Corrupt palette .byt stripe table");
             }
-            filteredData = baos.toByteArray();
         }
+        byte[] payload = new byte[offsets[stripeCount]];
+        dis.readFully(payload);
+
+        // Stripes cover disjoint rows, so every task writes straight into the shared raster
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        runStripes(stripeCount, threads, stripe -> {
+            int top = stripe * stripeRows;
+            decodeStripe(payload, offsets[stripe], offsets[stripe + 1] - offsets[stripe], width,
+                    Math.min(stripeRows, height - top), pixels, top * width);
+        });
+        return image;
+    }
+
+    // Quantizes and delta filters rows [top, top + rows) and Deflates them as one zlib stream
+    private static byte[] encodeStripe(BufferedImage image, int top, int rows) throws IOException {
+        int width = image.getWidth();
+        PlanarImage.RowReader reader = PlanarImage.RowReader.forImage(image);
+        int[] rgbRow = new int[width];
+        byte[] filtered = new byte[width * rows];
+        for (int y = 0; y < rows; y++) {
+            reader.read(top + y, rgbRow);
+            // Each row starts from zero, so no stripe depends on the one above
+            int prev = 0;
+            for (int x = 0; x < width; x++) {
+                int curr = quantize(rgbRow[x]);
+                filtered[y * width + x] = (byte) (curr - prev);
+                prev = curr;
+            }
+        }
+
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(filtered);
+            deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(filtered.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Inflates one stripe and writes its rows, reversing the delta filter, at pixels[offset]
+    private static void decodeStripe(byte[] payload, int start, int length, int width, int rows,
+                                     int[] pixels, int offset) throws IOException {
+        byte[] filtered = new byte[width * rows];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload, start, length);
+            int filled = 0;
+            while (filled < filtered.length) {
+                int n = inflater.inflate(filtered, filled, filtered.length - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Truncated palette .byt stripe");
+                }
+                filled += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt palette .byt stripe", e);
+        } finally {
+            inflater.end();
+        }
+        for (int y = 0; y < rows; y++) {
+            int curr = 0;
+            for (int x = y * width; x < (y + 1) * width; x++) {
+                curr = (curr + filtered[x]) & 0xFF;
+                pixels[offset + x] = expand(curr);
+            }
+        }
+    }
+
+    // The original encoder's whole-image delta over a GZIP stream, always 640x480
+    private static BufferedImage decodeLegacy(InputStream in) throws IOException {
+        byte[] filteredData = new GZIPInputStream(in).readAllBytes();
 
         // Verify length matches expected dimensions
-        if (filteredData.length != WIDTH * HEIGHT) {
+        if (filteredData.length != LEGACY_WIDTH * LEGACY_HEIGHT) {
             throw new IllegalStateException("Decompressed data size does not match expected dimensions");
         }
 
-        // Step 2: Reverse delta encoding
-        byte[] rawData = new byte[filteredData.length];
-        rawData[0] = filteredData[0]; // First pixel unchanged
-        for (int i = 1; i < rawData.length; i++) {
-            int prev = rawData[i - 1] & 0xFF;
-            int diff = filteredData[i] & 0xFF;
-            int curr = (prev + diff) & 0xFF;
-            rawData[i] = (byte) curr;
-        }
-
-        // Step 3: Unpack and reconstruct image
-        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-        int index = 0;
-        for (int y = 0; y < HEIGHT; y++) {
-            for (int x = 0; x < WIDTH; x++) {
-                int packedColor = rawData[index++] & 0xFF;
-                int r = (packedColor >> 5) & 0x07; // 0-7
-                int g = (packedColor >> 2) & 0x07; // 0-7
-                int b = packedColor & 0x03;        // 0-3
-                int rFull = (r * 255) / 7;         // Scale to 0-255
-                int gFull = (g * 255) / 7;
-                int bFull = (b * 255) / 3;
-                int rgb = (rFull << 16) | (gFull << 8) | bFull;
-                image.setRGB(x, y, rgb);
-            }
+        BufferedImage image = new BufferedImage(LEGACY_WIDTH, LEGACY_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int curr = 0;
+        for (int i = 0; i < filteredData.length; i++) {
+            curr = (curr + filteredData[i]) & 0xFF;
+            pixels[i] = expand(curr);
         }
+        return image;
+    }
+
+    // 0xRRGGBB to RGB332: 3 bits of red, 3 of green, 2 of blue
+    private static int quantize(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        return ((r / 36) << 5) | ((g / 36) << 2) | (b / 85);
+    }
+
+    // RGB332 back to 0xRRGGBB, each field scaled to 0-255
+    private static int expand(int packedColor) {
+        int r = (packedColor >> 5) & 0x07;
+        int g = (packedColor >> 2) & 0x07;
+        int b = packedColor & 0x03;
+        return ((r * 255) / 7 << 16) | ((g * 255) / 7 << 8) | (b * 255) / 3;
+    }
+
+    private interface StripeTask {
+        void run(int stripe) throws IOException;
+    }
 
-        // Step 4: Save as JPG
-        ImageIO.write(image, "jpg", new File(DECOMPRESSED_FILE));
-        System.out.println("Image decompressed and saved as " + DECOMPRESSED_FILE);
+    // Runs task for every stripe, across threads workers when there is more than one stripe
+    private static void runStripes(int stripeCount, int threads, StripeTask task) throws IOException {
+        if (threads <= 1 || stripeCount == 1) {
+            for (int stripe = 0; stripe < stripeCount; stripe++) {
+                task.run(stripe);
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, stripeCount));
+        try {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[stripeCount];
+            for (int stripe = 0; stripe < stripeCount; stripe++) {
+                int index = stripe;
+                tasks[stripe] = pool.submit(() -> {
+                    task.run(index);
+                    return null;
+                });
+            }
+            for (ForkJoinTask<?> stripeTask : tasks) {
+                try {
+                    stripeTask.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while coding palette stripes");
+                } catch (ExecutionException e) {
+                    throw new IOException("Palette stripe failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
     }
-}
\ No newline at end of file
+}
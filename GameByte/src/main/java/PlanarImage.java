@@ -0,0 +1,413 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Padded Y/Cb/Cr planes stored as flat row-major arrays.
+ * The encoder fills them straight from the raster's DataBuffer, subsampling chroma (4:2:0)
+ * two source rows at a time so no full-resolution Cb/Cr copy is ever made. The decoder writes
+ * its inverse-DCT blocks into them and converts back to RGB in one pass. The per-pixel colour
+ * work is done by ColorConverter.INSTANCE.
+ */
+public class PlanarImage {
+
+    private static final int BLOCK_SIZE = 8;
+
+    final int width;
+    final int height;
+    final int paddedWidthY;
+    final int paddedHeightY;
+    final int paddedWidthChroma;
+    final int paddedHeightChroma;
+    final Plane y;
+    final Plane cb;
+    final Plane cr;
+
+    /**
+     * Allocates empty planes for an image of the given size.
+     * Float precision halves the memory of the planes at the cost of bit-exactness with the double path.
+     */
+    public PlanarImage(int width, int height, boolean floatPrecision) {
+        this.width = width;
+        this.height = height;
+        int subsampledHeight = (height + 1) / 2;
+        int subsampledWidth = (width + 1) / 2;
+        paddedHeightY = padToBlock(height);
+        paddedWidthY = padToBlock(width);
+        paddedHeightChroma = padToBlock(subsampledHeight);
+        paddedWidthChroma = padToBlock(subsampledWidth);
+        y = Plane.create(paddedWidthY, paddedHeightY, floatPrecision);
+        cb = Plane.create(paddedWidthChroma, paddedHeightChroma, floatPrecision);
+        cr = Plane.create(paddedWidthChroma, paddedHeightChroma, floatPrecision);
+    }
+
+    /**
+     * Wraps existing planes, e.g. the reduced-scale planes of a progressive decode. Chroma is still
+     * taken to be subsampled 2x in both directions relative to y.
+     */
+    PlanarImage(int width, int height, Plane y, Plane cb, Plane cr) {
+        this.width = width;
+        this.height = height;
+        paddedWidthY = y.width;
+        paddedHeightY = y.height;
+        paddedWidthChroma = cb.width;
+        paddedHeightChroma = cb.height;
+        this.y = y;
+        this.cb = cb;
+        this.cr = cr;
+    }
+
+    /** Rounds a channel dimension up to a whole number of blocks. */
+    static int padToBlock(int size) {
+        return ((size + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+    }
+
+    /**
+     * Converts an image to padded YCbCr planes. Produces exactly the values of the old
+     * getRGB -> subsample -> padChannel pipeline when floatPrecision is false.
+     */
+    public static PlanarImage fromImage(BufferedImage image, boolean floatPrecision) {
+        PlanarImage planes = new PlanarImage(image.getWidth(), image.getHeight(), floatPrecision);
+        try {
+            planes.load(RowReader.forImage(image), 0, image.getHeight());
+        } catch (IOException e) {
+            // In-memory rows never fail to read
+            throw new UncheckedIOException(e);
+        }
+        return planes;
+    }
+
+    /**
+     * Fills the planes from rows [firstRow, firstRow + rows) of the source and pads everything below
+     * with the neutral value. The streaming encoder reuses one stripe-high PlanarImage this way;
+     * firstRow must be even so chroma pairs line up with the whole image.
+     */
+    void load(RowReader reader, int firstRow, int rows) throws IOException {
+        int[] rgbRow = new int[width];
+        double[] yRow = new double[paddedWidthY];
+        double[] cbRow0 = new double[width];
+        double[] crRow0 = new double[width];
+        double[] cbRow1 = new double[width];
+        double[] crRow1 = new double[width];
+        double[] cbOut = new double[paddedWidthChroma];
+        double[] crOut = new double[paddedWidthChroma];
+        Arrays.fill(yRow, width, yRow.length, 128); // Padding with neutral value
+        Arrays.fill(cbOut, 128);
+        Arrays.fill(crOut, 128);
+
+        int subsampledHeight = (rows + 1) / 2;
+        for (int sy = 0; sy < subsampledHeight; sy++) {
+            int srcY = sy * 2;
+            boolean secondRow = srcY + 1 < rows;
+            reader.read(firstRow + srcY, rgbRow);
+            convertRow(rgbRow, yRow, cbRow0, crRow0);
+            y.setRow(srcY, yRow);
+            if (secondRow) {
+                reader.read(firstRow + srcY + 1, rgbRow);
+                convertRow(rgbRow, yRow, cbRow1, crRow1);
+                y.setRow(srcY + 1, yRow);
+            }
+            subsampleRow(cbRow0, secondRow ? cbRow1 : null, width, cbOut);
+            subsampleRow(crRow0, secondRow ? crRow1 : null, width, crOut);
+            cb.setRow(sy, cbOut);
+            cr.setRow(sy, crOut);
+        }
+        y.fillRows(rows, 128);
+        cb.fillRows(subsampledHeight, 128);
+        cr.fillRows(subsampledHeight, 128);
+    }
+
+    /** RGB to full-resolution Y, Cb and Cr for one row of packed 0xRRGGBB pixels. */
+    static void convertRow(int[] rgbRow, double[] yRow, double[] cbRow, double[] crRow) {
+        ColorConverter.INSTANCE.toYCbCr(rgbRow, yRow, cbRow, crRow);
+    }
+
+    /**
+     * Averages 2x2 neighbourhoods of row0 and row1 (null for an odd last row) into (width + 1) / 2 samples,
+     * in the same summation order as the 2x2 loop in the old subsample().
+     */
+    static void subsampleRow(double[] row0, double[] row1, int width, double[] out) {
+        ColorConverter.INSTANCE.subsample(row0, row1, width, out);
+    }
+
+    /**
+     * Converts the planes back to RGB, upsampling chroma row by row rather than through a
+     * full-resolution copy, and writes straight into the image's int raster.
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        toRgb(height, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        return image;
+    }
+
+    /** Converts the first rows rows to packed 0xRRGGBB pixels, width pixels per row. */
+    void toRgb(int rows, int[] pixels) {
+        toRgb(rows, pixels, 0);
+    }
+
+    /**
+     * As toRgb(rows, pixels), starting at pixels[offset], e.g. a segment's first row in a whole-image raster.
+     * With bilinear upsampling the chroma rows above the first and below the last are clamped to these
+     * planes, so a stripe or segment is filtered vertically on its own.
+     */
+    void toRgb(int rows, int[] pixels, int offset) {
+        ColorConverter converter = ColorConverter.INSTANCE;
+        double[] yRow = new double[paddedWidthY];
+        double[] cbRow = new double[paddedWidthChroma];
+        double[] crRow = new double[paddedWidthChroma];
+        if (!ColorConverter.BILINEAR) {
+            for (int py = 0; py < rows; py++) {
+                y.getRow(py, yRow);
+                if ((py & 1) == 0) {
+                    cb.getRow(py / 2, cbRow);
+                    cr.getRow(py / 2, crRow);
+                }
+                converter.toRgb(yRow, cbRow, crRow, width, pixels, offset + py * width);
+            }
+            return;
+        }
+        // Bilinear: chroma is upsampled to full rows first, keeping each kernel small enough for C2 to
+        // compile without boxing its vectors
+        double[] cbFar = new double[paddedWidthChroma];
+        double[] crFar = new double[paddedWidthChroma];
+        double[] cbFull = new double[width];
+        double[] crFull = new double[width];
+        int lastChromaRow = (rows + 1) / 2 - 1;
+        for (int py = 0; py < rows; py++) {
+            y.getRow(py, yRow);
+            int near = py / 2;
+            if ((py & 1) == 0) {
+                cb.getRow(near, cbRow);
+                cr.getRow(near, crRow);
+            }
+            int far = Math.max(0, Math.min(lastChromaRow, (py & 1) == 0 ? near - 1 : near + 1));
+            cb.getRow(far, cbFar);
+            cr.getRow(far, crFar);
+            converter.upsampleBilinear(cbRow, cbFar, width, cbFull);
+            converter.upsampleBilinear(crRow, crFar, width, crFull);
+            converter.toRgbFull(yRow, cbFull, crFull, width, pixels, offset + py * width);
+        }
+    }
+
+    /** Bytes held by the three planes. */
+    public long sizeInBytes() {
+        return y.sizeInBytes() + cb.sizeInBytes() + cr.sizeInBytes();
+    }
+
+    /**
+     * A padded channel. Block access works on flat 64-element arrays centred on zero
+     * (the -128 level shift happens here), which is what the DCT stage wants.
+     */
+    abstract static class Plane {
+        final int width;
+        final int height;
+
+        Plane(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        static Plane create(int width, int height, boolean floatPrecision) {
+            return floatPrecision ? new FloatPlane(width, height) : new DoublePlane(width, height);
+        }
+
+        abstract void setRow(int y, double[] row);
+
+        abstract void getRow(int y, double[] row);
+
+        abstract void fillRows(int fromY, double value);
+
+        abstract void loadBlock(int x, int y, double[] block);
+
+        abstract void storeBlock(int x, int y, double[] block);
+
+        /** Sets every sample of the block at (x, y) to the level-shifted value, as storeBlock of a flat block would. */
+        abstract void fillBlock(int x, int y, double value);
+
+        abstract long sizeInBytes();
+    }
+
+    static final class DoublePlane extends Plane {
+        final double[] data;
+
+        DoublePlane(int width, int height) {
+            super(width, height);
+            data = new double[width * height];
+        }
+
+        @Override
+        void setRow(int y, double[] row) {
+            System.arraycopy(row, 0, data, y * width, width);
+        }
+
+        @Override
+        void getRow(int y, double[] row) {
+            System.arraycopy(data, y * width, row, 0, width);
+        }
+
+        @Override
+        void fillRows(int fromY, double value) {
+            Arrays.fill(data, fromY * width, data.length, value);
+        }
+
+        @Override
+        void loadBlock(int x, int y, double[] block) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int offset = (y + i) * width + x;
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    block[i * BLOCK_SIZE + j] = data[offset + j] - 128;
+                }
+            }
+        }
+
+        @Override
+        void storeBlock(int x, int y, double[] block) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int offset = (y + i) * width + x;
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    data[offset + j] = block[i * BLOCK_SIZE + j] + 128;
+                }
+            }
+        }
+
+        @Override
+        void fillBlock(int x, int y, double value) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int offset = (y + i) * width + x;
+                Arrays.fill(data, offset, offset + BLOCK_SIZE, value + 128);
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) data.length * Double.BYTES;
+        }
+    }
+
+    static final class FloatPlane extends Plane {
+        final float[] data;
+
+        FloatPlane(int width, int height) {
+            super(width, height);
+            data = new float[width * height];
+        }
+
+        @Override
+        void setRow(int y, double[] row) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                data[offset + x] = (float) row[x];
+            }
+        }
+
+        @Override
+        void getRow(int y, double[] row) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                row[x] = data[offset + x];
+            }
+        }
+
+        @Override
+        void fillRows(int fromY, double value) {
+            Arrays.fill(data, fromY * width, data.length, (float) value);
+        }
+
+        @Override
+        void loadBlock(int x, int y, double[] block) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int offset = (y + i) * width + x;
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    block[i * BLOCK_SIZE + j] = data[offset + j] - 128;
+                }
+            }
+        }
+
+        @Override
+        void storeBlock(int x, int y, double[] block) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int offset = (y + i) * width + x;
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    data[offset + j] = (float) (block[i * BLOCK_SIZE + j] + 128);
+                }
+            }
+        }
+
+        @Override
+        void fillBlock(int x, int y, double value) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int offset = (y + i) * width + x;
+                Arrays.fill(data, offset, offset + BLOCK_SIZE, (float) (value + 128));
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) data.length * Float.BYTES;
+        }
+    }
+
+    /**
+     * Reads one row of packed 0xRRGGBB pixels. Common JDK image types are read straight from
+     * the DataBuffer; anything else (grey, indexed, translated sub-images) goes through getRGB.
+     * Rows are requested in increasing order, which lets streaming sources read incrementally.
+     */
+    abstract static class RowReader {
+        abstract void read(int y, int[] rgbRow) throws IOException;
+
+        static RowReader forImage(BufferedImage image) {
+            Raster raster = image.getRaster();
+            DataBuffer buffer = raster.getDataBuffer();
+            boolean direct = raster.getSampleModelTranslateX() == 0
+                    && raster.getSampleModelTranslateY() == 0
+                    && buffer.getNumBanks() == 1;
+            int type = image.getType();
+            if (direct && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+                int[] data = ((DataBufferInt) buffer).getData();
+                int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                int base = buffer.getOffset();
+                return new RowReader() {
+                    @Override
+                    void read(int y, int[] rgbRow) {
+                        System.arraycopy(data, base + y * stride, rgbRow, 0, rgbRow.length);
+                    }
+                };
+            }
+            if (direct && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)) {
+                byte[] data = ((DataBufferByte) buffer).getData();
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                int stride = model.getScanlineStride();
+                int pixelStride = model.getPixelStride();
+                int[] bandOffsets = model.getBandOffsets();
+                int base = buffer.getOffset();
+                int rOffset = bandOffsets[0];
+                int gOffset = bandOffsets[1];
+                int bOffset = bandOffsets[2];
+                return new RowReader() {
+                    @Override
+                    void read(int y, int[] rgbRow) {
+                        int index = base + y * stride;
+                        for (int x = 0; x < rgbRow.length; x++, index += pixelStride) {
+                            rgbRow[x] = ((data[index + rOffset] & 0xFF) << 16)
+                                    | ((data[index + gOffset] & 0xFF) << 8)
+                                    | (data[index + bOffset] & 0xFF);
+                        }
+                    }
+                };
+            }
+            return new RowReader() {
+                @Override
+                void read(int y, int[] rgbRow) {
+                    image.getRGB(0, y, rgbRow.length, 1, rgbRow, 0, rgbRow.length);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * PSNR, SSIM and MS-SSIM between a source image and its decoded .byt, computed on the Y/Cb/Cr planes
+ * the codec itself works in (chroma at its subsampled 4:2:0 resolution), so batch jobs can be gated on
+ * quality without round-tripping through the OpenCV tool in SSIM Comparison.
+ *
+ * SSIM follows that tool: an 11x11 Gaussian window with sigma 1.5, reflected borders, C1 = (0.01 * 255)^2
+ * and C2 = (0.03 * 255)^2, averaged over the whole map. MS-SSIM (Wang et al. 2003) is measured on luma over
+ * five dyadic scales. Each plane is split into bands of TILE_ROWS rows that are evaluated in parallel;
+ * per-band sums are added in band order, so the result does not depend on the thread count.
+ */
+public class QualityMetrics {
+
+    private static final int DEFAULT_THREADS = Integer.getInteger("gamebyte.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int TILE_ROWS = 64;
+    private static final int WINDOW_RADIUS = 5;
+    private static final double SIGMA = 1.5;
+    private static final double C1 = 6.5025; // (0.01 * 255)^2
+    private static final double C2 = 58.5225; // (0.03 * 255)^2
+    private static final double[] MS_SSIM_WEIGHTS = {0.0448, 0.2856, 0.3001, 0.2363, 0.1333};
+    // Y counts for 6 of the 8 parts of the combined PSNR and SSIM, as is usual for 4:2:0 video metrics
+    private static final double LUMA_WEIGHT = 6.0 / 8.0;
+    private static final double CHROMA_WEIGHT = 1.0 / 8.0;
+    private static final double[] WINDOW = gaussianWindow();
+
+    public static void main(String[] args) {
+        String sourcePath = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\1.png";
+        String compressedPath = "E:\\Uni work\\Computing Project\\The-Computing-Project\\GameByte\\src\\main\\resources\\assets\\textures\\Compressed\\1.byt";
+        // Usage: <source image> <compressed .byt> [threads]
+        if (args.length >= 2) {
+            sourcePath = args[0];
+            compressedPath = args[1];
+        }
+        int threads = args.length >= 3 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+
+        try {
+            BufferedImage source = ImageIO.read(new File(sourcePath));
+            if (source == null) {
+                throw new IOException("Unsupported image format: " + sourcePath);
+            }
+            BufferedImage decoded;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(compressedPath))) {
+                decoded = GameByteDecompressor.decompress(in);
+            }
+
+            long startTime = System.nanoTime();
+            Report report = compare(source, decoded, threads);
+            long endTime = System.nanoTime();
+
+            //Evaluation
+            System.out.println(report);
+            double timeTakenMs = (endTime - startTime) / 1_000_000.0;
+            System.out.printf("Time taken: %.2f ms (%d threads, %.1f MP/s)%n", timeTakenMs, threads,
+                    source.getWidth() * (double) source.getHeight() / 1000.0 / timeTakenMs);
+        } catch (IOException e) {
+            System.err.println("Error during quality comparison: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /** Compares two images of the same size after converting both to planes. */
+    public static Report compare(BufferedImage source, BufferedImage decoded, int threads) {
+        if (source.getWidth() != decoded.getWidth() || source.getHeight() != decoded.getHeight()) {
+            throw new IllegalArgumentException("Images differ in size: " + source.getWidth() + "x" + source.getHeight()
+                    + " vs " + decoded.getWidth() + "x" + decoded.getHeight());
+        }
+        return compare(PlanarImage.fromImage(source, false), PlanarImage.fromImage(decoded, false), threads);
+    }
+
+    /** Compares the unpadded area of two same-sized sets of planes. */
+    static Report compare(PlanarImage source, PlanarImage decoded, int threads) {
+        int chromaWidth = (source.width + 1) / 2;
+        int chromaHeight = (source.height + 1) / 2;
+        Channel y = new Channel(source.y, decoded.y, source.width, source.height);
+        Channel cb = new Channel(source.cb, decoded.cb, chromaWidth, chromaHeight);
+        Channel cr = new Channel(source.cr, decoded.cr, chromaWidth, chromaHeight);
+
+        if (threads <= 1) {
+            return measure(y, cb, cr, null);
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return measure(y, cb, cr, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Report measure(Channel y, Channel cb, Channel cr, ForkJoinPool pool) {
+        double[] mse = {meanSquaredError(y, pool), meanSquaredError(cb, pool), meanSquaredError(cr, pool)};
+        double[] ssimY = ssim(y.source, y.decoded, y.width, y.height, pool);
+        double[] ssimCb = ssim(cb.source, cb.decoded, cb.width, cb.height, pool);
+        double[] ssimCr = ssim(cr.source, cr.decoded, cr.width, cr.height, pool);
+        double weightedMse = LUMA_WEIGHT * mse[0] + CHROMA_WEIGHT * (mse[1] + mse[2]);
+        return new Report(psnr(mse[0]), psnr(mse[1]), psnr(mse[2]), psnr(weightedMse),
+                ssimY[0], ssimCb[0], ssimCr[0], LUMA_WEIGHT * ssimY[0] + CHROMA_WEIGHT * (ssimCb[0] + ssimCr[0]),
+                msSsim(y.source, y.decoded, y.width, y.height, ssimY, pool));
+    }
+
+    private static double psnr(double mse) {
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    private static double meanSquaredError(Channel channel, ForkJoinPool pool) {
+        double[] sums = forEachTile(channel.height, pool, (fromY, toY) -> {
+            double sum = 0;
+            for (int i = fromY * channel.width; i < toY * channel.width; i++) {
+                double diff = channel.source[i] - channel.decoded[i];
+                sum += diff * diff;
+            }
+            return new double[]{sum};
+        });
+        return sums[0] / ((double) channel.width * channel.height);
+    }
+
+    /**
+     * Mean SSIM and mean contrast-structure term over the map, as {ssim, cs}.
+     * Each band blurs rows WINDOW_RADIUS above and below itself horizontally, then blurs those vertically,
+     * so no full-size blurred copy of the plane is ever held.
+     */
+    private static double[] ssim(double[] a, double[] b, int width, int height, ForkJoinPool pool) {
+        double[] sums = forEachTile(height, pool, (fromY, toY) -> {
+            int first = fromY - WINDOW_RADIUS;
+            int rows = toY - fromY + 2 * WINDOW_RADIUS;
+            // Horizontally blurred a, b, a^2, b^2 and a*b for the band plus its margins
+            double[][] blurred = new double[5][rows * width];
+            for (int r = 0; r < rows; r++) {
+                int row = reflect(first + r, height) * width;
+                int out = r * width;
+                for (int x = 0; x < width; x++) {
+                    double muA = 0, muB = 0, aa = 0, bb = 0, ab = 0;
+                    for (int k = -WINDOW_RADIUS; k <= WINDOW_RADIUS; k++) {
+                        int i = row + reflect(x + k, width);
+                        double w = WINDOW[k + WINDOW_RADIUS];
+                        double va = a[i];
+                        double vb = b[i];
+                        muA += w * va;
+                        muB += w * vb;
+                        aa += w * va * va;
+                        bb += w * vb * vb;
+                        ab += w * va * vb;
+                    }
+                    blurred[0][out + x] = muA;
+                    blurred[1][out + x] = muB;
+                    blurred[2][out + x] = aa;
+                    blurred[3][out + x] = bb;
+                    blurred[4][out + x] = ab;
+                }
+            }
+            double ssimSum = 0;
+            double csSum = 0;
+            for (int yy = fromY; yy < toY; yy++) {
+                int centre = (yy - first) * width;
+                for (int x = 0; x < width; x++) {
+                    double muA = 0, muB = 0, aa = 0, bb = 0, ab = 0;
+                    for (int k = -WINDOW_RADIUS; k <= WINDOW_RADIUS; k++) {
+                        int i = centre + k * width + x;
+                        double w = WINDOW[k + WINDOW_RADIUS];
+                        muA += w * blurred[0][i];
+                        muB += w * blurred[1][i];
+                        aa += w * blurred[2][i];
+                        bb += w * blurred[3][i];
+                        ab += w * blurred[4][i];
+                    }
+                    double varA = aa - muA * muA;
+                    double varB = bb - muB * muB;
+                    double covariance = ab - muA * muB;
+                    double cs = (2 * covariance + C2) / (varA + varB + C2);
+                    csSum += cs;
+                    ssimSum += (2 * muA * muB + C1) / (muA * muA + muB * muB + C1) * cs;
+                }
+            }
+            return new double[]{ssimSum, csSum};
+        });
+        double pixels = (double) width * height;
+        return new double[]{sums[0] / pixels, sums[1] / pixels};
+    }
+
+    /**
+     * Multi-scale SSIM on luma: contrast-structure at each scale and full SSIM at the coarsest, weighted as
+     * in the paper. Scales stop once the plane is smaller than the window, with the weights renormalized.
+     * fullScale is the {ssim, cs} already measured at the original resolution.
+     */
+    private static double msSsim(double[] a, double[] b, int width, int height, double[] fullScale, ForkJoinPool pool) {
+        int scales = 1;
+        while (scales < MS_SSIM_WEIGHTS.length
+                && Math.min(width >> scales, height >> scales) >= 2 * WINDOW_RADIUS + 1) {
+            scales++;
+        }
+        double weightSum = 0;
+        for (int s = 0; s < scales; s++) {
+            weightSum += MS_SSIM_WEIGHTS[s];
+        }
+
+        double[] terms = fullScale;
+        double product = 1;
+        for (int s = 0; ; s++) {
+            double weight = MS_SSIM_WEIGHTS[s] / weightSum;
+            if (s == scales - 1) {
+                return product * Math.pow(Math.max(0, terms[0]), weight);
+            }
+            product *= Math.pow(Math.max(0, terms[1]), weight);
+            a = downsample(a, width, height);
+            b = downsample(b, width, height);
+            width /= 2;
+            height /= 2;
+            terms = ssim(a, b, width, height, pool);
+        }
+    }
+
+    // Averages 2x2 neighbourhoods, dropping an odd last row or column
+    private static double[] downsample(double[] plane, int width, int height) {
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        double[] out = new double[halfWidth * halfHeight];
+        for (int y = 0; y < halfHeight; y++) {
+            int row0 = 2 * y * width;
+            int row1 = row0 + width;
+            for (int x = 0; x < halfWidth; x++) {
+                out[y * halfWidth + x] = (plane[row0 + 2 * x] + plane[row0 + 2 * x + 1]
+                        + plane[row1 + 2 * x] + plane[row1 + 2 * x + 1]) / 4;
+            }
+        }
+        return out;
+    }
+
+    // Mirrors an out-of-range index about the edge sample without repeating it (dcb|abcd|cba), like OpenCV's default border
+    private static int reflect(int i, int size) {
+        if (size == 1) {
+            return 0;
+        }
+        while (i < 0 || i >= size) {
+            i = i < 0 ? -i : 2 * size - 2 - i;
+        }
+        return i;
+    }
+
+    private static double[] gaussianWindow() {
+        double[] window = new double[2 * WINDOW_RADIUS + 1];
+        double sum = 0;
+        for (int i = 0; i < window.length; i++) {
+            int d = i - WINDOW_RADIUS;
+            window[i] = Math.exp(-d * d / (2 * SIGMA * SIGMA));
+            sum += window[i];
+        }
+        for (int i = 0; i < window.length; i++) {
+            window[i] /= sum;
+        }
+        return window;
+    }
+
+    /** Runs tile over bands of TILE_ROWS rows, on pool if there is one, and adds up what each band returns. */
+    private static double[] forEachTile(int height, ForkJoinPool pool, TileFunction tile) {
+        int tiles = (height + TILE_ROWS - 1) / TILE_ROWS;
+        List<double[]> partials = new ArrayList<>(tiles);
+        if (pool == null || tiles == 1) {
+            for (int t = 0; t < tiles; t++) {
+                partials.add(tile.apply(t * TILE_ROWS, Math.min(height, (t + 1) * TILE_ROWS)));
+            }
+        } else {
+            List<ForkJoinTask<double[]>> tasks = new ArrayList<>(tiles);
+            for (int t = 0; t < tiles; t++) {
+                int fromY = t * TILE_ROWS;
+                int toY = Math.min(height, fromY + TILE_ROWS);
+                tasks.add(pool.submit(() -> tile.apply(fromY, toY)));
+            }
+            for (ForkJoinTask<double[]> task : tasks) {
+                try {
+                    partials.add(task.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while measuring quality", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Quality measurement failed", e.getCause());
+                }
+            }
+        }
+        double[] total = new double[partials.isEmpty() ? 1 : partials.get(0).length];
+        for (double[] partial : partials) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += partial[i];
+            }
+        }
+        return total;
+    }
+
+    @FunctionalInterface
+    private interface TileFunction {
+        double[] apply(int fromY, int toY);
+    }
+
+    // One channel of both images, cropped to its unpadded size
+    private static final class Channel {
+        final double[] source;
+        final double[] decoded;
+        final int width;
+        final int height;
+
+        Channel(PlanarImage.Plane source, PlanarImage.Plane decoded, int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.source = crop(source, width, height);
+            this.decoded = crop(decoded, width, height);
+        }
+
+        private static double[] crop(PlanarImage.Plane plane, int width, int height) {
+            double[] row = new double[plane.width];
+            double[] out = new double[width * height];
+            for (int y = 0; y < height; y++) {
+                plane.getRow(y, row);
+                System.arraycopy(row, 0, out, y * width, width);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * The scores for one image. PSNR is in dB (infinite for identical planes); the combined PSNR is taken
+     * from the 6:1:1 weighted mean squared error and the combined SSIM is the 6:1:1 weighted mean.
+     */
+    public record Report(double psnrY, double psnrCb, double psnrCr, double psnr,
+                         double ssimY, double ssimCb, double ssimCr, double ssim, double msSsim) {
+
+        @Override
+        public String toString() {
+            return String.format("PSNR: %.2f dB (Y %.2f, Cb %.2f, Cr %.2f)%nSSIM: %.5f (Y %.5f, Cb %.5f, Cr %.5f)%nMS-SSIM (Y): %.5f",
+                    psnr, psnrY, psnrCb, psnrCr, ssim, ssimY, ssimCb, ssimCr, msSsim);
+        }
+    }
+}
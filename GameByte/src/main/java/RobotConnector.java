@@ -9,6 +9,13 @@ import java.util.HashMap;
 import java.util.Map;
 public class RobotConnector extends GameApplication {
 
+    // The robot's camera: one JPEG per GET, authorised by the token header
+    static final String VIDEO_CAPTURE_URL = "https://rt-0143.robothespian.co.uk/tritium/video_capture/jpeg";
+    private static final String AUTH_HEADER = "X-Tritium-Auth-Token";
+    // The token is not kept in the source: -Dgamebyte.cameraToken, else the TRITIUM_AUTH_TOKEN environment variable
+    private static final String AUTH_TOKEN_PROPERTY = "gamebyte.cameraToken";
+    private static final String AUTH_TOKEN_ENV = "TRITIUM_AUTH_TOKEN";
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -16,6 +23,7 @@ public class RobotConnector extends GameApplication {
     @Override
     protected void initSettings(GameSettings gameSettings) {
         gameSettings.addEngineService(HttpClientService.class);
+        gameSettings.addEngineService(BytTextureService.class);
     }
 
     @Override
@@ -27,8 +35,8 @@ public class RobotConnector extends GameApplication {
     public void captureImageToFile(Path file)
     {
         FXGL.getService(HttpClientService.class)
-                .sendGETRequestTask("https://rt-0143.robothespian.co.uk/tritium/video_capture/jpeg",
-                        Map.of("X-Tritium-Auth-Token", getKey()),
+                .sendGETRequestTask(VIDEO_CAPTURE_URL,
+                        authHeaders(),
                 HttpResponse.BodyHandlers.ofFile(file))
                 .onSuccess(res -> System.out.println(res.statusCode()))
                 .onFailure(e->{
@@ -37,7 +45,17 @@ public class RobotConnector extends GameApplication {
                 .run();
     }
 
-    private String getKey(){
-        return "hALeFOM4uzqpK6KWSr6ADY5Ou9MNXd";
+    /** The headers that authorise a camera request; throws if no token has been configured. */
+    static Map<String, String> authHeaders() {
+        return Map.of(AUTH_HEADER, getKey());
+    }
+
+    private static String getKey(){
+        String token = System.getProperty(AUTH_TOKEN_PROPERTY, System.getenv(AUTH_TOKEN_ENV));
+        if (token == null || token.isBlank()) {
+            throw new IllegalStateException("No camera token: set -D" + AUTH_TOKEN_PROPERTY + " or the "
+                    + AUTH_TOKEN_ENV + " environment variable");
+        }
+        return token;
     }
 }
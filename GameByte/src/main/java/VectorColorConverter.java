@@ -0,0 +1,231 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ColorConverter on the Java Vector API (jdk.incubator.vector), one preferred-width double vector of
+ * pixels at a time, with ints at the same lane count for the unpacking and packing.
+ * Every kernel does the same IEEE operations in the same order as ColorConverter.Scalar (no FMA), so the
+ * results are bit-identical; rounding is truncate-then-correct rather than +0.5, which would round a
+ * handful of values just below .5 the wrong way. Image edges and row tails go through the scalar loops.
+ * Only ever loaded through ColorConverter.INSTANCE, and only when the incubator module is present.
+ *
+ * Until C2 has compiled them, Vector API calls run boxed and are many times slower than scalar code:
+ * about 1.5 s of a cold 2000x2000 conversion. So a daemon thread first runs every kernel on small
+ * dummy rows, and the converter answers with the scalar loops until it has finished. Short runs then cost
+ * what they did before, long-running ones (batch, texture service) get the vectors. On a single core the
+ * warm-up would only slow the real work down, so there the scalar loops are kept.
+ * -Dgamebyte.simd=true skips the warm-up and vectorizes from the first row, for long runs on one core and
+ * for benchmarks that warm up on their own.
+ */
+final class VectorColorConverter extends ColorConverter {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = DOUBLES.length();
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, VectorShape.forBitSize(LANES * Integer.SIZE));
+
+    // Deinterleave two vectors of samples into even and odd columns, for the 2x2 average: each vector is
+    // shuffled on its own and the halves blended, which C2 compiles far better than a two-vector rearrange
+    private static final VectorShuffle<Double> EVEN = VectorShuffle.fromOp(DOUBLES, i -> 2 * i % LANES);
+    private static final VectorShuffle<Double> ODD = VectorShuffle.fromOp(DOUBLES, i -> (2 * i + 1) % LANES);
+    private static final VectorMask<Double> UPPER = VectorMask.fromLong(DOUBLES, -1L << (LANES / 2));
+    // Lane i takes chroma sample i / 2 of a vector loaded at x / 2
+    private static final VectorShuffle<Double> REPEAT = VectorShuffle.fromOp(DOUBLES, i -> i / 2);
+    // Bilinear, from a vector loaded at x / 2 - 1: the pixel's own sample and the neighbour on its side
+    private static final VectorShuffle<Double> OWN = VectorShuffle.fromOp(DOUBLES, i -> i / 2 + 1);
+    private static final VectorShuffle<Double> SIDE = VectorShuffle.fromOp(DOUBLES, i -> i / 2 + ((i & 1) == 0 ? 0 : 2));
+
+    // The warm-up runs in batches and gives up (staying scalar) after WARMUP_BATCHES
+    private static final int WARMUP_BATCH = 1024;
+    private static final int WARMUP_BATCHES = 256;
+
+    private static volatile boolean warm;
+
+    VectorColorConverter() {
+        // The bilinear shuffles need the neighbour on the right to fit in the same vector
+        if (LANES < 4) {
+            throw new UnsupportedOperationException(DOUBLES + " is too narrow");
+        }
+        if (Boolean.getBoolean("gamebyte.simd")) {
+            warm = true;
+        } else if (Runtime.getRuntime().availableProcessors() > 1) {
+            Thread.ofPlatform().name("gamebyte-simd-warmup").daemon().start(VectorColorConverter::warmUp);
+        }
+    }
+
+    // Rows a few vectors wide: the call count is what gets a kernel compiled, and short rows keep the
+    // boxed iterations before that cheap. Compilation is asynchronous, so rather than count calls the
+    // warm-up times each batch against the scalar loops on the same rows and switches over once the
+    // vectors have been faster twice in a row
+    private static void warmUp() {
+        int width = 4 * LANES + 3;
+        int[] rgb = new int[width];
+        double[] y = new double[width];
+        double[] cb = new double[width];
+        double[] cr = new double[width];
+        double[] chroma = new double[width];
+        int[] pixels = new int[width];
+        int faster = 0;
+        for (int batch = 0; batch < WARMUP_BATCHES && faster < 2; batch++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < WARMUP_BATCH; i++) {
+                rgb[i % width] = i * 0x010305;
+                toYCbCrVectors(rgb, y, cb, cr);
+                subsampleVectors(cb, cr, width, chroma);
+                toRgbVectors(y, chroma, chroma, width, pixels, 0);
+                upsampleBilinearVectors(chroma, chroma, width, cb);
+                toRgbFullVectors(y, cb, cr, width, pixels, 0);
+            }
+            long vectorNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < WARMUP_BATCH; i++) {
+                rgb[i % width] = i * 0x010305;
+                Scalar.toYCbCr(rgb, y, cb, cr, 0, width);
+                Scalar.subsample(cb, cr, width, chroma, 0);
+                Scalar.toRgb(y, chroma, chroma, 0, width, pixels, 0);
+                Scalar.upsampleBilinear(chroma, chroma, width, 0, width, cb);
+                Scalar.toRgbFull(y, cb, cr, 0, width, pixels, 0);
+            }
+            long scalarNanos = System.nanoTime() - start;
+            faster = vectorNanos < scalarNanos ? faster + 1 : 0;
+        }
+        warm = faster >= 2;
+    }
+
+    @Override
+    void toYCbCr(int[] rgbRow, double[] yRow, double[] cbRow, double[] crRow) {
+        int x = warm ? toYCbCrVectors(rgbRow, yRow, cbRow, crRow) : 0;
+        Scalar.toYCbCr(rgbRow, yRow, cbRow, crRow, x, rgbRow.length);
+    }
+
+    // Each kernel converts as far as whole vectors go and returns where the scalar loop should take over
+    private static int toYCbCrVectors(int[] rgbRow, double[] yRow, double[] cbRow, double[] crRow) {
+        int width = rgbRow.length;
+        int x = 0;
+        for (; x <= width - LANES; x += LANES) {
+            IntVector rgb = IntVector.fromArray(INTS, rgbRow, x);
+            DoubleVector r = channel(rgb, 16);
+            DoubleVector g = channel(rgb, 8);
+            DoubleVector b = channel(rgb, 0);
+            r.mul(0.299).add(g.mul(0.587)).add(b.mul(0.114)).intoArray(yRow, x);
+            r.mul(-0.1687).sub(g.mul(0.3313)).add(b.mul(0.5)).add(128).intoArray(cbRow, x);
+            r.mul(0.5).sub(g.mul(0.4187)).sub(b.mul(0.0813)).add(128).intoArray(crRow, x);
+        }
+        return x;
+    }
+
+    private static DoubleVector channel(IntVector rgb, int shift) {
+        return (DoubleVector) rgb.lanewise(VectorOperators.LSHR, shift).and(0xFF)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+
+    @Override
+    void subsample(double[] row0, double[] row1, int width, double[] out) {
+        // Whole 2x2 neighbourhoods only; an odd last row or column has a different count
+        int sx = warm && row1 != null ? subsampleVectors(row0, row1, width, out) : 0;
+        Scalar.subsample(row0, row1, width, out, sx);
+    }
+
+    private static int subsampleVectors(double[] row0, double[] row1, int width, double[] out) {
+        int sx = 0;
+        for (; 2 * (sx + LANES) <= width; sx += LANES) {
+            int srcX = 2 * sx;
+            DoubleVector a0 = DoubleVector.fromArray(DOUBLES, row0, srcX);
+            DoubleVector a1 = DoubleVector.fromArray(DOUBLES, row0, srcX + LANES);
+            DoubleVector b0 = DoubleVector.fromArray(DOUBLES, row1, srcX);
+            DoubleVector b1 = DoubleVector.fromArray(DOUBLES, row1, srcX + LANES);
+            columns(a0, a1, EVEN).add(columns(a0, a1, ODD))
+                    .add(columns(b0, b1, EVEN)).add(columns(b0, b1, ODD))
+                    .div(4).intoArray(out, sx);
+        }
+        return sx;
+    }
+
+    private static DoubleVector columns(DoubleVector low, DoubleVector high, VectorShuffle<Double> pick) {
+        return low.rearrange(pick).blend(high.rearrange(pick), UPPER);
+    }
+
+    @Override
+    void toRgb(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels, int offset) {
+        int x = warm ? toRgbVectors(yRow, cbRow, crRow, width, pixels, offset) : 0;
+        Scalar.toRgb(yRow, cbRow, crRow, x, width, pixels, offset);
+    }
+
+    private static int toRgbVectors(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels, int offset) {
+        int x = 0;
+        // x stays even, so x / 2 + LANES is within the chroma row whenever x + LANES is within the luma row
+        for (; x <= width - LANES && x / 2 + LANES <= cbRow.length; x += LANES) {
+            DoubleVector cb = DoubleVector.fromArray(DOUBLES, cbRow, x / 2).rearrange(REPEAT);
+            DoubleVector cr = DoubleVector.fromArray(DOUBLES, crRow, x / 2).rearrange(REPEAT);
+            pack(DoubleVector.fromArray(DOUBLES, yRow, x), cb, cr).intoArray(pixels, offset + x);
+        }
+        return x;
+    }
+
+    @Override
+    void toRgbFull(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels, int offset) {
+        int x = warm ? toRgbFullVectors(yRow, cbRow, crRow, width, pixels, offset) : 0;
+        Scalar.toRgbFull(yRow, cbRow, crRow, x, width, pixels, offset);
+    }
+
+    private static int toRgbFullVectors(double[] yRow, double[] cbRow, double[] crRow, int width, int[] pixels,
+                                        int offset) {
+        int x = 0;
+        for (; x <= width - LANES; x += LANES) {
+            pack(DoubleVector.fromArray(DOUBLES, yRow, x), DoubleVector.fromArray(DOUBLES, cbRow, x),
+                    DoubleVector.fromArray(DOUBLES, crRow, x)).intoArray(pixels, offset + x);
+        }
+        return x;
+    }
+
+    @Override
+    void upsampleBilinear(double[] near, double[] far, int width, double[] out) {
+        // Pixels 0 and 1 need the clamp on the left, so the vectors start at 2
+        int head = Math.min(2, width);
+        int x = warm ? upsampleBilinearVectors(near, far, width, out) : head;
+        Scalar.upsampleBilinear(near, far, width, 0, head, out);
+        Scalar.upsampleBilinear(near, far, width, x, width, out);
+    }
+
+    private static int upsampleBilinearVectors(double[] near, double[] far, int width, double[] out) {
+        int lastSample = (width + 1) / 2 - 1;
+        int x = Math.min(2, width);
+        // The last lane's side sample is x / 2 + LANES / 2, which must not pass the last real sample
+        for (; x <= width - LANES && x / 2 + LANES / 2 <= lastSample; x += LANES) {
+            int from = x / 2 - 1;
+            DoubleVector samples = DoubleVector.fromArray(DOUBLES, near, from).mul(NEAR)
+                    .add(DoubleVector.fromArray(DOUBLES, far, from).mul(FAR));
+            samples.rearrange(OWN).mul(NEAR).add(samples.rearrange(SIDE).mul(FAR)).intoArray(out, x);
+        }
+        return x;
+    }
+
+    private static IntVector pack(DoubleVector y, DoubleVector cb, DoubleVector cr) {
+        DoubleVector cbShifted = cb.sub(128);
+        DoubleVector crShifted = cr.sub(128);
+        IntVector r = toByte(y.add(crShifted.mul(1.402)));
+        IntVector g = toByte(y.sub(cbShifted.mul(0.34414)).sub(crShifted.mul(0.71414)));
+        IntVector b = toByte(y.add(cbShifted.mul(1.772)));
+        return r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b);
+    }
+
+    // Clamping first is the same as Math.round then clamp; on 0..255 the cast truncates, and adding one
+    // where the dropped fraction is at least a half gives Math.round exactly. The correction is a blend on
+    // doubles because a masked add with the mask cast to ints is not intrinsified and falls back to Java
+    private static IntVector toByte(DoubleVector value) {
+        DoubleVector clamped = value.max(0).min(255);
+        DoubleVector truncated = (DoubleVector) clamped.convertShape(VectorOperators.D2I, INTS, 0)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+        DoubleVector rounded = truncated.blend(truncated.add(1), clamped.sub(truncated).compare(VectorOperators.GE, 0.5));
+        return (IntVector) rounded.convertShape(VectorOperators.D2I, INTS, 0);
+    }
+
+    @Override
+    String name() {
+        return "vector " + DOUBLES.vectorBitSize() + "-bit x" + LANES;
+    }
+}